@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -25,6 +27,33 @@ import simpledb.transaction.TransactionId;
 public class Parser {
     static boolean explain = false;
 
+    static final int NO_LIMIT = -1;
+
+    // Zql does not know about LIMIT, so a trailing "LIMIT n" is cut off the
+    // statement before it is handed to the ZqlParser
+    static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    // the LIMIT of the statement currently being processed, or NO_LIMIT
+    private int limit = NO_LIMIT;
+
+    /**
+     * Removes a trailing LIMIT clause from the statement and remembers its
+     * value for the statement handlers: SELECT and INSERT ... SELECT apply it
+     * to the query plan, the other statements reject it.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimitClause(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find()) {
+            limit = NO_LIMIT;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(1));
+        return s.substring(0, m.start()) + m.group(2);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -187,23 +216,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +237,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +247,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAggregate = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,12 +268,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
         }
         // sort the data
 
@@ -284,6 +306,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != NO_LIMIT)
+            lp.addLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -339,6 +363,9 @@ public class Parser {
         OpIterator newTups;
 
         if (s.getValues() != null) {
+            if (limit != NO_LIMIT)
+                throw new simpledb.ParsingException(
+                        "LIMIT is not supported on INSERT ... VALUES statements.");
             @SuppressWarnings("unchecked")
             List<ZExp> values = s.getValues();
             if (td.numFields() != values.size()) {
@@ -383,6 +410,8 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (limit != NO_LIMIT)
+                lp.addLimit(limit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -393,6 +422,9 @@ public class Parser {
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws
             simpledb.ParsingException, IOException, ParseException {
+        if (limit != NO_LIMIT)
+            throw new simpledb.ParsingException(
+                    "LIMIT is not supported on DELETE statements.");
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -465,12 +497,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimitClause(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit != NO_LIMIT)
+                    lp.addLimit(limit);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,7 +530,9 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String statement = new String(readFully(is), StandardCharsets.UTF_8);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimitClause(statement).getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -564,10 +601,19 @@ public class Parser {
         }
     }
 
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1)
+            bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -7,6 +7,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -15,6 +17,21 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // --threads=N converts with N threads in parallel; it may appear anywhere
+                    int threads = 0;
+                    List<String> positional = new ArrayList<>();
+                    for (String arg : args) {
+                        if (arg.startsWith("--threads=")) {
+                            try {
+                                threads = Integer.parseInt(arg.substring("--threads=".length()));
+                            } catch (NumberFormatException e) {
+                                System.err.println("Usage: convert <file.txt> <columns> [<types> [<separator>]] [--threads=N]");
+                                return;
+                            }
+                        } else
+                            positional.add(arg);
+                    }
+                    args = positional.toArray(new String[0]);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -50,8 +67,12 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (threads > 0)
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, threads);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,6 +1,8 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -212,7 +214,29 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                //括号后可以写slotted或dictionary指定HeapFile的页格式，写columnar按列存储，
+                //或写btree存成以主键为键的B+树，扫描时按主键有序
+                String layout = line.substring(line.indexOf(")") + 1).trim();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = null;
+                if (layout.isEmpty()) {
+                    tabHf = new HeapFile(tableFile, t);
+                } else if (layout.equalsIgnoreCase("columnar")) {
+                    tabHf = new ColumnFile(tableFile, t);
+                } else if (layout.equalsIgnoreCase("btree")) {
+                    if (primaryKey.isEmpty()) {
+                        System.out.println("A btree table needs a pk column: " + name);
+                        System.exit(0);
+                    }
+                    tabHf = new BTreeFile(tableFile, names.indexOf(primaryKey), t);
+                } else {
+                    try {
+                        tabHf = new HeapFile(tableFile, t, HeapFile.PageFormat.valueOf(layout.toUpperCase()));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Unknown table annotation " + layout);
+                        System.exit(0);
+                    }
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -4,6 +4,7 @@ import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.io.*;
 
@@ -28,6 +29,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf) {
+            buf.putInt(((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +57,26 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.min(readInt(data, offset), STRING_LEN);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf) {
+            String value = ((StringField) f).getValue();
+            int strLen = Math.min(value.length(), STRING_LEN);
+            buf.putInt(strLen);
+            //与DataOutputStream.writeBytes一样只写每个字符的低8位
+            for (int i = 0; i < strLen; i++) {
+                buf.put((byte) value.charAt(i));
+            }
+            for (int i = strLen; i < STRING_LEN; i++) {
+                buf.put((byte) 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +95,26 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents are
+   *   the {@link #getLen()} bytes of data starting at offset, in the format
+   *   written by {@link Field#serialize}.
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Writes f, a Field of this type, at the position of buf in the format of
+   *   {@link Field#serialize}, advancing the position by {@link #getLen()}.
+   */
+    public abstract void write(Field f, ByteBuffer buf);
+
+  /**
+   * @return the int at offset in data, in the big-endian format written by
+   *   {@link DataOutputStream#writeInt}
+   */
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
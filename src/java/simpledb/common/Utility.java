@@ -105,6 +105,7 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
+        FreeSpaceMap.delete(f);
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
@@ -12,8 +12,9 @@ import java.util.NoSuchElementException;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). An Aggregate computes either a single aggregate grouped by at most one
+ * column, or, through {@link #Aggregate(OpIterator, int[], int[], Aggregator.Op[])},
+ * several aggregates grouped by several columns in a single pass.
  */
 public class Aggregate extends Operator {
 
@@ -24,6 +25,13 @@ public class Aggregate extends Operator {
     private int gfield;
     private Aggregator.Op aop;
 
+    //多聚合、多分组列时的全部参数；单个聚合时长度为1(不分组时gfields长度为0)
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
+
+    //内存中最多保留的分组数，0表示不限制
+    private int maxGroupsInMemory;
 
     private OpIterator child;
 
@@ -57,32 +65,130 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, 0);
+    }
+
+    /**
+     * Constructor for an aggregate that keeps at most maxGroupsInMemory groups
+     * in memory and partitions the remaining groups to disk, see
+     * {@link SpillingAggregator}.
+     *
+     * @param child             The OpIterator that is feeding us tuples.
+     * @param afield            The column over which we are computing an aggregate.
+     * @param gfield            The column over which we are grouping the result, or -1 if
+     *                          there is no grouping
+     * @param aop               The aggregation operator to use
+     * @param maxGroupsInMemory the memory budget in groups, or 0 to keep every
+     *                          group in memory
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroupsInMemory) {
         // some code goes here
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        this.afields = new int[]{afield};
+        this.gfields = gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield};
+        this.aops = new Aggregator.Op[]{aop};
+        this.maxGroupsInMemory = maxGroupsInMemory;
 
         child_td = child.getTupleDesc();
         Type aggreType = child_td.getFieldType(afield);
         //根据进行聚合的列的类型来判断aggreator的类型
         gbFieldType = gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield);
-        if (aggreType == Type.INT_TYPE) {
+        if (maxGroupsInMemory > 0) {
+            if (aggreType == Type.STRING_TYPE && aop != Aggregator.Op.COUNT) {
+                throw new UnsupportedOperationException("String类型值只支持count操作,不支持" + aop);
+            }
+            aggregator = new SpillingAggregator(gfield, gbFieldType, afield, aop, getTupleDesc(),
+                    maxGroupsInMemory);
+        } else if (aggreType == Type.INT_TYPE) {
             aggregator = new IntegerAggregator(gfield, gbFieldType, afield, aop, getTupleDesc());
         } else if (aggreType == Type.STRING_TYPE) {
             aggregator = new StringAggregator(gfield, gbFieldType, afield, aop, getTupleDesc());
         }
     }
 
+    /**
+     * Constructor for an aggregate that computes several aggregates, grouped
+     * by any number of columns, in one pass over the child, see
+     * {@link MultiAggregator}. The output tuples hold the group-by fields in
+     * the order given, followed by the aggregates in the order given.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The aggregation operator of each aggregate column
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, 0);
+    }
+
+    /**
+     * Constructor for several aggregates that keeps at most maxGroupsInMemory
+     * groups in memory and partitions the remaining groups to disk, see
+     * {@link MultiAggregator}.
+     *
+     * @param child             The OpIterator that is feeding us tuples.
+     * @param afields           The columns over which we are computing aggregates.
+     * @param gfields           The columns over which we are grouping the result;
+     *                          empty if there is no grouping
+     * @param aops              The aggregation operator of each aggregate column
+     * @param maxGroupsInMemory the memory budget in groups, or 0 to keep every
+     *                          group in memory
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                     int maxGroupsInMemory) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate field");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        this.aop = aops[0];
+        this.maxGroupsInMemory = maxGroupsInMemory;
+
+        child_td = child.getTupleDesc();
+        gbFieldType = gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield);
+        aggregator = new MultiAggregator(gfields, afields, aops, getTupleDesc(), maxGroupsInMemory);
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      * field index in the <b>INPUT</b> tuples. If not, return
-     * {@link Aggregator#NO_GROUPING}
+     * {@link Aggregator#NO_GROUPING}. With several groupby fields this is
+     * the first one.
      */
     public int groupField() {
         return gfield;
     }
 
+    /**
+     * @return the indexes of all groupby fields in the <b>INPUT</b> tuples;
+     * empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the indexes of all aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the operators of all aggregates, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
     /**
      * @return If this aggregate is accompanied by a group by, return the name
      * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
@@ -93,11 +199,11 @@ public class Aggregate extends Operator {
         if (gfield == Aggregator.NO_GROUPING){
             return null;
         }
-        return iterator.getTupleDesc().getFieldName(0);
+        return getTupleDesc().getFieldName(0);
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field (the first one if there are several)
      */
     public int aggregateField() {
         // some code goes here
@@ -110,20 +216,25 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        if (gfield == Aggregator.NO_GROUPING){
-            return iterator.getTupleDesc().getFieldName(0);
-        }
-        return iterator.getTupleDesc().getFieldName(1);
+        return getTupleDesc().getFieldName(gfields.length);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator (the first one if there are several)
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
         return this.aop;
     }
 
+    /**
+     * @return the maximum number of groups kept in memory, or 0 if every
+     * group is kept in memory
+     */
+    public int maxGroupsInMemory() {
+        return maxGroupsInMemory;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -134,11 +245,20 @@ public class Aggregate extends Operator {
         child.open();
         super.open();
 
+        iterator = aggregateChild();
+        iterator.open();
+    }
+
+    /**
+     * Consumes the child and returns an (unopened) iterator over the
+     * aggregate results. Subclasses may override this to compute the
+     * aggregate differently.
+     */
+    protected OpIterator aggregateChild() throws DbException, TransactionAbortedException {
         while (child.hasNext()) {
             aggregator.mergeTupleIntoGroup(child.next());
         }
-        iterator = aggregator.iterator();
-        iterator.open();
+        return aggregator.iterator();
     }
 
     /**
@@ -165,7 +285,8 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several group by fields and aggregates,
+     * all group by fields come first, followed by all aggregate value columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -177,16 +298,18 @@ public class Aggregate extends Operator {
         if (td != null) {
             return td;
         }
-        Type[] types;
-        String[] names;
-        String aggName = child_td.getFieldName(afield);
-        if (gfield == Aggregator.NO_GROUPING) {
-            types = new Type[]{Type.INT_TYPE};
-            // TODO: 17-7-6  names = new String[]{aggName+"("+aggreOp.toString()+")"};这样不是按照注视来的吗，结果通不过测试
-            names = new String[]{aggName};
-        } else {
-            types = new Type[]{gbFieldType, Type.INT_TYPE};
-            names = new String[]{child_td.getFieldName(gfield), aggName};
+        // TODO: 17-7-6  names = new String[]{aggName+"("+aggreOp.toString()+")"};这样不是按照注视来的吗，结果通不过测试
+        //先是各个分组列，然后是各个聚合列，聚合列沿用被聚合列的名字
+        int n = gfields.length + afields.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = child_td.getFieldType(gfields[i]);
+            names[i] = child_td.getFieldName(gfields[i]);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            types[gfields.length + a] = Type.INT_TYPE;
+            names[gfields.length + a] = child_td.getFieldName(afields[a]);
         }
         td = new TupleDesc(types, names);
         return td;
@@ -194,6 +317,12 @@ public class Aggregate extends Operator {
 
     public void close() {
         iterator.close();
+        //溢出到磁盘的分区在这里删除，再次open时会重新聚合
+        if (aggregator instanceof SpillingAggregator) {
+            ((SpillingAggregator) aggregator).clear();
+        } else if (aggregator instanceof MultiAggregator) {
+            ((MultiAggregator) aggregator).clear();
+        }
         super.close();
         // some code goes here
         child.close();
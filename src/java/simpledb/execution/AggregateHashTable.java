@@ -0,0 +1,291 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A hash table specialized for integer aggregation. Each distinct group-by
+ * value gets a dense group id; the running sum, count, min and max of every
+ * group are kept as primitive longs in flat arrays indexed by that id, so
+ * merging a tuple into its group does one hash probe and allocates nothing.
+ * A group can hold several aggregates side by side (e.g. for
+ * {@code SUM(x), MAX(y)}); they are addressed by their index.
+ * <p>
+ * The table uses open addressing with linear probing. A null key is allowed
+ * and is used for the single group of an aggregate without GROUP BY.
+ *
+ * @param <K> the type of the group-by key, a Field or a list of Fields for
+ *            composite keys
+ */
+public class AggregateHashTable<K> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    //哈希槽，存放的是group id + 1，0表示该槽为空；槽数总是2的幂，且至少是分组数的两倍
+    private int[] slots;
+
+    //keys以group id为下标，累加值数组以group id * width + 聚合下标为下标
+    private Object[] keys;
+    private final int width;
+    private long[] sums;
+    private long[] counts;
+    private long[] mins;
+    private long[] maxs;
+
+    private int numGroups;
+
+    public AggregateHashTable() {
+        this(INITIAL_GROUPS);
+    }
+
+    /**
+     * @param expectedGroups the expected number of distinct groups
+     */
+    public AggregateHashTable(int expectedGroups) {
+        this(expectedGroups, 1);
+    }
+
+    /**
+     * @param expectedGroups the expected number of distinct groups
+     * @param numAggregates  the number of aggregates kept for every group
+     */
+    public AggregateHashTable(int expectedGroups, int numAggregates) {
+        if (numAggregates < 1) {
+            throw new IllegalArgumentException("numAggregates must be positive: " + numAggregates);
+        }
+        int capacity = Math.max(expectedGroups, 1);
+        width = numAggregates;
+        slots = new int[tableSizeFor(capacity * 2)];
+        keys = new Object[capacity];
+        sums = new long[capacity * width];
+        counts = new long[capacity * width];
+        mins = new long[capacity * width];
+        maxs = new long[capacity * width];
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        //打散低位，避免连续整数的分组挤在相邻的槽中
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameKey(Object key, Object other) {
+        return Objects.equals(key, other);
+    }
+
+    /**
+     * Returns the group id of key, adding a new empty group if key has not
+     * been seen before.
+     */
+    public int findOrInsert(K key) {
+        int mask = slots.length - 1;
+        int pos = hash(key) & mask;
+        int entry;
+        while ((entry = slots[pos]) != 0) {
+            if (sameKey(key, keys[entry - 1])) {
+                return entry - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+
+        int group = numGroups++;
+        if (group == keys.length) {
+            growGroups();
+        }
+        keys[group] = key;
+        Arrays.fill(mins, group * width, (group + 1) * width, Long.MAX_VALUE);
+        Arrays.fill(maxs, group * width, (group + 1) * width, Long.MIN_VALUE);
+        slots[pos] = group + 1;
+        if (numGroups * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return group;
+    }
+
+    /**
+     * Returns the group id of key, or -1 if there is no such group.
+     */
+    public int find(K key) {
+        int mask = slots.length - 1;
+        int pos = hash(key) & mask;
+        int entry;
+        while ((entry = slots[pos]) != 0) {
+            if (sameKey(key, keys[entry - 1])) {
+                return entry - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void growGroups() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        sums = Arrays.copyOf(sums, capacity * width);
+        counts = Arrays.copyOf(counts, capacity * width);
+        mins = Arrays.copyOf(mins, capacity * width);
+        maxs = Arrays.copyOf(maxs, capacity * width);
+    }
+
+    private void rehash(int newSize) {
+        int[] newSlots = new int[newSize];
+        int mask = newSize - 1;
+        for (int group = 0; group < numGroups; group++) {
+            int pos = hash(keys[group]) & mask;
+            while (newSlots[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            newSlots[pos] = group + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Adds a single value to the accumulators of a group.
+     */
+    public void add(int group, long value) {
+        add(group, 0, value);
+    }
+
+    /**
+     * Adds a single value to the accumulators of one aggregate of a group.
+     */
+    public void add(int group, int agg, long value) {
+        int i = group * width + agg;
+        sums[i] += value;
+        counts[i]++;
+        if (value < mins[i]) {
+            mins[i] = value;
+        }
+        if (value > maxs[i]) {
+            maxs[i] = value;
+        }
+    }
+
+    /**
+     * Merges already aggregated values (e.g. a partial aggregate) into the
+     * accumulators of a group.
+     */
+    public void merge(int group, long sum, long count, long min, long max) {
+        merge(group, 0, sum, count, min, max);
+    }
+
+    /**
+     * Merges already aggregated values into the accumulators of one
+     * aggregate of a group.
+     */
+    public void merge(int group, int agg, long sum, long count, long min, long max) {
+        int i = group * width + agg;
+        sums[i] += sum;
+        counts[i] += count;
+        if (min < mins[i]) {
+            mins[i] = min;
+        }
+        if (max > maxs[i]) {
+            maxs[i] = max;
+        }
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /**
+     * @return the number of aggregates kept for every group
+     */
+    public int numAggregates() {
+        return width;
+    }
+
+    @SuppressWarnings("unchecked")
+    public K getKey(int group) {
+        return (K) keys[group];
+    }
+
+    public long getSum(int group) {
+        return sums[group * width];
+    }
+
+    public long getCount(int group) {
+        return counts[group * width];
+    }
+
+    public long getMin(int group) {
+        return mins[group * width];
+    }
+
+    public long getMax(int group) {
+        return maxs[group * width];
+    }
+
+    public long getSum(int group, int agg) {
+        return sums[group * width + agg];
+    }
+
+    public long getCount(int group, int agg) {
+        return counts[group * width + agg];
+    }
+
+    public long getMin(int group, int agg) {
+        return mins[group * width + agg];
+    }
+
+    public long getMax(int group, int agg) {
+        return maxs[group * width + agg];
+    }
+
+    /**
+     * Computes the final value of an aggregate for a group. AVG is only
+     * divided out here, when the result is emitted.
+     */
+    public long getValue(int group, Aggregator.Op op) {
+        return getValue(group, 0, op);
+    }
+
+    /**
+     * Computes the final value of one aggregate of a group.
+     */
+    public long getValue(int group, int agg, Aggregator.Op op) {
+        int i = group * width + agg;
+        switch (op) {
+            case COUNT:
+                return counts[i];
+            case SUM:
+                return sums[i];
+            case MIN:
+                return mins[i];
+            case MAX:
+                return maxs[i];
+            case AVG:
+                return sums[i] / counts[i];
+            default:
+                throw new UnsupportedOperationException("unsupported aggregate operator " + op);
+        }
+    }
+
+    /**
+     * Removes all groups, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(keys, 0, numGroups, null);
+        Arrays.fill(sums, 0, numGroups * width, 0);
+        Arrays.fill(counts, 0, numGroups * width, 0);
+        numGroups = 0;
+    }
+}
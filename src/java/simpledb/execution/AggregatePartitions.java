@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+
+import java.io.*;
+
+/**
+ * The partition files on disk that a {@link MultiAggregator} (and so a
+ * {@link SpillingAggregator}) writes the tuples of groups to once its
+ * in-memory budget is reached. A tuple goes to one of {@link #NUM_PARTITIONS} files,
+ * chosen by hashing its group key; every recursion level uses different bits
+ * of the hash, so a partition that is still too large splits again.
+ */
+class AggregatePartitions {
+
+    static final int NUM_PARTITIONS = 16;
+
+    //每一层用哈希值中不同的4位来选择partition，32位哈希最多能分8层
+    static final int MAX_LEVEL = 7;
+
+    private final int level;
+    private final File[] files = new File[NUM_PARTITIONS];
+    private final DataOutputStream[] out = new DataOutputStream[NUM_PARTITIONS];
+    private final long[] rows = new long[NUM_PARTITIONS];
+
+    /**
+     * @param level the recursion level, which selects the bits of the hash
+     */
+    AggregatePartitions(int level) {
+        this.level = level;
+    }
+
+    private int partitionOf(Object key) {
+        //与AggregateHashTable使用不同的散列，避免同一分区内的key在内存哈希表中聚集
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h >>> (level * 4)) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * Returns the stream of the partition that key belongs to, creating its
+     * file on first use, and counts one more row in it. The caller writes
+     * exactly one row to the stream.
+     */
+    DataOutputStream writerFor(Object key) throws IOException {
+        int p = partitionOf(key);
+        if (out[p] == null) {
+            files[p] = File.createTempFile("simpledb-agg", ".spill");
+            files[p].deleteOnExit();
+            out[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[p])));
+        }
+        rows[p]++;
+        return out[p];
+    }
+
+    /**
+     * Flushes and closes every partition file so that it can be read.
+     */
+    void finish() throws DbException {
+        try {
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (out[p] != null) {
+                    out[p].close();
+                    out[p] = null;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("failed to flush aggregate partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of rows written to partition p; 0 if it has no file
+     */
+    long rows(int p) {
+        return rows[p];
+    }
+
+    /**
+     * Opens partition p for reading; only valid after {@link #finish()} and
+     * if {@link #rows(int)} is positive.
+     */
+    DataInputStream reader(int p) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(files[p])));
+    }
+
+    /**
+     * Closes and deletes every partition file.
+     */
+    void delete() {
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            try {
+                if (out[p] != null) {
+                    out[p].close();
+                    out[p] = null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (files[p] != null) {
+                files[p].delete();
+                files[p] = null;
+            }
+            rows[p] = 0;
+        }
+    }
+}
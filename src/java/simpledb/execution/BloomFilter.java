@@ -0,0 +1,90 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A Bloom filter over field values. {@link #mightContain} never returns false
+ * for a value that was added, and returns true for a value that was not added
+ * only with a small probability, so it can drop tuples that cannot find a
+ * partner in a hash join before the join has to look at them.
+ * <p>
+ * The filter is built from {@link Field#hashCode()}, so two fields that are
+ * equal (and thus have the same hash code) always hit the same bits.
+ *
+ * @see HashEquiJoin
+ * @see SeqScan#addRuntimeFilter
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NUM_HASHES = 3;
+
+    //位数组，位数是2的幂
+    private final long[] bits;
+    private final int mask;
+    private boolean empty = true;
+
+    /**
+     * Creates an empty filter sized for about expectedValues distinct values,
+     * with a false positive rate of a few percent at that size.
+     */
+    public BloomFilter(int expectedValues) {
+        int numBits = Integer.highestOneBit(Math.max(expectedValues, 8) * 8 - 1) << 1;
+        this.bits = new long[Math.max(numBits / 64, 1)];
+        this.mask = bits.length * 64 - 1;
+    }
+
+    //把hash code的各位打散（murmur3的fmix32），使相邻的整数分散到不同的位上
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Adds a value to the filter.
+     */
+    public void add(Field f) {
+        int h = mix(f.hashCode());
+        //双重哈希：第i个位置是h1 + i * h2
+        int h2 = (h >>> 17) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        empty = false;
+    }
+
+    /**
+     * @return false if f was certainly not added to the filter
+     */
+    public boolean mightContain(Field f) {
+        if (empty) {
+            return false;
+        }
+        int h = mix(f.hashCode());
+        int h2 = (h >>> 17) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all values from the filter.
+     */
+    public void clear() {
+        Arrays.fill(bits, 0L);
+        empty = true;
+    }
+}
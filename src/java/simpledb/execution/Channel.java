@@ -0,0 +1,87 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The queue between the producer threads of an {@link Exchange} and the
+ * {@link Consumer} reading their output. Producers send tuples in batches and
+ * report once when they are done, with the error that stopped them if any;
+ * the consumer sees the end of the stream after every producer is done.
+ */
+class Channel {
+
+    //producer结束时放入队列的标记
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private final BlockingQueue<List<Tuple>> queue;
+    private int remaining;
+    private volatile Throwable error;
+
+    /**
+     * @param producers the number of producers that will call {@link #finish}
+     * @param capacity  the number of batches the queue holds before producers
+     *                  block, or 0 for an unbounded queue
+     */
+    Channel(int producers, int capacity) {
+        this.queue = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+        this.remaining = producers;
+    }
+
+    void send(List<Tuple> batch) throws InterruptedException {
+        if (!batch.isEmpty()) {
+            queue.put(batch);
+        }
+    }
+
+    /**
+     * Called once by every producer when it stops.
+     *
+     * @param e the error the producer failed with, or null
+     */
+    void finish(Throwable e) throws InterruptedException {
+        if (e != null) {
+            error = e;
+        }
+        queue.put(END);
+    }
+
+    /**
+     * @return the next batch, or null once every producer has finished
+     * @throws DbException if a producer failed, or if the calling thread is
+     *                     interrupted while waiting
+     */
+    List<Tuple> receive() throws DbException, TransactionAbortedException {
+        while (remaining > 0) {
+            List<Tuple> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for exchange producers");
+            }
+            if (batch != END) {
+                return batch;
+            }
+            remaining--;
+            Throwable cause = error;
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause != null) {
+                throw new RuntimeException(cause);
+            }
+        }
+        return null;
+    }
+}
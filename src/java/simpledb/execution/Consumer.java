@@ -0,0 +1,39 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An {@link Exchange} that reads the tuples other threads send it through a
+ * {@link Channel}.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * @return the next tuple of channel, or null once every producer of the
+     *         channel has finished
+     */
+    Tuple receive(Channel channel) throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            List<Tuple> next = channel.receive();
+            if (next == null) {
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    /** Drops the rest of the batch being read. */
+    void discardBatch() {
+        batch = null;
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+/**
+ * Base class of the operators that connect plan fragments running on
+ * different threads. The fragments below an exchange run on producer threads
+ * and hand their tuples over in batches through a {@link Channel}; see
+ * {@link Gather} and {@link Repartition}.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a producer sends at a time. */
+    static final int BATCH_SIZE = 256;
+
+    /** Number of batches a bounded channel holds before producers block. */
+    static final int QUEUE_BATCHES = 64;
+
+    /**
+     * @return the name of this exchange, as shown in the query plan
+     */
+    public abstract String getName();
+
+    /**
+     * Rewinds the shared page cursors of the {@link MorselScan}s in a plan
+     * fragment, without descending into other exchanges (which reset their own
+     * inputs). Must be called before any producer of the fragment starts.
+     */
+    static void resetMorsels(OpIterator fragment) {
+        if (fragment instanceof MorselScan) {
+            ((MorselScan) fragment).resetCursor();
+        } else if (fragment instanceof Operator && !(fragment instanceof Exchange)) {
+            for (OpIterator child : ((Operator) fragment).getChildren()) {
+                resetMorsels(child);
+            }
+        }
+    }
+
+    /**
+     * Runs one plan fragment on a producer thread: opens it, hands every
+     * tuple to {@link #emit} and reports the end (or the error that stopped
+     * it) through {@link #done}. The fragment is closed on the same thread.
+     */
+    abstract static class Producer implements Runnable {
+        private final OpIterator fragment;
+        private volatile boolean cancelled;
+
+        Producer(OpIterator fragment) {
+            this.fragment = fragment;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            try {
+                fragment.open();
+                try {
+                    while (!cancelled && fragment.hasNext()) {
+                        emit(fragment.next());
+                    }
+                    flush();
+                } finally {
+                    fragment.close();
+                }
+            } catch (InterruptedException e) {
+                //被close打断，消费者不再读取
+                return;
+            } catch (Throwable e) {
+                error = e;
+            }
+            if (cancelled) {
+                return;
+            }
+            try {
+                done(error);
+            } catch (InterruptedException e) {
+                //被close打断
+            }
+        }
+
+        /** Handles one tuple of the fragment. */
+        abstract void emit(Tuple t) throws InterruptedException;
+
+        /** Sends the tuples still held back after the fragment is exhausted. */
+        abstract void flush() throws InterruptedException;
+
+        /** Reports the end of the fragment to every channel it feeds. */
+        abstract void done(Throwable error) throws InterruptedException;
+    }
+}
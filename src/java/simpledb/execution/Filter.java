@@ -1,6 +1,5 @@
 package simpledb.execution;
 
-import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
@@ -19,8 +18,6 @@ public class Filter extends Operator {
     private final Predicate p;
     private OpIterator child;
 
-    //缓存过滤结果，加快hasNext和next方法
-    private TupleIterator filterResult;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -51,29 +48,17 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         child.open();
-        filterResult = filter(child,getPredicate());
-        filterResult.open();
-    }
-    private TupleIterator filter(OpIterator child, Predicate predicate) throws DbException, TransactionAbortedException {
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            if (predicate.filter(t)) {
-                tuples.add(t);
-            }
-        }
-        return new TupleIterator(getTupleDesc(), tuples);
     }
+
     public void close() {
         // some code goes here
-        filterResult = null;
         child.close();
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        filterResult.rewind();
+        child.rewind();
     }
 
     /**
@@ -88,9 +73,14 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        if (filterResult.hasNext()){
-            return filterResult.next();
-        }else return null;
+        //逐个从child拉取，上层不再需要tuple时(如LIMIT)就不会继续读取child
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (p.filter(t)) {
+                return t;
+            }
+        }
+        return null;
     }
 
     @Override
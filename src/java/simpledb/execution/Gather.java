@@ -0,0 +1,162 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the output of several plan fragments with the same TupleDesc, each
+ * running on its own thread. The fragments send their tuples in batches
+ * through one bounded queue, so they stall rather than buffer their output
+ * when the consumer falls behind. The output order is not defined.
+ * <p>
+ * Rewinding stops the fragments and runs them again from the start.
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+
+    private transient ExecutorService pool;
+    private transient List<Producer> producers;
+    private transient Channel channel;
+
+    /**
+     * Constructor.
+     *
+     * @param children the plan fragments to run in parallel; they must all
+     *                 have the same TupleDesc
+     */
+    public Gather(List<OpIterator> children) {
+        if (children.isEmpty()) {
+            throw new IllegalArgumentException("Gather needs at least one child");
+        }
+        this.children = children.toArray(new OpIterator[0]);
+    }
+
+    @Override
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    private void start() {
+        for (OpIterator child : children) {
+            resetMorsels(child);
+        }
+        channel = new Channel(children.length, QUEUE_BATCHES);
+        producers = new ArrayList<>(children.length);
+        pool = Executors.newFixedThreadPool(children.length);
+        for (OpIterator child : children) {
+            Producer producer = new GatherProducer(child, channel);
+            producers.add(producer);
+            pool.execute(producer);
+        }
+        pool.shutdown();
+    }
+
+    private void stop() {
+        if (pool != null) {
+            for (Producer producer : producers) {
+                producer.cancel();
+            }
+            pool.shutdownNow();
+            try {
+                //等producer退出并关闭各自的子树，之后才能重新打开
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+            producers = null;
+            channel = null;
+            discardBatch();
+        }
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (channel == null) {
+            return null;
+        }
+        try {
+            return receive(channel);
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        //close再open以丢弃Operator中缓存的下一个tuple
+        super.close();
+        super.open();
+        start();
+    }
+
+    @Override
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+
+    private static class GatherProducer extends Producer {
+        private final Channel channel;
+        private List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+
+        GatherProducer(OpIterator fragment, Channel channel) {
+            super(fragment);
+            this.channel = channel;
+        }
+
+        @Override
+        void emit(Tuple t) throws InterruptedException {
+            batch.add(t);
+            if (batch.size() == BATCH_SIZE) {
+                channel.send(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        @Override
+        void flush() throws InterruptedException {
+            channel.send(batch);
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+
+        @Override
+        void done(Throwable error) throws InterruptedException {
+            channel.finish(error);
+        }
+    }
+}
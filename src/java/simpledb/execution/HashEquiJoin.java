@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -58,13 +59,24 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    //map中join key的Bloom filter，以及它被下推到的child2下面的SeqScan；没有下推时都为null
+    transient private BloomFilter bloomFilter = null;
+    transient private SeqScan bloomFilterScan = null;
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        if (bloomFilter != null) {
+            bloomFilter.clear();
+        }
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
+            Field key = t1.getField(pred.getField1());
+            List<Tuple> list = map.computeIfAbsent(key, k -> new ArrayList<>());
             list.add(t1);
+            if (bloomFilter != null && key != null) {
+                bloomFilter.add(key);
+            }
             if (cnt++ == MAP_SIZE)
                 return true;
         }
@@ -74,22 +86,68 @@ public class HashEquiJoin extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        build();
+        super.open();
+    }
+
+    /**
+     * Opens the children and loads the first chunk of child1 into the hash
+     * table. Subclasses that build and probe in a different way override this.
+     */
+    protected void build() throws DbException, TransactionAbortedException {
+        pushBloomFilter();
         child1.open();
         child2.open();
         loadMap();
-        super.open();
+    }
+
+    /**
+     * Pushes a Bloom filter over the join keys of the hash table into the
+     * SeqScan that child2 reads from, if child2 is a SeqScan possibly under
+     * Filters, so that tuples of child2 that cannot match are dropped by the
+     * scan before they are built. loadMap refills the filter for every chunk
+     * of child1 it loads; child2 is rewound for each chunk, so it is always
+     * scanned with the filter of the chunk being probed.
+     */
+    private void pushBloomFilter() {
+        OpIterator probe = child2;
+        while (probe instanceof Filter) {
+            probe = ((Filter) probe).getChildren()[0];
+        }
+        if (probe == bloomFilterScan) {
+            return;
+        }
+        //child2换过了，之前的扫描不再需要这个filter
+        if (bloomFilterScan != null) {
+            bloomFilterScan.removeRuntimeFilter(bloomFilter);
+        }
+        bloomFilterScan = null;
+        bloomFilter = null;
+        if (probe instanceof SeqScan) {
+            bloomFilterScan = (SeqScan) probe;
+            bloomFilter = new BloomFilter(MAP_SIZE + 1);
+            bloomFilterScan.addRuntimeFilter(pred.getField2(), bloomFilter);
+        }
     }
 
     public void close() {
         super.close();
-        child2.close();
-        child1.close();
+        closeChildren();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
         this.map.clear();
     }
 
+    /**
+     * Closes the children opened by {@link #build()}. Subclasses that do not
+     * open the children themselves override this.
+     */
+    protected void closeChildren() {
+        child2.close();
+        child1.close();
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
@@ -4,12 +4,17 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -38,6 +43,13 @@ public class Insert extends Operator {
 
     private boolean hasAccessed ;
 
+    /**
+     * Inserts of at least this many tuples into a HeapFile append them on new
+     * pages with a {@link BulkLoader} instead of inserting them one by one
+     * through the BufferPool.
+     */
+    public static final int BULK_LOAD_THRESHOLD = 5000;
+
     /**
      * Constructor.
      *
@@ -128,14 +140,34 @@ public class Insert extends Operator {
             return null;
         }
         count = 0;
-        while (child.hasNext()){
-            Tuple next = child.next();
-            try {
-                Database.getBufferPool().insertTuple(tid,tableId,next);
-                count++;
-            } catch (IOException e) {
-                throw new DbException("添加错误，在inset操作发生IO异常");
+        //先缓存一部分tuple，数量多时改用批量追加
+        List<Tuple> buffered = new ArrayList<>();
+        while (child.hasNext() && buffered.size() < BULK_LOAD_THRESHOLD) {
+            buffered.add(child.next());
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        try {
+            if (buffered.size() == BULK_LOAD_THRESHOLD && file instanceof HeapFile) {
+                BulkLoader loader = ((HeapFile) file).bulkLoader(tid);
+                for (Tuple t : buffered) {
+                    loader.add(t);
+                }
+                while (child.hasNext()) {
+                    loader.add(child.next());
+                }
+                count = loader.finish();
+            } else {
+                for (Tuple t : buffered) {
+                    Database.getBufferPool().insertTuple(tid, tableId, t);
+                    count++;
+                }
+                while (child.hasNext()) {
+                    Database.getBufferPool().insertTuple(tid, tableId, child.next());
+                    count++;
+                }
             }
+        } catch (IOException e) {
+            throw new DbException("添加错误，在inset操作发生IO异常");
         }
         hasAccessed = true;
 
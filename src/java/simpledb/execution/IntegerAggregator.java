@@ -35,11 +35,9 @@ public class IntegerAggregator implements Aggregator {
     //指定使用哪种聚合操作
     private Op op;
 
-    //Key：每个不同的分组字段(groupby value)  Vlaue：聚合的结果
-    private Map<Field,Integer> vals;
-    //Key：每个不同的分组字段(groupby value)  Value：该分组进行平均值聚合过程处理的所有值的个数以及他们的和
-    //这个map仅用于辅助在计算平均值时得到以前聚合过的总数
-    private Map<Field,Integer[]> aveMap;
+    //每个分组的sum、count、min、max都以long保存在扁平数组中，平均值只在输出结果时计算
+    private AggregateHashTable<Field> groups;
+
     /**
      * Aggregate constructor
      * 
@@ -64,8 +62,7 @@ public class IntegerAggregator implements Aggregator {
 
         td = (gbfield == Aggregator.NO_GROUPING)? new TupleDesc(new Type[]{Type.INT_TYPE}):
                 new TupleDesc(new Type[]{gbfieldtype,Type.INT_TYPE});
-        vals = new HashMap<>();
-        aveMap = new HashMap<>();
+        groups = new AggregateHashTable<>();
     }
 
     /**
@@ -87,8 +84,7 @@ public class IntegerAggregator implements Aggregator {
         this.afield = agIndex;
         this.op = aggreOp;
         this.td=td;
-        vals = new HashMap<>();
-        aveMap = new HashMap<>();
+        groups = new AggregateHashTable<>();
     }
 
     /**
@@ -101,86 +97,24 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         //待聚合值所在的Field
-        Field aggreField;
-        //分组依据的Field
-        Field gbField = null;
-        //新的聚合结果
-        Integer newVal;
-        aggreField = tup.getField(afield);
-        //待聚合值
-        int toAggregate;
+        Field aggreField = tup.getField(afield);
 
         if (aggreField.getType() != Type.INT_TYPE) {
             throw new IllegalArgumentException("该tuple的指定列不是Type.INT_TYPE类型");
         }
 
-        toAggregate = ((IntField) aggreField).getValue();
-
         //初始化originalTd，并确保每一次聚合的tuple的td与其相同
+        //同一个child产生的tuple一般共用同一个TupleDesc对象，先比较引用以免每行都逐列比较
+        TupleDesc tupTd = tup.getTupleDesc();
         if (originalTd == null) {
-            originalTd = tup.getTupleDesc();
-        } else if (!originalTd.equals(tup.getTupleDesc())) {
+            originalTd = tupTd;
+        } else if (originalTd != tupTd && !originalTd.equals(tupTd)) {
             throw new IllegalArgumentException("待聚合tuple的tupleDesc不一致");
         }
 
-        if (gbfield != Aggregator.NO_GROUPING) {
-            //如果gbIdex为NO_GROUPING，那么不用给gbField赋值，即为初始值null即可
-            gbField = tup.getField(gbfield);
-        }
-
-        //开始进行聚合操作
-        //平均值的操作需要维护cnts，所以单独处理
-        if (op == Op.AVG) {
-            if (aveMap.containsKey(gbField)) {//如果这个map已经处理过这个分组
-                Integer[] oldCountAndSum = aveMap.get(gbField);//之前处理该分组的总次数以及所有操作数的和
-                int oldCount = oldCountAndSum[0];
-                int oldSum = oldCountAndSum[1];
-                //更新该分组对应的记录，将次数加1,并将总和加上待聚合的值
-                aveMap.put(gbField, new Integer[]{oldCount + 1, oldSum + toAggregate});
-            } else {//否则为第一次处理该分组的tuple
-                aveMap.put(gbField, new Integer[]{1, toAggregate});
-            }
-            //直接由ave这个map记录的信息得到该分组对应的聚合值并保存在gval2agval中
-            Integer[] c2s=aveMap.get(gbField);
-            int currentCount = c2s[0];
-            int currentSum = c2s[1];
-            vals.put(gbField, currentSum / currentCount);
-            //在这里结束，此方法剩下的代码是对应除了求平均值其他的操作的
-            return;
-        }
-
-        //除了求平均值的其他聚合操作
-        if (vals.containsKey(gbField)) {
-            Integer oldVal = vals.get(gbField);
-            newVal = calcuNewValue(oldVal, toAggregate, op);
-        } else if (op == Op.COUNT) {//如果是对应分组的第一个参加聚合操作的tuple，那么除了count操作，其他操作结果都是待聚合值
-            newVal = 1;
-        } else {
-            newVal = toAggregate;
-        }
-        vals.put(gbField, newVal);
-    }
-    /**
-     * 由旧的聚合结果和新的聚合值得到新的聚合结果
-     *
-     * @param oldVal      旧的聚合结果
-     * @param toAggregate 新的聚合值
-     * @param aggreOp     聚合操作
-     * @return 新的聚合值
-     */
-    private int calcuNewValue(int oldVal, int toAggregate, Op aggreOp) {
-        switch (aggreOp) {
-            case COUNT:
-                return oldVal + 1;
-            case MAX:
-                return Math.max(oldVal, toAggregate);
-            case MIN:
-                return Math.min(oldVal, toAggregate);
-            case SUM:
-                return oldVal + toAggregate;
-            default:
-                throw new IllegalArgumentException("不应该到达这里");
-        }
+        //如果gbIdex为NO_GROUPING，那么所有tuple都属于key为null的同一个分组
+        Field gbField = gbfield == Aggregator.NO_GROUPING ? null : tup.getField(gbfield);
+        groups.add(groups.findOrInsert(gbField), ((IntField) aggreField).getValue());
     }
 
     /**
@@ -195,15 +129,16 @@ public class IntegerAggregator implements Aggregator {
         // some code goes here
         //throw new
         //UnsupportedOperationException("please implement me for lab2");
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        for (Map.Entry<Field, Integer> g2a : vals.entrySet()) {
+        ArrayList<Tuple> tuples = new ArrayList<>(groups.numGroups());
+        for (int g = 0; g < groups.numGroups(); g++) {
             Tuple t = new Tuple(td);//该tuple不必setRecordId，因为RecordId对进行操作后的tuple没有意义
+            IntField aggVal = new IntField((int) groups.getValue(g, op));
             //分别处理不分组与有分组的情形
             if (gbfield == Aggregator.NO_GROUPING) {
-                t.setField(0, new IntField(g2a.getValue()));
+                t.setField(0, aggVal);
             } else {
-                t.setField(0, g2a.getKey());
-                t.setField(1, new IntField(g2a.getValue()));
+                t.setField(0, groups.getKey(g));
+                t.setField(1, aggVal);
             }
             tuples.add(t);
         }
@@ -0,0 +1,90 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that returns at most the first n tuples of its child.
+ * Once n tuples have been returned it stops pulling from the child, so the
+ * rest of the plan below it is never evaluated.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+
+    //已经返回的tuple数
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit the maximum number of tuples to return
+     * @param child the child operator
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child until
+     * limit tuples have been returned.
+     *
+     * @return The next tuple, or null if the limit was reached or the child is
+     *         exhausted
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        //达到limit后不再访问child，下层算子也就不会再读取page
+        if (returned >= limit || !child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,182 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of several scans of the same {@link HeapFile} that split its pages
+ * among themselves: each repeatedly claims the next range of pages (a
+ * "morsel") from a cursor shared by all of them, so together they return
+ * every tuple of the table exactly once, and a scan running on a faster thread
+ * simply claims more morsels. They are created by {@link #split} and meant to
+ * run below an {@link Exchange}, which rewinds the shared cursor before
+ * starting them.
+ */
+public class MorselScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicInteger cursor;
+    private final int morselPages;
+
+    private transient int numPages;
+    //当前morsel中下一个要读的页和结束页
+    private transient int nextPage;
+    private transient int endPage;
+    private transient Iterator<Tuple> tuples;
+
+    private MorselScan(TransactionId tid, int tableId, String tableAlias, int[] columns,
+                       Predicate[] predicates, AtomicInteger cursor, int morselPages) {
+        super(tid, tableId, tableAlias, columns, predicates);
+        this.cursor = cursor;
+        this.morselPages = morselPages;
+    }
+
+    /**
+     * Creates scans sharing one page cursor over a HeapFile.
+     *
+     * @param tid         the transaction the scans are running as a part of
+     * @param tableId     the HeapFile to scan
+     * @param tableAlias  the alias of the table, see {@link SeqScan}
+     * @param numScans    the number of scans
+     * @param morselPages the number of pages a scan claims at a time
+     */
+    public static List<MorselScan> split(TransactionId tid, int tableId, String tableAlias,
+                                         int numScans, int morselPages) {
+        return split(tid, tableId, tableAlias, null, numScans, morselPages);
+    }
+
+    /**
+     * Creates scans sharing one page cursor over some of the columns of a
+     * HeapFile, see {@link SeqScan#SeqScan(TransactionId, int, String, int[])}.
+     *
+     * @param columns the indexes of the columns to return, or null for all
+     */
+    public static List<MorselScan> split(TransactionId tid, int tableId, String tableAlias, int[] columns,
+                                         int numScans, int morselPages) {
+        return split(tid, tableId, tableAlias, columns, new Predicate[0], numScans, morselPages);
+    }
+
+    /**
+     * Creates scans sharing one page cursor that return the tuples satisfying
+     * the given predicates, see
+     * {@link SeqScan#SeqScan(TransactionId, int, String, int[], Predicate[])}.
+     *
+     * @param columns    the indexes of the columns to return, or null for all
+     * @param predicates predicates on the columns of the table
+     */
+    public static List<MorselScan> split(TransactionId tid, int tableId, String tableAlias, int[] columns,
+                                         Predicate[] predicates, int numScans, int morselPages) {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("MorselScan only scans HeapFiles");
+        }
+        AtomicInteger cursor = new AtomicInteger(0);
+        List<MorselScan> scans = new ArrayList<>(numScans);
+        for (int i = 0; i < numScans; i++) {
+            scans.add(new MorselScan(tid, tableId, tableAlias, columns, predicates, cursor, morselPages));
+        }
+        return scans;
+    }
+
+    /**
+     * Copies a scan pipeline once per fragment, each copy reading a MorselScan
+     * that shares its cursor with the others.
+     *
+     * @param pipeline     Filters and Projects over a SeqScan of a HeapFile,
+     *                     see {@link ParallelSeqScan#canParallelize}
+     * @param numFragments the number of copies
+     * @param morselPages  the number of pages a scan claims at a time
+     * @return the copies; together they produce the tuples of pipeline
+     */
+    public static List<OpIterator> splitPipeline(OpIterator pipeline, int numFragments, int morselPages) {
+        if (!ParallelSeqScan.canParallelize(pipeline)) {
+            throw new IllegalArgumentException("not a scan pipeline over a HeapFile");
+        }
+        if (pipeline instanceof Filter) {
+            Filter filter = (Filter) pipeline;
+            List<OpIterator> result = new ArrayList<>(numFragments);
+            for (OpIterator part : splitPipeline(filter.getChildren()[0], numFragments, morselPages)) {
+                result.add(new Filter(filter.getPredicate(), part));
+            }
+            return result;
+        }
+        if (pipeline instanceof Project) {
+            Project project = (Project) pipeline;
+            Type[] types = new Type[project.getTupleDesc().numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = project.getTupleDesc().getFieldType(i);
+            }
+            List<OpIterator> result = new ArrayList<>(numFragments);
+            for (OpIterator part : splitPipeline(project.getChildren()[0], numFragments, morselPages)) {
+                result.add(new Project(project.getOutFieldIds(), types, part));
+            }
+            return result;
+        }
+        SeqScan scan = (SeqScan) pipeline;
+        return new ArrayList<>(split(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                scan.getColumns(), scan.getPredicates(), numFragments, morselPages));
+    }
+
+    /** Makes the scans sharing this cursor start again from the first page. */
+    void resetCursor() {
+        cursor.set(0);
+    }
+
+    @Override
+    public void open() {
+        numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(getTableId())).numPages();
+        nextPage = 0;
+        endPage = 0;
+        tuples = null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (tuples == null || !tuples.hasNext()) {
+            if (nextPage >= endPage) {
+                int start = cursor.getAndAdd(morselPages);
+                if (start >= numPages) {
+                    return false;
+                }
+                nextPage = start;
+                endPage = Math.min(start + morselPages, numPages);
+            }
+            tuples = tuples(nextPage++);
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return narrow(tuples.next());
+    }
+
+    /**
+     * Starts the scan over, together with every scan sharing its cursor; only
+     * safe while none of those is being read.
+     */
+    @Override
+    public void rewind() {
+        resetCursor();
+        open();
+    }
+
+    @Override
+    public void close() {
+        tuples = null;
+    }
+}
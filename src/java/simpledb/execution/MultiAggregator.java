@@ -0,0 +1,395 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes several aggregates at once, grouped by any number of columns, in a
+ * single pass over the input. The group-by values of a tuple form a composite
+ * key; every group keeps one set of accumulators per aggregate in an
+ * {@link AggregateHashTable}.
+ * <p>
+ * It can keep at most a fixed number of groups in memory: once the budget is
+ * reached, tuples of groups not yet in memory are written to partition files
+ * on disk and aggregated partition by partition when the results are read.
+ * Partial aggregates computed elsewhere can be merged in as well (see
+ * {@link #mergeGroup}), so the partition files hold the accumulators (sum,
+ * count, min and max) of each row rather than raw values.
+ * <p>
+ * Result tuples hold the group-by values in the order given, followed by the
+ * aggregate values in the order given. As in {@link StringAggregator}, only
+ * COUNT is supported over a string column.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] ops;
+    private final TupleDesc td;
+    private final int maxGroups;
+    private final int level;
+
+    private final AggregateHashTable<List<Field>> groups;
+
+    //溢出到磁盘的分区，还没有溢出时为null
+    private AggregatePartitions partitions;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple;
+     *                 empty if there is no grouping
+     * @param afields  the 0-based indexes of the aggregate fields in the tuple
+     * @param ops      the aggregation operator of each aggregate field
+     * @param td       the TupleDesc of the result tuples
+     */
+    public MultiAggregator(int[] gbfields, int[] afields, Op[] ops, TupleDesc td) {
+        this(gbfields, afields, ops, td, 0);
+    }
+
+    /**
+     * Aggregate constructor for an aggregator with a memory budget
+     *
+     * @param gbfields  the 0-based indexes of the group-by fields in the tuple;
+     *                  empty if there is no grouping
+     * @param afields   the 0-based indexes of the aggregate fields in the tuple
+     * @param ops       the aggregation operator of each aggregate field
+     * @param td        the TupleDesc of the result tuples
+     * @param maxGroups the maximum number of groups kept in memory, or 0 to
+     *                  keep every group in memory
+     */
+    public MultiAggregator(int[] gbfields, int[] afields, Op[] ops, TupleDesc td, int maxGroups) {
+        this(gbfields, afields, ops, td, maxGroups, 0);
+    }
+
+    private MultiAggregator(int[] gbfields, int[] afields, Op[] ops, TupleDesc td, int maxGroups, int level) {
+        if (maxGroups < 0) {
+            throw new IllegalArgumentException("maxGroups must not be negative: " + maxGroups);
+        }
+        if (afields.length == 0 || afields.length != ops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate field");
+        }
+        for (Op op : ops) {
+            if (op != Op.MIN && op != Op.MAX && op != Op.SUM && op != Op.AVG && op != Op.COUNT) {
+                throw new UnsupportedOperationException("unsupported aggregate operator " + op);
+            }
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.td = td;
+        this.maxGroups = maxGroups == 0 ? Integer.MAX_VALUE : maxGroups;
+        this.level = level;
+        this.groups = new AggregateHashTable<>(16, afields.length);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing the aggregate fields and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> key = null;
+        if (gbfields.length > 0) {
+            Field[] keyFields = new Field[gbfields.length];
+            for (int i = 0; i < gbfields.length; i++) {
+                keyFields[i] = tup.getField(gbfields[i]);
+            }
+            key = Arrays.asList(keyFields);
+        }
+        int[] values = new int[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            Field aggreField = tup.getField(afields[a]);
+            if (aggreField.getType() == Type.INT_TYPE) {
+                values[a] = ((IntField) aggreField).getValue();
+            } else if (ops[a] == Op.COUNT) {
+                //字符串只支持count，值本身不参与计算
+                values[a] = 0;
+            } else {
+                throw new UnsupportedOperationException("String类型值只支持count操作,不支持" + ops[a]);
+            }
+        }
+        merge(key, values);
+    }
+
+    /**
+     * @return the group of key in memory, added if the budget allows, or -1
+     *         if the rows of key go to the partition files instead
+     */
+    private int groupFor(List<Field> key) {
+        int group = groups.find(key);
+        if (group == -1) {
+            //内存中的分组数已达上限，新分组的tuple写到磁盘上对应的分区
+            if (groups.numGroups() >= maxGroups && key != null && level <= AggregatePartitions.MAX_LEVEL) {
+                return -1;
+            }
+            group = groups.findOrInsert(key);
+        }
+        return group;
+    }
+
+    private void merge(List<Field> key, int[] values) {
+        int group = groupFor(key);
+        if (group == -1) {
+            try {
+                DataOutputStream out = spillWriter(key);
+                for (int value : values) {
+                    writeState(out, value, 1, value, value);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("failed to spill aggregate partition", e);
+            }
+            return;
+        }
+        for (int a = 0; a < values.length; a++) {
+            groups.add(group, a, values[a]);
+        }
+    }
+
+    /**
+     * Merges group g of partial, a table with the same aggregates that was
+     * filled separately (for instance by another thread), into the group of
+     * key. If the group is not in memory and the budget is reached, its
+     * accumulators are written to the partition files like any other row.
+     *
+     * @param key     the group-by values of the group, or null if there is no
+     *                grouping
+     * @param partial a table with one aggregate per aggregate field
+     * @param g       the group of partial to merge
+     */
+    void mergeGroup(List<Field> key, AggregateHashTable<?> partial, int g) {
+        int group = groupFor(key);
+        if (group == -1) {
+            try {
+                DataOutputStream out = spillWriter(key);
+                for (int a = 0; a < afields.length; a++) {
+                    writeState(out, partial.getSum(g, a), partial.getCount(g, a),
+                            partial.getMin(g, a), partial.getMax(g, a));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("failed to spill aggregate partition", e);
+            }
+            return;
+        }
+        for (int a = 0; a < afields.length; a++) {
+            groups.merge(group, a, partial.getSum(g, a), partial.getCount(g, a),
+                    partial.getMin(g, a), partial.getMax(g, a));
+        }
+    }
+
+    /**
+     * Starts a row of the partition of key and writes the key to it; the
+     * caller then writes the accumulators of every aggregate with
+     * {@link #writeState}.
+     */
+    private DataOutputStream spillWriter(List<Field> key) throws IOException {
+        if (partitions == null) {
+            partitions = new AggregatePartitions(level);
+        }
+        DataOutputStream out = partitions.writerFor(key);
+        for (Field f : key) {
+            f.serialize(out);
+        }
+        return out;
+    }
+
+    /**
+     * Writes the accumulators of one aggregate. A single value (count 1) has
+     * sum, min and max equal, so only the value is written after the count.
+     */
+    private static void writeState(DataOutputStream out, long sum, long count, long min, long max)
+            throws IOException {
+        out.writeLong(count);
+        if (count == 1) {
+            out.writeInt((int) sum);
+        } else {
+            out.writeLong(sum);
+            out.writeInt((int) min);
+            out.writeInt((int) max);
+        }
+    }
+
+    /**
+     * Reads a spilled partition back and aggregates it with a fresh aggregator
+     * one level deeper.
+     */
+    private MultiAggregator aggregatePartition(int p) throws DbException {
+        MultiAggregator sub = new MultiAggregator(gbfields, afields, ops, td, maxGroups, level + 1);
+        //逐行读回的累加值先放进只有一个分组的表里，再合并到下一层
+        AggregateHashTable<Object> row = new AggregateHashTable<>(1, afields.length);
+        try (DataInputStream dis = partitions.reader(p)) {
+            for (long i = 0; i < partitions.rows(p); i++) {
+                Field[] key = new Field[gbfields.length];
+                for (int k = 0; k < key.length; k++) {
+                    //结果tuple的前几列就是各个分组列
+                    key[k] = td.getFieldType(k).parse(dis);
+                }
+                row.clear();
+                int group = row.findOrInsert(null);
+                for (int a = 0; a < afields.length; a++) {
+                    long count = dis.readLong();
+                    if (count == 1) {
+                        row.add(group, a, dis.readInt());
+                    } else {
+                        long sum = dis.readLong();
+                        row.merge(group, a, sum, count, dis.readInt(), dis.readInt());
+                    }
+                }
+                sub.mergeGroup(Arrays.asList(key), row, group);
+            }
+        } catch (IOException | ParseException e) {
+            throw new DbException("failed to read aggregate partition: " + e.getMessage());
+        }
+        return sub;
+    }
+
+    /**
+     * @return the number of groups currently held in memory
+     */
+    public int numGroupsInMemory() {
+        return groups.numGroups();
+    }
+
+    /**
+     * @return true if some groups have been written to disk
+     */
+    public boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Drops all groups and deletes any partition files. The aggregator can be
+     * reused afterwards.
+     */
+    public void clear() {
+        groups.clear();
+        if (partitions != null) {
+            partitions.delete();
+            partitions = null;
+        }
+    }
+
+    private Tuple groupTuple(int group) {
+        Tuple t = new Tuple(td);
+        List<Field> key = groups.getKey(group);
+        int i = 0;
+        for (; i < gbfields.length; i++) {
+            t.setField(i, key.get(i));
+        }
+        for (int a = 0; a < afields.length; a++) {
+            t.setField(i + a, new IntField((int) groups.getValue(group, a, ops[a])));
+        }
+        return t;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         the aggregate values
+     */
+    public OpIterator iterator() {
+        return new SpillIterator();
+    }
+
+    private class SpillIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        //下一个要输出的内存中分组
+        private int group;
+        //下一个要处理的分区
+        private int partition;
+        private MultiAggregator partitionAgg;
+        private OpIterator partitionIt;
+        private boolean open = false;
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            if (partitions != null) {
+                partitions.finish();
+            }
+            group = 0;
+            partition = 0;
+            open = true;
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                throw new IllegalStateException("iterator not yet open");
+            }
+            if (group < groups.numGroups()) {
+                return true;
+            }
+            while (partitionIt == null || !partitionIt.hasNext()) {
+                closePartition();
+                if (partitions == null || partition >= AggregatePartitions.NUM_PARTITIONS) {
+                    return false;
+                }
+                int p = partition++;
+                if (partitions.rows(p) == 0) {
+                    continue;
+                }
+                partitionAgg = aggregatePartition(p);
+                partitionIt = partitionAgg.iterator();
+                partitionIt.open();
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (group < groups.numGroups()) {
+                return groupTuple(group++);
+            }
+            return partitionIt.next();
+        }
+
+        private void closePartition() {
+            if (partitionIt != null) {
+                partitionIt.close();
+                //分区的聚合结果只用一次，用完即删除其下一层的溢出文件
+                partitionAgg.clear();
+                partitionIt = null;
+                partitionAgg = null;
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            closePartition();
+            open();
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public void close() {
+            closePartition();
+            open = false;
+        }
+    }
+}
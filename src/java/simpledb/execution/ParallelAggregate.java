@@ -0,0 +1,249 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An Aggregate that computes its result on several worker threads. The child
+ * must be a {@link SeqScan} over a {@link HeapFile}, optionally below a chain
+ * of {@link Filter}s (see {@link #canParallelize}). Each worker claims pages of
+ * the heap file from a shared cursor, applies the filter predicates and
+ * aggregates the tuples into its own {@link AggregateHashTable}; the partial
+ * tables are then merged into a {@link MultiAggregator} that holds the final
+ * result. Every partial group carries (sum, count, min, max), so AVG is exact
+ * after the merge.
+ * <p>
+ * With a memory budget, half of it goes to the merged result and the other
+ * half is shared by the workers. A worker whose table reaches its share merges
+ * the table into the result, empties it and goes on scanning; groups that do
+ * not fit in the result's half are spilled to its partition files as they are
+ * merged, so the scan is never restarted.
+ */
+public class ParallelAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numWorkers;
+
+    //各个worker的局部结果合并到这里，close时删除其溢出文件
+    private transient MultiAggregator merged;
+
+    /**
+     * Constructor.
+     *
+     * @param child      a SeqScan over a HeapFile, possibly below some Filters
+     * @param afield     The column over which we are computing an aggregate.
+     * @param gfield     The column over which we are grouping the result, or -1 if
+     *                   there is no grouping
+     * @param aop        The aggregation operator to use
+     * @param numWorkers the number of worker threads
+     */
+    public ParallelAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int numWorkers) {
+        this(child, afield, gfield, aop, numWorkers, 0);
+    }
+
+    /**
+     * Constructor for a parallel aggregate with a memory budget.
+     *
+     * @param child             a SeqScan over a HeapFile, possibly below some Filters
+     * @param afield            The column over which we are computing an aggregate.
+     * @param gfield            The column over which we are grouping the result, or -1 if
+     *                          there is no grouping
+     * @param aop               The aggregation operator to use
+     * @param numWorkers        the number of worker threads
+     * @param maxGroupsInMemory the memory budget in groups, shared by all
+     *                          workers, or 0 to keep every group in memory
+     */
+    public ParallelAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int numWorkers,
+                             int maxGroupsInMemory) {
+        super(child, afield, gfield, aop, maxGroupsInMemory);
+        if (!canParallelize(child)) {
+            throw new IllegalArgumentException("ParallelAggregate needs Filters over a SeqScan of a HeapFile");
+        }
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("numWorkers must be positive: " + numWorkers);
+        }
+        if (aop != Aggregator.Op.MIN && aop != Aggregator.Op.MAX && aop != Aggregator.Op.SUM
+                && aop != Aggregator.Op.AVG && aop != Aggregator.Op.COUNT) {
+            throw new UnsupportedOperationException("unsupported aggregate operator " + aop);
+        }
+        this.numWorkers = numWorkers;
+    }
+
+    public ParallelAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return true if child is a SeqScan over a HeapFile, possibly below a
+     *         chain of Filters, so that its pages can be split among workers
+     */
+    public static boolean canParallelize(OpIterator child) {
+        while (child instanceof Filter) {
+            child = ((Filter) child).getChildren()[0];
+        }
+        //MorselScan只扫描表的一部分页
+        return child instanceof SeqScan && !(child instanceof MorselScan)
+                && Database.getCatalog().getDatabaseFile(((SeqScan) child).getTableId()) instanceof HeapFile;
+    }
+
+    /**
+     * @return true if the planner should aggregate child with a
+     *         ParallelAggregate: it can be parallelized, the table has at least
+     *         {@link ParallelSeqScan#MIN_PARALLEL_PAGES} pages and there is more than one processor
+     */
+    public static boolean shouldParallelize(OpIterator child) {
+        if (Runtime.getRuntime().availableProcessors() < 2 || !canParallelize(child)) {
+            return false;
+        }
+        while (child instanceof Filter) {
+            child = ((Filter) child).getChildren()[0];
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(((SeqScan) child).getTableId());
+        return file.numPages() >= ParallelSeqScan.MIN_PARALLEL_PAGES;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    @Override
+    protected OpIterator aggregateChild() throws DbException, TransactionAbortedException {
+        //从child一直往下找到SeqScan，沿途的Filter谓词交给worker逐行判断
+        List<Predicate> predicates = new ArrayList<>();
+        OpIterator node = getChildren()[0];
+        while (node instanceof Filter) {
+            predicates.add(((Filter) node).getPredicate());
+            node = ((Filter) node).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) node;
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+
+        int numPages = file.numPages();
+        AtomicInteger nextPage = new AtomicInteger(0);
+        int workers = Math.max(1, Math.min(numWorkers, numPages));
+        //预算的一半留给合并结果，另一半由各个worker平分
+        int budget = maxGroupsInMemory();
+        int maxGroups = budget == 0 ? Integer.MAX_VALUE : Math.max(1, budget / 2 / workers);
+        int[] gfields = groupField() == Aggregator.NO_GROUPING ? new int[0] : new int[]{groupField()};
+        merged = new MultiAggregator(gfields, new int[]{aggregateField()}, new Aggregator.Op[]{aggregateOp()},
+                getTupleDesc(), budget == 0 ? 0 : Math.max(1, budget / 2));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> partials = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                partials.add(pool.submit(new PartialAggregation(scan, numPages, nextPage, predicates,
+                        maxGroups, merged)));
+            }
+            for (Future<Void> partial : partials) {
+                waitFor(partial);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return merged.iterator();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (merged != null) {
+            merged.clear();
+            merged = null;
+        }
+    }
+
+    private static void waitFor(Future<Void> f) throws DbException, TransactionAbortedException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for aggregate workers");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * One worker: repeatedly claims the next unread page and aggregates its
+     * tuples into a thread-local table, which it merges into the shared result
+     * whenever it is full and once more at the end.
+     */
+    private class PartialAggregation implements Callable<Void> {
+        private final SeqScan scan;
+        private final int numPages;
+        private final AtomicInteger nextPage;
+        private final List<Predicate> predicates;
+        private final int maxGroups;
+        private final MultiAggregator result;
+
+        PartialAggregation(SeqScan scan, int numPages, AtomicInteger nextPage,
+                           List<Predicate> predicates, int maxGroups, MultiAggregator result) {
+            this.scan = scan;
+            this.numPages = numPages;
+            this.nextPage = nextPage;
+            this.predicates = predicates;
+            this.maxGroups = maxGroups;
+            this.result = result;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            AggregateHashTable<Field> table = new AggregateHashTable<>();
+            int afield = aggregateField();
+            int gfield = groupField();
+            int pgNo;
+            while ((pgNo = nextPage.getAndIncrement()) < numPages) {
+                Iterator<Tuple> it = scan.tuples(pgNo);
+                tuples:
+                while (it.hasNext()) {
+                    Tuple t = scan.narrow(it.next());
+                    for (Predicate p : predicates) {
+                        if (!p.filter(t)) {
+                            continue tuples;
+                        }
+                    }
+                    Field aggreField = t.getField(afield);
+                    //字符串只支持count，值本身不参与计算
+                    long value = aggreField.getType() == Type.INT_TYPE ? ((IntField) aggreField).getValue() : 0;
+                    Field key = gfield == Aggregator.NO_GROUPING ? null : t.getField(gfield);
+                    int group = table.find(key);
+                    if (group == -1) {
+                        if (table.numGroups() >= maxGroups) {
+                            //本地的表满了，先合并到结果中再继续
+                            flush(table);
+                        }
+                        group = table.findOrInsert(key);
+                    }
+                    table.add(group, value);
+                }
+            }
+            flush(table);
+            return null;
+        }
+
+        private void flush(AggregateHashTable<Field> table) {
+            synchronized (result) {
+                for (int g = 0; g < table.numGroups(); g++) {
+                    Field key = table.getKey(g);
+                    result.mergeGroup(key == null ? null : Collections.singletonList(key), table, g);
+                }
+            }
+            table.clear();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A HashEquiJoin that builds and probes its hash table on several worker
+ * threads. At least one child must be a scan pipeline (a {@link SeqScan} over
+ * a {@link HeapFile}, below any chain of {@link Filter}s and {@link Project}s);
+ * the larger such child is the probe side and the other child the build side.
+ * <p>
+ * The build side is read completely into a hash table split into partitions
+ * by the hash of the join key. If it is a scan pipeline too, workers scan its
+ * pages and scatter the tuples into private per-partition lists, then each
+ * partition is assembled by a single worker, so no locking is needed.
+ * Otherwise the build side is read on the calling thread.
+ * <p>
+ * The probe side is split into morsels claimed by the workers (see
+ * {@link MorselScan}); every worker looks its tuples up in the shared,
+ * read-only table and sends the joined tuples in batches through a bounded
+ * queue. The output order is not defined. Unlike HashEquiJoin, the whole build
+ * side is kept in memory.
+ */
+public class ParallelHashEquiJoin extends HashEquiJoin {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numWorkers;
+    private final int morselPages;
+
+    //分区后的哈希表，按连接键的哈希值分区；rewind时保留
+    private transient List<Map<Field, List<Tuple>>> table;
+    //为true时child1是probe一侧
+    private transient boolean probeLeft;
+
+    private transient ExecutorService pool;
+    private transient List<Exchange.Producer> producers;
+    private transient Channel channel;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Constructor.
+     *
+     * @param p           the predicate to use to join the children; must be
+     *                    an equality
+     * @param child1      iterator for the left relation to join
+     * @param child2      iterator for the right relation to join
+     * @param numWorkers  the number of worker threads
+     * @param morselPages the number of pages a worker claims at a time
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                                int numWorkers, int morselPages) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("ParallelHashEquiJoin only joins on equality");
+        }
+        if (!canParallelize(child1, child2)) {
+            throw new IllegalArgumentException("ParallelHashEquiJoin needs a scan of a HeapFile on one side");
+        }
+        if (numWorkers < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("numWorkers and morselPages must be positive");
+        }
+        this.numWorkers = numWorkers;
+        this.morselPages = morselPages;
+    }
+
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, Runtime.getRuntime().availableProcessors(),
+                ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @return true if child1 or child2 is a scan pipeline whose pages can be
+     *         split among workers
+     */
+    public static boolean canParallelize(OpIterator child1, OpIterator child2) {
+        return ParallelSeqScan.canParallelize(child1) || ParallelSeqScan.canParallelize(child2);
+    }
+
+    /**
+     * @return true if the planner should join child1 and child2 with a
+     *         ParallelHashEquiJoin: the probe side has at least
+     *         {@link ParallelSeqScan#MIN_PARALLEL_PAGES} pages and there is more than one
+     *         processor
+     */
+    public static boolean shouldParallelize(OpIterator child1, OpIterator child2) {
+        if (Runtime.getRuntime().availableProcessors() < 2 || !canParallelize(child1, child2)) {
+            return false;
+        }
+        return Math.max(pages(child1), pages(child2)) >= ParallelSeqScan.MIN_PARALLEL_PAGES;
+    }
+
+    //scan pipeline扫描的页数，不是scan pipeline时为-1
+    private static int pages(OpIterator pipeline) {
+        if (!ParallelSeqScan.canParallelize(pipeline)) {
+            return -1;
+        }
+        while (!(pipeline instanceof SeqScan)) {
+            pipeline = ((Operator) pipeline).getChildren()[0];
+        }
+        return ((HeapFile) Database.getCatalog().getDatabaseFile(((SeqScan) pipeline).getTableId())).numPages();
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    @Override
+    protected void build() throws DbException, TransactionAbortedException {
+        if (table == null) {
+            OpIterator[] children = getChildren();
+            probeLeft = pages(children[0]) > pages(children[1]);
+            if (probeLeft) {
+                table = buildTable(children[1], getJoinPredicate().getField2());
+            } else {
+                table = buildTable(children[0], getJoinPredicate().getField1());
+            }
+        }
+        startProbe();
+    }
+
+    private int partitionOf(Field key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % numWorkers;
+    }
+
+    private List<Map<Field, List<Tuple>>> buildTable(OpIterator side, int keyField)
+            throws DbException, TransactionAbortedException {
+        List<Map<Field, List<Tuple>>> result = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            result.add(new HashMap<>());
+        }
+        if (!ParallelSeqScan.canParallelize(side)) {
+            //build一侧不是扫描，在当前线程读完
+            side.open();
+            try {
+                while (side.hasNext()) {
+                    Tuple t = side.next();
+                    Field key = t.getField(keyField);
+                    result.get(partitionOf(key)).computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+                }
+            } finally {
+                side.close();
+            }
+            return result;
+        }
+
+        ExecutorService buildPool = Executors.newFixedThreadPool(numWorkers);
+        try {
+            //第一步：每个worker扫描一部分页，把tuple放进自己的各个分区
+            List<Future<List<List<Tuple>>>> scattered = new ArrayList<>(numWorkers);
+            for (OpIterator fragment : MorselScan.splitPipeline(side, numWorkers, morselPages)) {
+                scattered.add(buildPool.submit(() -> scatter(fragment, keyField)));
+            }
+            List<List<List<Tuple>>> lists = new ArrayList<>(numWorkers);
+            for (Future<List<List<Tuple>>> f : scattered) {
+                lists.add(getResult(f));
+            }
+            //第二步：每个分区只由一个worker组装，不需要加锁
+            List<Future<?>> assembled = new ArrayList<>(numWorkers);
+            for (int p = 0; p < numWorkers; p++) {
+                final int partition = p;
+                assembled.add(buildPool.submit(() -> {
+                    Map<Field, List<Tuple>> map = result.get(partition);
+                    for (List<List<Tuple>> perWorker : lists) {
+                        for (Tuple t : perWorker.get(partition)) {
+                            map.computeIfAbsent(t.getField(keyField), k -> new ArrayList<>()).add(t);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : assembled) {
+                getResult(f);
+            }
+        } finally {
+            buildPool.shutdownNow();
+        }
+        return result;
+    }
+
+    private List<List<Tuple>> scatter(OpIterator fragment, int keyField)
+            throws DbException, TransactionAbortedException {
+        List<List<Tuple>> lists = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            lists.add(new ArrayList<>());
+        }
+        fragment.open();
+        try {
+            while (fragment.hasNext()) {
+                Tuple t = fragment.next();
+                lists.get(partitionOf(t.getField(keyField))).add(t);
+            }
+        } finally {
+            fragment.close();
+        }
+        return lists;
+    }
+
+    private static <T> T getResult(Future<T> f) throws DbException, TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for join workers");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void startProbe() {
+        OpIterator side = getChildren()[probeLeft ? 0 : 1];
+        List<OpIterator> fragments = MorselScan.splitPipeline(side, numWorkers, morselPages);
+        channel = new Channel(fragments.size(), Exchange.QUEUE_BATCHES);
+        batch = null;
+        producers = new ArrayList<>(fragments.size());
+        pool = Executors.newFixedThreadPool(fragments.size());
+        int keyField = probeLeft ? getJoinPredicate().getField1() : getJoinPredicate().getField2();
+        for (OpIterator fragment : fragments) {
+            Exchange.Producer producer = new ProbeProducer(fragment, keyField, channel);
+            producers.add(producer);
+            pool.execute(producer);
+        }
+        pool.shutdown();
+    }
+
+    private void stopProbe() {
+        if (pool != null) {
+            for (Exchange.Producer producer : producers) {
+                producer.cancel();
+            }
+            pool.shutdownNow();
+            try {
+                //等worker退出，避免它们在rewind之后还往旧的队列里放数据
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+            producers = null;
+            channel = null;
+            batch = null;
+        }
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (channel == null) {
+                return null;
+            }
+            List<Tuple> next;
+            try {
+                next = channel.receive();
+            } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                stopProbe();
+                throw e;
+            }
+            if (next == null) {
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopProbe();
+        //close再open以丢弃Operator中缓存的下一个tuple；哈希表保留，只重新probe
+        super.close();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        stopProbe();
+        table = null;
+        super.close();
+    }
+
+    @Override
+    protected void closeChildren() {
+        //build一侧在buildTable中已经关闭；scan pipeline从未open，它的分片由各自的worker关闭
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!canParallelize(children[0], children[1])) {
+            throw new IllegalArgumentException("ParallelHashEquiJoin needs a scan of a HeapFile on one side");
+        }
+        super.setChildren(children);
+    }
+
+    /**
+     * One probe worker: looks up every tuple of its fragment in the table and
+     * sends the joined tuples in batches.
+     */
+    private class ProbeProducer extends Exchange.Producer {
+        private final int keyField;
+        private final Channel out;
+        private List<Tuple> results = new ArrayList<>(Exchange.BATCH_SIZE);
+
+        ProbeProducer(OpIterator fragment, int keyField, Channel out) {
+            super(fragment);
+            this.keyField = keyField;
+            this.out = out;
+        }
+
+        @Override
+        void emit(Tuple t) throws InterruptedException {
+            Field key = t.getField(keyField);
+            List<Tuple> matches = table.get(partitionOf(key)).get(key);
+            if (matches == null) {
+                return;
+            }
+            for (Tuple match : matches) {
+                results.add(probeLeft ? combine(t, match) : combine(match, t));
+                if (results.size() == Exchange.BATCH_SIZE) {
+                    out.send(results);
+                    results = new ArrayList<>(Exchange.BATCH_SIZE);
+                }
+            }
+        }
+
+        private Tuple combine(Tuple left, Tuple right) {
+            int n1 = left.getTupleDesc().numFields();
+            int n2 = right.getTupleDesc().numFields();
+            Tuple t = new Tuple(getTupleDesc());
+            for (int i = 0; i < n1; i++) {
+                t.setField(i, left.getField(i));
+            }
+            for (int i = 0; i < n2; i++) {
+                t.setField(n1 + i, right.getField(i));
+            }
+            return t;
+        }
+
+        @Override
+        void flush() throws InterruptedException {
+            out.send(results);
+            results = new ArrayList<>(Exchange.BATCH_SIZE);
+        }
+
+        @Override
+        void done(Throwable error) throws InterruptedException {
+            out.finish(error);
+        }
+    }
+}
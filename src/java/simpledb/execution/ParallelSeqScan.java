@@ -0,0 +1,152 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Runs a scan pipeline (a {@link SeqScan} over a {@link HeapFile}, below any
+ * chain of {@link Filter}s and {@link Project}s) on several worker threads.
+ * <p>
+ * When opened, the pipeline is copied once per worker with
+ * {@link MorselScan#splitPipeline}, so that the copies claim ranges of pages
+ * ("morsels") from a shared cursor, and the copies are run by a
+ * {@link Gather}. The output order is not defined.
+ * <p>
+ * The pipeline itself is only used as the template of the copies (and for
+ * printing the plan); it is never opened.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages a worker claims at a time. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    /**
+     * Tables smaller than this are not worth starting worker threads for; the
+     * threshold of every parallel operator and of the {@code ExchangePlanner}.
+     */
+    public static final int MIN_PARALLEL_PAGES = 64;
+
+    private OpIterator pipeline;
+    private final int numWorkers;
+    private final int morselPages;
+
+    private transient Gather gather;
+
+    /**
+     * Constructor.
+     *
+     * @param pipeline    Filters and Projects over a SeqScan of a HeapFile
+     * @param numWorkers  the number of worker threads
+     * @param morselPages the number of pages a worker claims at a time
+     */
+    public ParallelSeqScan(OpIterator pipeline, int numWorkers, int morselPages) {
+        if (!canParallelize(pipeline)) {
+            throw new IllegalArgumentException("ParallelSeqScan needs Filters and Projects over a SeqScan of a HeapFile");
+        }
+        if (numWorkers < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("numWorkers and morselPages must be positive");
+        }
+        this.pipeline = pipeline;
+        this.numWorkers = numWorkers;
+        this.morselPages = morselPages;
+    }
+
+    public ParallelSeqScan(OpIterator pipeline) {
+        this(pipeline, Runtime.getRuntime().availableProcessors(), DEFAULT_MORSEL_PAGES);
+    }
+
+    private static OpIterator scanOf(OpIterator pipeline) {
+        while (pipeline instanceof Filter || pipeline instanceof Project) {
+            pipeline = ((Operator) pipeline).getChildren()[0];
+        }
+        return pipeline;
+    }
+
+    /**
+     * @return true if pipeline is a SeqScan over a HeapFile, possibly below
+     *         Filters and Projects, so that its pages can be split among workers
+     */
+    public static boolean canParallelize(OpIterator pipeline) {
+        OpIterator scan = scanOf(pipeline);
+        //MorselScan只扫描表的一部分页
+        return scan instanceof SeqScan && !(scan instanceof MorselScan)
+                && Database.getCatalog().getDatabaseFile(((SeqScan) scan).getTableId()) instanceof HeapFile;
+    }
+
+    /**
+     * @return true if the planner should run pipeline with a ParallelSeqScan:
+     *         it can be parallelized, the table has at least
+     *         {@link #MIN_PARALLEL_PAGES} pages and there is more than one processor
+     */
+    public static boolean shouldParallelize(OpIterator pipeline) {
+        if (Runtime.getRuntime().availableProcessors() < 2 || !canParallelize(pipeline)) {
+            return false;
+        }
+        SeqScan scan = (SeqScan) scanOf(pipeline);
+        return ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages() >= MIN_PARALLEL_PAGES;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return pipeline.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(((SeqScan) scanOf(pipeline)).getTableId());
+        int morsels = (file.numPages() + morselPages - 1) / morselPages;
+        int workers = Math.max(1, Math.min(numWorkers, morsels));
+        gather = new Gather(MorselScan.splitPipeline(pipeline, workers, morselPages));
+        gather.open();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return gather.hasNext() ? gather.next() : null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        //close再open以丢弃Operator中缓存的下一个tuple
+        super.close();
+        super.open();
+        gather.rewind();
+    }
+
+    @Override
+    public void close() {
+        if (gather != null) {
+            gather.close();
+            gather = null;
+        }
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{pipeline};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!canParallelize(children[0])) {
+            throw new IllegalArgumentException("ParallelSeqScan needs Filters and Projects over a SeqScan of a HeapFile");
+        }
+        this.pipeline = children[0];
+    }
+}
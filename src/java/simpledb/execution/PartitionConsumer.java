@@ -0,0 +1,118 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the tuples a {@link Repartition} sends to one of its consumers. If the
+ * Repartition is replayable the tuples received are kept, so rewinding replays
+ * them instead of running the inputs of the Repartition again; otherwise they
+ * are only streamed through, and the consumer cannot be rewound.
+ * <p>
+ * All consumers of a Repartition are meant to be opened and closed together,
+ * by the parallel fragments of one {@link Gather}.
+ */
+public class PartitionConsumer extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Repartition source;
+    private final int index;
+
+    private transient Channel channel;
+    //只有replayable时才保存收到的tuple，否则为null
+    private transient List<Tuple> received;
+    //下一个要返回的received下标
+    private transient int position;
+    private transient boolean exhausted;
+
+    PartitionConsumer(Repartition source, int index) {
+        this.source = source;
+        this.index = index;
+    }
+
+    @Override
+    public String getName() {
+        return source.describe() + "[" + index + "]";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return source.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        channel = source.open(index);
+        received = source.isReplayable() ? new ArrayList<>() : null;
+        position = 0;
+        exhausted = false;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (received == null) {
+            return receive(channel);
+        }
+        if (position < received.size()) {
+            return received.get(position++);
+        }
+        if (exhausted) {
+            return null;
+        }
+        Tuple t = receive(channel);
+        if (t == null) {
+            exhausted = true;
+            return null;
+        }
+        received.add(t);
+        position++;
+        return t;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!source.isReplayable()) {
+            throw new DbException(getName() + " cannot be rewound");
+        }
+        //close再open以丢弃Operator中缓存的下一个tuple
+        super.close();
+        super.open();
+        position = 0;
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            source.close();
+            channel = null;
+        }
+        received = null;
+        discardBatch();
+        super.close();
+    }
+
+    /**
+     * @return the inputs of the Repartition, which are shared by all of its
+     *         consumers
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return source.getInputs();
+    }
+
+    /**
+     * Replaces the inputs of the Repartition, and so those of all of its
+     * consumers.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        source.setInputs(children);
+    }
+}
@@ -48,6 +48,13 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the indexes of the child fields this operator outputs, in order
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -72,7 +79,17 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
-        Tuple t = child.next();
+        return project(child.next());
+    }
+
+    /**
+     * Projects a single tuple of the child. Does not touch the state of this
+     * operator, so it may be called from several threads at once.
+     *
+     * @param t a tuple of the child
+     * @return the projected tuple
+     */
+    public Tuple project(Tuple t) {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
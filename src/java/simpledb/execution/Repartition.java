@@ -0,0 +1,271 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redistributes the output of several plan fragments among a fixed number of
+ * consumers, each of which is read by a different parallel fragment. With
+ * {@link #hash} every tuple goes to the consumer chosen by the hash of its key
+ * fields, so that equal keys (the same join key or group) meet in the same
+ * consumer; with {@link #broadcast} every consumer receives every tuple.
+ * <p>
+ * The inputs run on their own threads, started when the first consumer is
+ * opened and stopped when the last one is closed. A replayable Repartition
+ * feeds the inner input of a join, which rewinds it: each consumer keeps the
+ * tuples it receives so that it can replay them, and since they are all kept
+ * anyway its channel is unbounded. That also means the inputs of the inner
+ * side never wait for a fragment that is still reading its outer side. Any
+ * other Repartition streams its tuples through channels bounded like those of
+ * a {@link Gather}, and its consumers cannot be rewound.
+ */
+public class Repartition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] inputs;
+    //广播时为null
+    private final int[] keyFields;
+    private final boolean replayable;
+    private final PartitionConsumer[] consumers;
+
+    private transient ExecutorService pool;
+    private transient List<Exchange.Producer> producers;
+    private transient Channel[] channels;
+    private transient int openConsumers;
+
+    private Repartition(List<OpIterator> inputs, int[] keyFields, int numConsumers, boolean replayable) {
+        if (inputs.isEmpty() || numConsumers < 1) {
+            throw new IllegalArgumentException("Repartition needs at least one input and one consumer");
+        }
+        this.inputs = inputs.toArray(new OpIterator[0]);
+        this.keyFields = keyFields;
+        this.replayable = replayable;
+        this.consumers = new PartitionConsumer[numConsumers];
+        for (int i = 0; i < numConsumers; i++) {
+            consumers[i] = new PartitionConsumer(this, i);
+        }
+    }
+
+    /**
+     * Partitions the tuples of inputs by the hash of their key fields.
+     *
+     * @param inputs        plan fragments with the same TupleDesc
+     * @param keyFields     the fields to hash
+     * @param numPartitions the number of consumers
+     * @param replayable    true if the consumers must be able to rewind, i.e.
+     *                      they are the inner inputs of joins
+     */
+    public static Repartition hash(List<OpIterator> inputs, int[] keyFields, int numPartitions,
+                                   boolean replayable) {
+        return new Repartition(inputs, keyFields.clone(), numPartitions, replayable);
+    }
+
+    /**
+     * Sends every tuple of inputs to every consumer. Broadcasting feeds the
+     * inner inputs of joins, so the consumers are always replayable.
+     *
+     * @param inputs       plan fragments with the same TupleDesc
+     * @param numConsumers the number of consumers
+     */
+    public static Repartition broadcast(List<OpIterator> inputs, int numConsumers) {
+        return new Repartition(inputs, null, numConsumers, true);
+    }
+
+    /**
+     * @return the operator reading the tuples sent to consumer i
+     */
+    public PartitionConsumer consumer(int i) {
+        return consumers[i];
+    }
+
+    public int numConsumers() {
+        return consumers.length;
+    }
+
+    public boolean isBroadcast() {
+        return keyFields == null;
+    }
+
+    /**
+     * @return true if the consumers keep their tuples so that they can be
+     *         rewound
+     */
+    public boolean isReplayable() {
+        return replayable;
+    }
+
+    TupleDesc getTupleDesc() {
+        return inputs[0].getTupleDesc();
+    }
+
+    OpIterator[] getInputs() {
+        return inputs.clone();
+    }
+
+    /**
+     * Replaces the plan fragments that feed the consumers; they take effect
+     * the next time the first consumer is opened.
+     */
+    synchronized void setInputs(OpIterator[] inputs) {
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("Repartition needs at least one input");
+        }
+        this.inputs = inputs.clone();
+    }
+
+    String describe() {
+        if (isBroadcast()) {
+            return "broadcast";
+        }
+        StringBuilder keys = new StringBuilder();
+        for (int f : keyFields) {
+            if (keys.length() > 0) {
+                keys.append(",");
+            }
+            keys.append(getTupleDesc().getFieldName(f));
+        }
+        return "repartition(" + keys + ")";
+    }
+
+    /**
+     * Called when consumer i is opened; starts the inputs for the first one.
+     *
+     * @return the channel consumer i reads from
+     */
+    synchronized Channel open(int i) {
+        if (openConsumers++ == 0) {
+            start();
+        }
+        return channels[i];
+    }
+
+    /** Called when a consumer is closed; stops the inputs after the last one. */
+    synchronized void close() {
+        if (--openConsumers == 0) {
+            stop();
+        }
+    }
+
+    private void start() {
+        for (OpIterator input : inputs) {
+            Exchange.resetMorsels(input);
+        }
+        channels = new Channel[consumers.length];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new Channel(inputs.length, replayable ? 0 : Exchange.QUEUE_BATCHES);
+        }
+        producers = new ArrayList<>(inputs.length);
+        pool = Executors.newFixedThreadPool(inputs.length);
+        for (OpIterator input : inputs) {
+            Exchange.Producer producer = isBroadcast()
+                    ? new BroadcastProducer(input, channels)
+                    : new HashProducer(input, channels, keyFields);
+            producers.add(producer);
+            pool.execute(producer);
+        }
+        pool.shutdown();
+    }
+
+    private void stop() {
+        for (Exchange.Producer producer : producers) {
+            producer.cancel();
+        }
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool = null;
+        producers = null;
+        channels = null;
+    }
+
+    private static class HashProducer extends Exchange.Producer {
+        private final Channel[] channels;
+        private final int[] keyFields;
+        //每个消费者一个待发送的batch
+        private final List<List<Tuple>> batches = new ArrayList<>();
+
+        HashProducer(OpIterator fragment, Channel[] channels, int[] keyFields) {
+            super(fragment);
+            this.channels = channels;
+            this.keyFields = keyFields;
+            for (int i = 0; i < channels.length; i++) {
+                batches.add(new ArrayList<>(Exchange.BATCH_SIZE));
+            }
+        }
+
+        @Override
+        void emit(Tuple t) throws InterruptedException {
+            int hash = 0;
+            for (int f : keyFields) {
+                hash = 31 * hash + t.getField(f).hashCode();
+            }
+            int target = (hash & Integer.MAX_VALUE) % channels.length;
+            List<Tuple> batch = batches.get(target);
+            batch.add(t);
+            if (batch.size() == Exchange.BATCH_SIZE) {
+                channels[target].send(batch);
+                batches.set(target, new ArrayList<>(Exchange.BATCH_SIZE));
+            }
+        }
+
+        @Override
+        void flush() throws InterruptedException {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i].send(batches.get(i));
+                batches.set(i, new ArrayList<>(Exchange.BATCH_SIZE));
+            }
+        }
+
+        @Override
+        void done(Throwable error) throws InterruptedException {
+            for (Channel channel : channels) {
+                channel.finish(error);
+            }
+        }
+    }
+
+    private static class BroadcastProducer extends Exchange.Producer {
+        private final Channel[] channels;
+        private List<Tuple> batch = new ArrayList<>(Exchange.BATCH_SIZE);
+
+        BroadcastProducer(OpIterator fragment, Channel[] channels) {
+            super(fragment);
+            this.channels = channels;
+        }
+
+        @Override
+        void emit(Tuple t) throws InterruptedException {
+            batch.add(t);
+            if (batch.size() == Exchange.BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        void flush() throws InterruptedException {
+            //消费者只读batch，可以共用同一个list
+            for (Channel channel : channels) {
+                channel.send(batch);
+            }
+            batch = new ArrayList<>(Exchange.BATCH_SIZE);
+        }
+
+        @Override
+        void done(Throwable error) throws InterruptedException {
+            for (Channel channel : channels) {
+                channel.finish(error);
+            }
+        }
+    }
+}
@@ -3,12 +3,15 @@ package simpledb.execution;
 import java.awt.image.DataBuffer;
 import java.lang.*;
 import simpledb.common.Database;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -38,6 +41,22 @@ public class SeqScan implements OpIterator {
 
     private DbFile dbFile;
 
+    //下推的列，为null时扫描全部列
+    private int[] columns;
+
+    //只含下推列的TupleDesc（不带别名前缀）
+    private TupleDesc projectedTd;
+
+    //下推的过滤条件，列号是表中的列号
+    private Predicate[] predicates = new Predicate[0];
+
+    //HashEquiJoin下推的Bloom filter及其检查的列；HeapFile时是表中的列号，否则是返回的tuple的列号
+    private final List<BloomFilter> runtimeFilters = new ArrayList<>();
+    private final List<Integer> runtimeFilterFields = new ArrayList<>();
+
+    //有Bloom filter时预先取出的下一个tuple
+    private Tuple nextTuple;
+
     //private TupleDesc td;
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -56,14 +75,70 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the columns of the
+     * table; the other columns are not decoded from HeapFile pages, and not
+     * read at all from a ColumnFile.
+     *
+     * @param columns
+     *            the indexes of the columns to return, in order, or null for
+     *            all columns. The TupleDesc of the scan has just these fields.
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, new Predicate[0]);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying all of
+     * the given predicates, tested on the bytes of each HeapFile page before
+     * the tuples are built, so tuples that are skipped are never decoded.
+     *
+     * @param columns
+     *            the indexes of the columns to return, or null for all
+     * @param predicates
+     *            predicates whose field numbers are columns of the table (not
+     *            of the returned tuples); the table must be a HeapFile unless
+     *            this is empty
+     * @see #SeqScan(TransactionId, int, String, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns, Predicate[] predicates) {
         // some code goes here
         this.tid =tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
 
-        this.dbfileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
-
+        if (predicates.length > 0 && !(dbFile instanceof HeapFile)) {
+            throw new IllegalArgumentException("predicates can only be pushed into scans of HeapFiles");
+        }
+        this.predicates = predicates.clone();
+        if (columns == null) {
+            this.dbfileIterator = dbFile instanceof HeapFile
+                    ? ((HeapFile) dbFile).iterator(tid, null, this.predicates)
+                    : dbFile.iterator(tid);
+        } else {
+            this.columns = columns.clone();
+            TupleDesc td = dbFile.getTupleDesc();
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                types[i] = td.getFieldType(columns[i]);
+                names[i] = td.getFieldName(columns[i]);
+            }
+            this.projectedTd = new TupleDesc(types, names);
+            //HeapFile只解析需要的列，ColumnFile只读需要的列，其他文件由SeqScan自己投影
+            if (dbFile instanceof HeapFile) {
+                this.dbfileIterator = ((HeapFile) dbFile).iterator(tid, this.columns, this.predicates);
+            } else if (dbFile instanceof ColumnFile) {
+                this.dbfileIterator = ((ColumnFile) dbFile).iterator(tid, this.columns);
+            } else {
+                this.dbfileIterator = dbFile.iterator(tid);
+            }
+        }
     }
 
     /**
@@ -75,6 +150,52 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the indexes of the table columns this scan returns, or null if
+     *         it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return t, a tuple of the scanned table, restricted to the columns this
+     *         scan returns
+     */
+    Tuple narrow(Tuple t) {
+        return columns == null ? t : t.project(columns, projectedTd);
+    }
+
+    /**
+     * @return the predicates this scan tests, on the columns of the table
+     */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /**
+     * @return the tuples of page pgNo of the scanned HeapFile that satisfy
+     *         the predicates of this scan; not yet narrowed
+     * @see HeapFile#tuples
+     */
+    Iterator<Tuple> tuples(int pgNo) throws TransactionAbortedException, DbException {
+        return ((HeapFile) dbFile).tuples(tid, pgNo, predicates);
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -108,8 +229,48 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Makes this scan drop the tuples whose value of the given field is not in
+     * filter. For a HeapFile the filter is tested on the tuples as read from
+     * the page, before the fields of other columns are decoded and before the
+     * returned tuple is built. The filter is consulted for every tuple, so it
+     * may be filled in after this call, as long as that happens before the
+     * scan returns its first tuple.
+     *
+     * @param field  the index of a field of the tuples this scan returns
+     * @param filter the values the field may have
+     * @see HashEquiJoin
+     */
+    public void addRuntimeFilter(int field, BloomFilter filter) {
+        if (dbFile instanceof HeapFile) {
+            //从HeapFile读出完整的tuple，先检查Bloom filter再投影
+            if (columns != null && runtimeFilters.isEmpty()) {
+                this.dbfileIterator = ((HeapFile) dbFile).iterator(tid, null, this.predicates);
+            }
+            field = columns == null ? field : columns[field];
+        }
+        runtimeFilters.add(filter);
+        runtimeFilterFields.add(field);
+    }
+
+    /**
+     * Stops testing a filter added by {@link #addRuntimeFilter}.
+     */
+    public void removeRuntimeFilter(BloomFilter filter) {
+        int i = runtimeFilters.indexOf(filter);
+        if (i >= 0) {
+            runtimeFilters.remove(i);
+            runtimeFilterFields.remove(i);
+            //没有filter了，恢复由HeapFile投影
+            if (runtimeFilters.isEmpty() && columns != null && dbFile instanceof HeapFile) {
+                this.dbfileIterator = ((HeapFile) dbFile).iterator(tid, this.columns, this.predicates);
+            }
+        }
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        nextTuple = null;
         dbfileIterator.open();
     }
 
@@ -162,7 +323,7 @@ public class SeqScan implements OpIterator {
 //        }
 //        return new TupleDesc(types, names);
 
-        final TupleDesc td = dbFile.getTupleDesc();
+        final TupleDesc td = columns == null ? dbFile.getTupleDesc() : projectedTd;
         Type[] typeAr = new Type[td.numFields()];
         String[] fieldAr = new String[td.numFields()];
 
@@ -184,16 +345,50 @@ public class SeqScan implements OpIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return dbfileIterator.hasNext();
+        if (runtimeFilters.isEmpty()) {
+            return dbfileIterator.hasNext();
+        }
+        while (nextTuple == null && dbfileIterator.hasNext()) {
+            Tuple t = dbfileIterator.next();
+            if (passesRuntimeFilters(t)) {
+                nextTuple = t;
+            }
+        }
+        return nextTuple != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        Tuple old=dbfileIterator.next();
+        Tuple old;
+        if (runtimeFilters.isEmpty()) {
+            old = dbfileIterator.next();
+        } else {
+            if (!hasNext()) {
+                throw new NoSuchElementException("SeqScan: no more tuples");
+            }
+            old = nextTuple;
+            nextTuple = null;
+            if (dbFile instanceof HeapFile) {
+                return narrow(old);
+            }
+        }
+        if (columns != null && !(dbFile instanceof HeapFile) && !(dbFile instanceof ColumnFile)) {
+            return narrow(old);
+        }
         return old;
     }
 
+    private boolean passesRuntimeFilters(Tuple t) {
+        for (int i = 0; i < runtimeFilters.size(); i++) {
+            Field key = t.getField(runtimeFilterFields.get(i));
+            if (key != null && !runtimeFilters.get(i).mightContain(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 将tuple的tupleDesc加上Alias
      * @param old
@@ -209,12 +404,14 @@ public class SeqScan implements OpIterator {
 
     public void close() {
         // some code goes here
+        nextTuple = null;
         dbfileIterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        nextTuple = null;
         dbfileIterator.rewind();
     }
 }
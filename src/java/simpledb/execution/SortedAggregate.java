@@ -0,0 +1,229 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * An Aggregate for input that arrives ordered (ascending or descending) on the
+ * group-by fields, so that all tuples of a group are adjacent. Instead of
+ * building a hash table it aggregates one group at a time and returns that
+ * group as soon as a tuple with a different key is read; only the current
+ * group is held in memory.
+ * <p>
+ * The caller is responsible for the ordering; {@link #isOrderedOn} tells
+ * whether a plan is known to produce it.
+ */
+public class SortedAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The OpIterator that is feeding us tuples, ordered on gfield.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     */
+    public SortedAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several columns, see
+     * {@link Aggregate#Aggregate(OpIterator, int[], int[], Aggregator.Op[])}.
+     * The child must be ordered on the group-by fields taken together.
+     */
+    public SortedAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        super(child, afields, gfields, aops);
+        TupleDesc childTd = child.getTupleDesc();
+        for (int a = 0; a < afields.length; a++) {
+            if (childTd.getFieldType(afields[a]) == Type.STRING_TYPE && aops[a] != Aggregator.Op.COUNT) {
+                throw new UnsupportedOperationException("String类型值只支持count操作,不支持" + aops[a]);
+            }
+        }
+    }
+
+    /**
+     * @return true if the tuples of child are known to come out ordered on
+     *         field: child sorts on it (OrderBy, TopN) or scans a B+ tree keyed
+     *         on it, possibly below Filters and Limits, which keep the order
+     */
+    public static boolean isOrderedOn(OpIterator child, int field) {
+        while (child instanceof Filter || child instanceof Limit) {
+            child = ((Operator) child).getChildren()[0];
+        }
+        if (child instanceof OrderBy) {
+            return ((OrderBy) child).getOrderByField() == field;
+        }
+        if (child instanceof TopN) {
+            return ((TopN) child).getOrderByField() == field;
+        }
+        DbFile file = null;
+        if (child instanceof SeqScan) {
+            file = Database.getCatalog().getDatabaseFile(((SeqScan) child).getTableId());
+            //只扫描部分列时，换算成表中的列号
+            int[] columns = ((SeqScan) child).getColumns();
+            if (columns != null) {
+                field = columns[field];
+            }
+        } else if (child instanceof BTreeScan) {
+            file = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(((BTreeScan) child).getTableName()));
+        }
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field;
+    }
+
+    @Override
+    protected OpIterator aggregateChild() {
+        return new GroupIterator(getChildren()[0]);
+    }
+
+    /**
+     * Reads the child one group at a time. The first tuple of the next group
+     * is kept back until that group is aggregated.
+     */
+    private class GroupIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator child;
+        private final int[] gfields = groupFields();
+        private final int[] afields = aggregateFields();
+        private final Aggregator.Op[] aops = aggregateOps();
+
+        //当前分组的累加值，以聚合下标为下标
+        private final long[] sums = new long[afields.length];
+        private final long[] counts = new long[afields.length];
+        private final long[] mins = new long[afields.length];
+        private final long[] maxs = new long[afields.length];
+
+        //已经从child读出、属于下一个分组的tuple
+        private Tuple lookahead;
+
+        GroupIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        private boolean sameGroup(Tuple group, Tuple t) {
+            for (int g : gfields) {
+                if (!group.getField(g).equals(t.getField(g))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(Tuple t) {
+            for (int a = 0; a < afields.length; a++) {
+                Field f = t.getField(afields[a]);
+                //字符串只支持count，值本身不参与计算
+                long value = f.getType() == Type.INT_TYPE ? ((IntField) f).getValue() : 0;
+                sums[a] += value;
+                counts[a]++;
+                if (value < mins[a]) {
+                    mins[a] = value;
+                }
+                if (value > maxs[a]) {
+                    maxs[a] = value;
+                }
+            }
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            Tuple first = lookahead;
+            if (first == null) {
+                if (!child.hasNext()) {
+                    return null;
+                }
+                first = child.next();
+            }
+            lookahead = null;
+
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            Arrays.fill(mins, Long.MAX_VALUE);
+            Arrays.fill(maxs, Long.MIN_VALUE);
+            add(first);
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (!sameGroup(first, t)) {
+                    lookahead = t;
+                    break;
+                }
+                add(t);
+            }
+
+            Tuple result = new Tuple(getTupleDesc());
+            for (int i = 0; i < gfields.length; i++) {
+                result.setField(i, first.getField(gfields[i]));
+            }
+            for (int a = 0; a < afields.length; a++) {
+                result.setField(gfields.length + a, new IntField((int) value(a)));
+            }
+            return result;
+        }
+
+        private long value(int a) {
+            switch (aops[a]) {
+                case COUNT:
+                    return counts[a];
+                case SUM:
+                    return sums[a];
+                case MIN:
+                    return mins[a];
+                case MAX:
+                    return maxs[a];
+                case AVG:
+                    return sums[a] / counts[a];
+                default:
+                    throw new UnsupportedOperationException("unsupported aggregate operator " + aops[a]);
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            //close再open以丢弃Operator中缓存的下一个tuple
+            super.close();
+            super.open();
+            child.rewind();
+            lookahead = null;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            lookahead = null;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return SortedAggregate.this.getTupleDesc();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[]{child};
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            this.child = children[0];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * An aggregator that keeps at most a fixed number of groups in memory. Groups
+ * that are already in memory are aggregated in place; once the budget is
+ * reached, tuples of groups not yet in memory are written to one of
+ * {@link AggregatePartitions#NUM_PARTITIONS} partition files on disk, chosen
+ * by hashing the group value. When the results are read, the in-memory groups are returned first
+ * and then each partition is aggregated in turn (spilling again, with a
+ * different hash, if it is still too large).
+ * <p>
+ * Works for both IntFields and StringFields to aggregate over; over strings
+ * only COUNT is supported, as in {@link StringAggregator}.
+ * <p>
+ * This is the single-aggregate form of {@link MultiAggregator}, which does the
+ * work.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups kept in memory. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 18;
+
+    private final MultiAggregator aggregator;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple, or
+     *                    NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null
+     *                    if there is no grouping
+     * @param afield      the 0-based index of the aggregate field in the tuple
+     * @param what        the aggregation operator
+     * @param td          the TupleDesc of the result tuples
+     * @param maxGroups   the maximum number of groups kept in memory
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Op what,
+                              TupleDesc td, int maxGroups) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive: " + maxGroups);
+        }
+        //分组列的类型由td的第0列给出
+        int[] gbfields = gbfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gbfield};
+        this.aggregator = new MultiAggregator(gbfields, new int[]{afield}, new Op[]{what}, td, maxGroups);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        aggregator.mergeTupleIntoGroup(tup);
+    }
+
+    /**
+     * @return the number of groups currently held in memory
+     */
+    public int numGroupsInMemory() {
+        return aggregator.numGroupsInMemory();
+    }
+
+    /**
+     * @return true if some groups have been written to disk
+     */
+    public boolean hasSpilled() {
+        return aggregator.hasSpilled();
+    }
+
+    /**
+     * Drops all groups and deletes any partition files. The aggregator can be
+     * reused afterwards.
+     */
+    public void clear() {
+        aggregator.clear();
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results. Result tuples are
+     * produced one at a time; only one spilled partition is aggregated in
+     * memory at any moment.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping.
+     */
+    public OpIterator iterator() {
+        return aggregator.iterator();
+    }
+}
@@ -29,8 +29,12 @@ public class StringAggregator implements Aggregator {
     //指定使用哪种聚合操作
     Op aggreOp;
 
-    //group-by value到aggregate value的映射
-    HashMap<Field, Integer> gval2agval;
+    //每个group-by value的计数
+    private AggregateHashTable<Field> groups;
+
+    //上一个tuple的group-by field及其分组：同一页上相同的字典编码值共用一个Field对象，按引用比较就能跳过哈希查找
+    private Field lastGbField;
+    private int lastGroup = -1;
 
     //聚合后的td
     private TupleDesc td;
@@ -58,7 +62,7 @@ public class StringAggregator implements Aggregator {
         td= (gbfield == Aggregator.NO_GROUPING)? new TupleDesc(new Type[]{Type.INT_TYPE}):
                 new TupleDesc(new Type[]{gbfieldtype,Type.INT_TYPE});
         //vals = new HashMap<Field,Integer>();
-        gval2agval = new HashMap<>();
+        groups = new AggregateHashTable<>();
 
     }
 
@@ -83,7 +87,7 @@ public class StringAggregator implements Aggregator {
         this.aggreOp = aggreOp;
         this.td = td;
         this.gbFieldType = gbfieldtype;
-        gval2agval = new HashMap<>();
+        groups = new AggregateHashTable<>();
     }
 
     /**
@@ -95,8 +99,6 @@ public class StringAggregator implements Aggregator {
         Field aggreField;
         //分组依据的Field
         Field gbField = null;
-        //新的聚合结果
-        Integer newVal;
         aggreField = tup.getField(agIndex);
 
         if (aggreField.getType() != Type.STRING_TYPE) {
@@ -104,9 +106,11 @@ public class StringAggregator implements Aggregator {
         }
 
         //初始化originalTd，并确保每一次聚合的tuple的td与其相同
+        //同一个child产生的tuple一般共用同一个TupleDesc对象，先比较引用以免每行都逐列比较
+        TupleDesc tupTd = tup.getTupleDesc();
         if (originalTd == null) {
-            originalTd = tup.getTupleDesc();
-        } else if (!originalTd.equals(tup.getTupleDesc())) {
+            originalTd = tupTd;
+        } else if (originalTd != tupTd && !originalTd.equals(tupTd)) {
             throw new IllegalArgumentException("待聚合tuple的tupleDesc与之前不一致");
         }
 
@@ -116,11 +120,11 @@ public class StringAggregator implements Aggregator {
         }
 
         //开始进行聚合操作
-        if (gval2agval.containsKey(gbField)) {
-            Integer oldVal = gval2agval.get(gbField);
-            newVal = oldVal + 1;
-        } else newVal = 1;
-        gval2agval.put(gbField, newVal);
+        if (lastGroup < 0 || gbField != lastGbField) {
+            lastGroup = groups.findOrInsert(gbField);
+            lastGbField = gbField;
+        }
+        groups.add(lastGroup, 1);
     }
 
     /**
@@ -135,14 +139,15 @@ public class StringAggregator implements Aggregator {
         // some code goes here
         //throw new UnsupportedOperationException("please implement me for lab2");
         ArrayList<Tuple> tuples = new ArrayList<>();
-        for (Map.Entry<Field, Integer> g2a : gval2agval.entrySet()) {
+        for (int g = 0; g < groups.numGroups(); g++) {
             Tuple t = new Tuple(td);//该tuple不必setRecordId，因为RecordId对进行操作后的tuple没有意义
+            IntField count = new IntField((int) groups.getCount(g));
             //分别处理不分组与有分组的情形
             if (gbIndex == Aggregator.NO_GROUPING) {
-                t.setField(0, new IntField(g2a.getValue()));
+                t.setField(0, count);
             } else {
-                t.setField(0, g2a.getKey());
-                t.setField(1, new IntField(g2a.getValue()));
+                t.setField(0, groups.getKey(g));
+                t.setField(1, count);
             }
             tuples.add(t);
         }
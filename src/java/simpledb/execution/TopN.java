@@ -0,0 +1,138 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Unlike
+ * {@link OrderBy}, which sorts the whole input, it only keeps a bounded heap
+ * of the best n tuples seen so far, so memory use is O(n).
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final int limit;
+    private final Comparator<Tuple> comparator;
+
+    //排好序的前limit个tuple
+    private List<Tuple> topTups;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+        this.comparator = new TupleComparator(orderbyField, asc);
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups = limit == 0 ? new ArrayList<>() : selectTop();
+        it = topTups.iterator();
+        super.open();
+    }
+
+    /**
+     * 用一个大小为limit的堆保存目前为止最靠前的tuple，堆顶是其中排在最后的那个，
+     * 新的tuple只有排在堆顶之前时才会替换堆顶
+     */
+    private List<Tuple> selectTop() throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(limit, comparator.reversed());
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.offer(t);
+            } else if (comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(t);
+            }
+        }
+        List<Tuple> result = new ArrayList<>(heap);
+        result.sort(comparator);
+        return result;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        topTups = null;
+    }
+
+    public void rewind() {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples from
+     * the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,419 @@
+package simpledb.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+/**
+ * BTreeBulkBuilder builds a BTreeFile from an unsorted text file bottom-up,
+ * without inserting the tuples one at a time.
+ * <p>
+ * The input is first sorted externally: the calling thread cuts it into runs
+ * of a fixed number of lines, and worker threads parse and sort the runs and
+ * write each to a temporary file. The runs are then merged, and the sorted
+ * tuples are packed into leaf pages written in key order. Each level of
+ * internal pages is built from the first keys of the level below, until a
+ * level has a single page, the root.
+ * <p>
+ * The pages are filled up to a fill factor, so that later inserts do not
+ * split every page at once. Only the last leaf may be fuller or emptier than
+ * that: it shares its tuples with the leaf before it if it would otherwise be
+ * less than half full. Only the runs being sorted and the pages being built
+ * are held in memory.
+ */
+public class BTreeBulkBuilder {
+
+	/** The number of tuples in each sorted run, unless given otherwise. */
+	public static final int DEFAULT_RUN_TUPLES = 100000;
+
+	private final int npagebytes;
+	private final Type[] typeAr;
+	private final TupleDesc td;
+	private final int keyField;
+	private final int threads;
+	private final int runTuples;
+	// 每个叶子页放的tuple数，每个内部页的子页数
+	private final int leafCapacity;
+	private final int childCapacity;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each page to fill, in (0, 1]
+	 * @param threads - the number of threads sorting runs
+	 * @param runTuples - the number of tuples in each sorted run
+	 */
+	public BTreeBulkBuilder(int npagebytes, Type[] typeAr, int keyField,
+			double fillFactor, int threads, int runTuples) {
+		if (fillFactor <= 0 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+		if (threads < 1 || runTuples < 1)
+			throw new IllegalArgumentException("threads and run size must be positive");
+		this.npagebytes = npagebytes;
+		this.typeAr = typeAr.clone();
+		this.td = new TupleDesc(typeAr);
+		this.keyField = keyField;
+		this.threads = threads;
+		this.runTuples = runTuples;
+
+		int nrecbytes = td.getSize();
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) / (nrecbytes * 8 + 1);
+		int nentrybytes = typeAr[keyField].getLen() + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category
+		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);
+		if (nentries < 2)
+			throw new IllegalArgumentException("internal pages must hold at least two entries: " + npagebytes);
+		this.leafCapacity = Math.max(1, (int) (nrecords * fillFactor));
+		// 至少3个，平均分配时每个内部页才一定有两个以上的子页
+		this.childCapacity = Math.max(3, (int) ((nentries + 1) * fillFactor));
+	}
+
+	/**
+	 * Builds the B+ tree file and adds it to the catalog.
+	 *
+	 * @param inFile - the file containing the raw data, one tuple per line
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param bFile - the data file for the BTreeFile, overwritten if it exists
+	 * @return the BTreeFile
+	 * @throws IOException if a file can't be read or written, or a malformed
+	 *   input line is encountered
+	 */
+	public BTreeFile build(File inFile, char fieldSeparator, File bFile) throws IOException {
+		BTreeFile bf = new BTreeFile(bFile, keyField, td);
+		List<Run> runs = sortRuns(inFile, fieldSeparator);
+		try (FileChannel out = FileChannel.open(bFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			 RunMerger merged = new RunMerger(runs)) {
+			List<Field> keys = new ArrayList<>();
+			int leaves = writeLeaves(merged, out, keys);
+			if (leaves == 0) {
+				// 没有tuple时根是一个空的叶子页
+				write(out, offset(1), BTreeLeafPage.createEmptyPageData());
+				leaves = 1;
+			}
+			int root = writeInternalLevels(out, bf.getId(), leaves, keys);
+			int rootCategory = (root > leaves ? BTreePageId.INTERNAL : BTreePageId.LEAF);
+			write(out, 0, BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0));
+		} finally {
+			for (Run run : runs)
+				run.file.delete();
+		}
+
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		// 和BTreeFileEncoder.convert一样，丢掉BufferPool里可能过时的页
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/** A sorted run in a temporary file. */
+	private static class Run {
+		final File file;
+		final int count;
+
+		Run(File file, int count) {
+			this.file = file;
+			this.count = count;
+		}
+	}
+
+	private List<Run> sortRuns(File inFile, char fieldSeparator) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Run> runs = new ArrayList<>();
+		ArrayDeque<Future<Run>> pending = new ArrayDeque<>();
+		boolean done = false;
+		try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+			List<String> lines = new ArrayList<>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.replace("\r", "");
+				if (line.isEmpty())
+					continue;
+				lines.add(line);
+				if (lines.size() == runTuples) {
+					List<String> run = lines;
+					pending.add(pool.submit(() -> sortRun(run, fieldSeparator)));
+					lines = new ArrayList<>();
+					// 同时在内存里的run不超过线程数
+					if (pending.size() >= threads)
+						runs.add(await(pending.poll()));
+				}
+			}
+			if (!lines.isEmpty()) {
+				List<String> run = lines;
+				pending.add(pool.submit(() -> sortRun(run, fieldSeparator)));
+			}
+			while (!pending.isEmpty())
+				runs.add(await(pending.poll()));
+			done = true;
+		} finally {
+			pool.shutdownNow();
+			if (!done) {
+				for (Future<Run> f : pending) {
+					try {
+						f.get().file.delete();
+					} catch (Exception e) {
+						// 这个run本身就失败了
+					}
+				}
+				for (Run run : runs)
+					run.file.delete();
+			}
+		}
+		return runs;
+	}
+
+	private static Run await(Future<Run> run) throws IOException {
+		try {
+			return run.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("bulk build interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private Run sortRun(List<String> lines, char fieldSeparator) throws IOException {
+		List<Tuple> tuples = new ArrayList<>(lines.size());
+		for (String line : lines)
+			tuples.add(parseTuple(line, fieldSeparator));
+		tuples.sort(new BTreeFileEncoder.TupleComparator(keyField));
+
+		File file = File.createTempFile("btreeRun", ".dat");
+		file.deleteOnExit();
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (Tuple t : tuples) {
+				for (int i = 0; i < typeAr.length; i++)
+					t.getField(i).serialize(dos);
+			}
+		}
+		return new Run(file, tuples.size());
+	}
+
+	private Tuple parseTuple(String line, char fieldSeparator) throws IOException {
+		Tuple t = new Tuple(td);
+		int fieldStart = 0;
+		for (int i = 0; i < typeAr.length; i++) {
+			int fieldEnd = line.indexOf(fieldSeparator, fieldStart);
+			if ((fieldEnd < 0) != (i == typeAr.length - 1))
+				throw new IOException("BAD LINE : " + line + " (expected " + typeAr.length + " fields)");
+			if (fieldEnd < 0)
+				fieldEnd = line.length();
+			String s = line.substring(fieldStart, fieldEnd).trim();
+			fieldStart = fieldEnd + 1;
+			if (typeAr[i] == Type.INT_TYPE) {
+				try {
+					t.setField(i, new IntField(Integer.parseInt(s)));
+				} catch (NumberFormatException e) {
+					throw new IOException("BAD LINE : " + line, e);
+				}
+			} else {
+				t.setField(i, new StringField(s, Type.STRING_LEN));
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Merges the sorted runs. Tuples with equal keys come out in input order.
+	 */
+	private class RunMerger implements Closeable {
+		private final PriorityQueue<RunReader> heap;
+		private final List<RunReader> readers = new ArrayList<>();
+
+		RunMerger(List<Run> runs) throws IOException {
+			Comparator<Tuple> byKey = new BTreeFileEncoder.TupleComparator(keyField);
+			heap = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+				int cmp = byKey.compare(a.current, b.current);
+				return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+			});
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					RunReader reader = new RunReader(runs.get(i), i);
+					readers.add(reader);
+					if (reader.advance())
+						heap.add(reader);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		boolean hasNext() {
+			return !heap.isEmpty();
+		}
+
+		Tuple next() throws IOException {
+			RunReader reader = heap.poll();
+			Tuple t = reader.current;
+			if (reader.advance())
+				heap.add(reader);
+			return t;
+		}
+
+		public void close() throws IOException {
+			for (RunReader reader : readers)
+				reader.in.close();
+		}
+	}
+
+	private class RunReader {
+		final DataInputStream in;
+		final int index;
+		int remaining;
+		Tuple current;
+
+		RunReader(Run run, int index) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+			this.index = index;
+			this.remaining = run.count;
+		}
+
+		boolean advance() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			current = new Tuple(td);
+			try {
+				for (int i = 0; i < typeAr.length; i++)
+					current.setField(i, typeAr[i].parse(in));
+			} catch (java.text.ParseException e) {
+				throw new IOException(e);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the leaf pages, numbered from 1, and adds the first key of each
+	 * to keys.
+	 *
+	 * @return the number of leaf pages
+	 */
+	private int writeLeaves(RunMerger in, FileChannel out, List<Field> keys)
+			throws IOException {
+		// 右边的页有了才写左边的页，这样知道右兄弟指针；最后两页可能还要重新分配
+		List<Tuple> previous = null;
+		List<Tuple> current = new ArrayList<>(leafCapacity);
+		int leaves = 0;
+		while (in.hasNext()) {
+			if (current.size() == leafCapacity) {
+				if (previous != null) {
+					leaves++;
+					writeLeaf(out, leaves, previous, true, keys);
+				}
+				previous = current;
+				current = new ArrayList<>(leafCapacity);
+			}
+			current.add(in.next());
+		}
+		if (current.isEmpty())
+			return 0;
+
+		if (previous != null && current.size() < leafCapacity / 2) {
+			List<Tuple> last = new ArrayList<>(previous);
+			last.addAll(current);
+			int half = last.size() / 2;
+			previous = new ArrayList<>(last.subList(0, half));
+			current = new ArrayList<>(last.subList(half, last.size()));
+		}
+		if (previous != null) {
+			leaves++;
+			writeLeaf(out, leaves, previous, true, keys);
+		}
+		leaves++;
+		writeLeaf(out, leaves, current, false, keys);
+		return leaves;
+	}
+
+	private void writeLeaf(FileChannel out, int pgNo, List<Tuple> tuples, boolean hasRight,
+			List<Field> keys) throws IOException {
+		byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, npagebytes, typeAr.length, typeAr, keyField);
+		ByteBuffer pointers = ByteBuffer.wrap(data);
+		// 0表示没有兄弟页；父指针等上一层写完再填
+		pointers.putInt(BTreeLeafPage.INDEX_SIZE, pgNo - 1);
+		pointers.putInt(2 * BTreeLeafPage.INDEX_SIZE, hasRight ? pgNo + 1 : 0);
+		write(out, offset(pgNo), data);
+		keys.add(tuples.get(0).getField(keyField));
+	}
+
+	/**
+	 * Writes the internal levels above the leaves, each after the one below
+	 * it, and fills in the parent pointers of the pages below.
+	 *
+	 * @param keys - the first key of each leaf
+	 * @return the page number of the root
+	 */
+	private int writeInternalLevels(FileChannel out, int tableid, int leaves, List<Field> keys)
+			throws IOException {
+		int levelStart = 1;
+		int levelSize = leaves;
+		int category = BTreePageId.LEAF;
+		Type keyType = typeAr[keyField];
+		while (levelSize > 1) {
+			int parentStart = levelStart + levelSize;
+			// 平均分配子页；childCapacity至少为3，所以每页至少有两个子页
+			int pages = (levelSize + childCapacity - 1) / childCapacity;
+			List<Field> parentKeys = new ArrayList<>(pages);
+			for (int j = 0; j < pages; j++) {
+				int from = (int) ((long) j * levelSize / pages);
+				int to = (int) ((long) (j + 1) * levelSize / pages);
+				List<BTreeEntry> entries = new ArrayList<>(to - from - 1);
+				for (int i = from + 1; i < to; i++) {
+					entries.add(new BTreeEntry(keys.get(i),
+							new BTreePageId(tableid, levelStart + i - 1, category),
+							new BTreePageId(tableid, levelStart + i, category)));
+				}
+				write(out, offset(parentStart + j),
+						BTreeFileEncoder.convertToInternalPage(entries, npagebytes, keyType, category));
+				parentKeys.add(keys.get(from));
+
+				ByteBuffer parent = ByteBuffer.allocate(BTreePage.INDEX_SIZE);
+				for (int i = from; i < to; i++) {
+					parent.clear();
+					parent.putInt(parentStart + j);
+					parent.flip();
+					write(out, offset(levelStart + i), parent);
+				}
+			}
+			levelStart = parentStart;
+			levelSize = pages;
+			keys = parentKeys;
+			category = BTreePageId.INTERNAL;
+		}
+		return levelStart;
+	}
+
+	private long offset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * npagebytes;
+	}
+
+	private static void write(FileChannel out, long position, byte[] data) throws IOException {
+		write(out, position, ByteBuffer.wrap(data));
+	}
+
+	private static void write(FileChannel out, long position, ByteBuffer data) throws IOException {
+		while (data.hasRemaining())
+			position += out.write(data, position);
+	}
+}
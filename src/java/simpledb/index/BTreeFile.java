@@ -2,6 +2,8 @@ package simpledb.index;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -33,6 +35,16 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	/** Number of unlocked descents tried before locking the path from the root. */
+	private static final int OPTIMISTIC_RETRIES = 3;
+	// 比这更深的路径一定是读到了正在修改的内部页
+	private static final int MAX_DEPTH = 64;
+
+	// 每次结构修改开始和结束时各加一，不加锁的下降用它检查读到的路径是否还有效
+	private final AtomicLong structureVersion = new AtomicLong();
+	private final AtomicInteger structureChanges = new AtomicInteger();
+	private volatile boolean optimisticDescent = true;
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -193,37 +205,149 @@ public class BTreeFile implements DbFile {
 			return (BTreeLeafPage)this.getPage(tid,dirtypages,pid,perm);
 		}else {//如果當前不是leaf 節點
 			// internal and page can not be empty
-			BTreePageId nextSearchId;
 			BTreeInternalPage searchPage = (BTreeInternalPage) this.getPage(tid, dirtypages, pid, perm);
+			// 二分查找第一个不小于f的key，相同的key可能也在它左边的子页里
+			BTreePageId nextSearchId = searchPage.findChild(f);
+			return findLeafPage(tid, dirtypages, nextSearchId, perm, f);
+		}
+	}
+	
+	/**
+	 * Chooses how lookups and inserts reach a leaf page. With optimistic descent
+	 * (the default) the root pointer and internal pages are read without
+	 * transactional locks, and only the leaf page is locked; the descent is
+	 * retried if a split or merge ran meanwhile, and after a few retries falls
+	 * back to locking the path from the root. Inserts that must split a page,
+	 * and deletes that merge or redistribute pages, always lock the path.
+	 * Without it, every descent locks the path from the root.
+	 *
+	 * @param optimistic - true to descend without locking internal pages
+	 */
+	public void setOptimisticDescent(boolean optimistic) {
+		this.optimisticDescent = optimistic;
+	}
 
-			BTreeEntry entry;
+	/**
+	 * Marks the start of a change to the internal pages or the root pointer of
+	 * this tree, such as a split, a merge or undoing either on abort. Descents
+	 * that do not lock internal pages and overlap the change are retried.
+	 */
+	public void beginStructureChange() {
+		structureChanges.incrementAndGet();
+		structureVersion.incrementAndGet();
+	}
 
-			Iterator<BTreeEntry> iterator = searchPage.iterator();
+	/**
+	 * Marks the end of a change started with {@link #beginStructureChange()}.
+	 */
+	public void endStructureChange() {
+		structureVersion.incrementAndGet();
+		structureChanges.decrementAndGet();
+	}
 
-			if (iterator.hasNext()) {
-				entry = iterator.next();
-			} else {
-				throw new DbException("findLeafPage: InternalPage must contain at least one data");
+	/**
+	 * Follows the root pointer and internal pages to the left-most leaf page
+	 * possibly containing the key field f, reading them without locks.
+	 *
+	 * @param f - the field to search for
+	 * @return the id of the leaf page, or null if the descent read a page that was
+	 * being changed or the tree has no root yet
+	 */
+	private BTreePageId descendUnlocked(Field f) {
+		if (structureChanges.get() > 0 || this.f.length() == 0) {
+			return null;
+		}
+		BufferPool bufferPool = Database.getBufferPool();
+		try {
+			BTreePageId pid = ((BTreeRootPtrPage) bufferPool.readPage(BTreeRootPtrPage.getId(tableid))).getRootId();
+			for (int depth = 0; pid != null && pid.pgcateg() == BTreePageId.INTERNAL; depth++) {
+				if (depth == MAX_DEPTH) {
+					return null;
+				}
+				pid = ((BTreeInternalPage) bufferPool.readPage(pid)).findChild(f);
 			}
+			return pid != null && pid.pgcateg() == BTreePageId.LEAF ? pid : null;
+		} catch (DbException | RuntimeException e) {
+			// 读到了修改到一半的页，重新下降
+			return null;
+		}
+	}
 
-			if (f == null) {
-				nextSearchId = entry.getLeftChild();
-			} else {
-				while (f.compare(Op.GREATER_THAN_OR_EQ, entry.getKey()) && iterator.hasNext()) {
-					entry = iterator.next();
-				}
+	/**
+	 * Finds and locks the left-most leaf page possibly containing the key field f,
+	 * reading the root pointer and internal pages without locks. The leaf is only
+	 * returned if no structure change overlapped the descent; otherwise the descent
+	 * is retried a few times. Locks taken on leaves that are not returned are
+	 * released again.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for
+	 * @param needsRoom - if true, a full leaf page is not returned, as it must be split
+	 * @return the left-most leaf page possibly containing the key field f, or null
+	 */
+	private BTreeLeafPage findLeafPageOptimistically(TransactionId tid, Map<PageId, Page> dirtypages,
+			Permissions perm, Field f, boolean needsRoom) throws TransactionAbortedException {
+		BufferPool bufferPool = Database.getBufferPool();
+		for (int i = 0; i < OPTIMISTIC_RETRIES; i++) {
+			long version = structureVersion.get();
+			BTreePageId pid = descendUnlocked(f);
+			if (pid == null) {
+				Thread.yield();
+				continue;
+			}
 
-				if (f.compare(Op.LESS_THAN_OR_EQ, entry.getKey())) {
-					nextSearchId = entry.getLeftChild();
-				} else {
-					//greater than the last one
-					nextSearchId = entry.getRightChild();
-				}
+			// 只给叶子页加事务锁，拿到锁之后再检查这期间树的结构没有变过
+			boolean held = bufferPool.holdsLock(tid, pid);
+			BTreeLeafPage leaf = null;
+			try {
+				leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			} catch (DbException | RuntimeException e) {
+				// 页号来自修改到一半的内部页，不一定存在
 			}
-			return findLeafPage(tid, dirtypages, nextSearchId, perm, f);
+			boolean valid = leaf != null && structureVersion.get() == version;
+			if (valid && (!needsRoom || leaf.getNumEmptySlots() > 0)) {
+				return leaf;
+			}
+			dirtypages.remove(pid);
+			if (!held && bufferPool.holdsLock(tid, pid)) {
+				bufferPool.unsafeReleasePage(tid, pid);
+			}
+			if (valid) {
+				// 叶子页要分裂，交给从根开始加锁的路径
+				return null;
+			}
+			Thread.yield();
 		}
+		return null;
 	}
-	
+
+	/**
+	 * Finds and locks with READ_ONLY permission the left-most leaf page possibly
+	 * containing the key field f, descending from the root without locking
+	 * internal pages if optimistic descent is enabled. Used by the BTreeFile
+	 * iterators.
+	 * @see #setOptimisticDescent(boolean)
+	 *
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		if (optimisticDescent) {
+			BTreeLeafPage leaf = findLeafPageOptimistically(tid, dirtypages, Permissions.READ_ONLY, f, false);
+			if (leaf != null) {
+				return leaf;
+			}
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_ONLY, f);
+	}
+
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
@@ -549,6 +673,16 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
+		// 叶子页还有空位时只锁叶子页，不用锁从根开始的路径
+		if(optimisticDescent) {
+			BTreeLeafPage leafPage = findLeafPageOptimistically(tid, dirtypages, Permissions.READ_WRITE,
+					t.getField(keyField), true);
+			if(leafPage != null) {
+				leafPage.insertTuple(t);
+				return new ArrayList<>(dirtypages.values());
+			}
+		}
+
 		// get a read lock on the root pointer page and use it to locate the root page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
@@ -556,14 +690,22 @@ public class BTreeFile implements DbFile {
 		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
 			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			beginStructureChange();
 			rootPtr.setRootId(rootId);
+			endStructureChange();
 		}
 
 		// find and lock the left-most leaf page corresponding to the key field,
 		// and split the leaf page if there are no more slots available
 		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			// 路径上的页已经加了写锁，分裂期间不加锁下降的读者会重试
+			beginStructureChange();
+			try {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			} finally {
+				endStructureChange();
+			}
 		}
 
 		// insert the tuple into the leaf page
@@ -1078,7 +1220,12 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+			beginStructureChange();
+			try {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			} finally {
+				endStructureChange();
+			}
 		}
 
         return new ArrayList<>(dirtypages.values());
@@ -1347,10 +1494,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = f.findLeafPage(tid, null);
 		it = curp.iterator();
 	}
 
@@ -1432,17 +1576,21 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, null);
+		}
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			// 从叶子页上第一个不小于该key的tuple开始
+			it = curp.iterator(ipred.getField());
+		}
+		else {
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
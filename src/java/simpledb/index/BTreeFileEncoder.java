@@ -336,6 +336,30 @@ public class BTreeFileEncoder {
 		return bf;
 	}
 
+	/**
+	 * Build the B+ tree file bottom-up from unsorted input, sorting it
+	 * externally in runs on several threads, and filling each page up to the
+	 * given fill factor. Unlike the convert methods, the tuples need not fit
+	 * in memory and are not written to a heap file first.
+	 *
+	 * @param inFile - the file containing the raw data
+	 * @param bFile - the data file for the BTreeFile
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each page to fill, in (0, 1]
+	 * @param threads - the number of threads sorting runs
+	 * @return the BTreeFile
+	 * @throws IOException
+	 * @see BTreeBulkBuilder
+	 */
+	public static BTreeFile bulkBuild(File inFile, File bFile, int npagebytes, Type[] typeAr,
+			char fieldSeparator, int keyField, double fillFactor, int threads) throws IOException {
+		return new BTreeBulkBuilder(npagebytes, typeAr, keyField, fillFactor, threads,
+				BTreeBulkBuilder.DEFAULT_RUN_TUPLES).build(inFile, fieldSeparator, bFile);
+	}
+
 	/**
 	 * Set all the right sibling pointers by following the left sibling pointers
 	 * 
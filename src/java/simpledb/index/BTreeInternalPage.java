@@ -30,6 +30,11 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	// 按顺序排列的已用key slot，用于二分查找；记录建立时的modCount，header改变后失效
+	private volatile SlotCache usedKeySlots;
+	// header每改变一次加一；不加锁的读者可能在修改到一半时建立缓存，靠它发现缓存已过期
+	private volatile int modCount;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -603,6 +608,49 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		modCount++;
+	}
+
+	private int[] usedKeySlots() {
+		SlotCache cache = usedKeySlots;
+		// 先读modCount再读header，之后header的任何改变都会使这个缓存失效
+		int mod = modCount;
+		if (cache != null && cache.modCount == mod)
+			return cache.slots;
+		int[] slots = SlotCache.usedSlots(this::isSlotUsed, 1, numSlots);
+		usedKeySlots = new SlotCache(mod, slots);
+		return slots;
+	}
+
+	/**
+	 * Finds the child page to search for the given key with a binary search
+	 * over the keys on this page. This is the left child of the first key
+	 * greater than or equal to f, or the right-most child if f is greater
+	 * than every key. Keys equal to f may also be in the subtree to the left
+	 * of an equal key, so this is the left-most child that may contain f.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page
+	 * @throws DbException if there are no entries on this page
+	 */
+	public BTreePageId findChild(Field f) throws DbException {
+		int[] slots = usedKeySlots();
+		if (slots.length == 0)
+			throw new DbException("findChild: internal page has no entries");
+		// 找第一个不小于f的key的位置
+		int lo = 0;
+		int hi = slots.length;
+		if (f != null) {
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (f.compare(Op.GREATER_THAN, keys[slots[mid]]))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		}
+		// 该key左边的子页就是前一个已用slot的子页，第一个key左边是slot 0
+		int child = (lo == 0 ? 0 : slots[lo - 1]);
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
 	}
 
 	/**
@@ -27,6 +27,11 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	// 按顺序排列的已用slot，用于二分查找；记录建立时的modCount，header改变后失效
+	private volatile SlotCache usedSlots;
+	// header每改变一次加一；不加锁的读者可能在修改到一半时建立缓存，靠它发现缓存已过期
+	private volatile int modCount;
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -476,6 +481,18 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		modCount++;
+	}
+
+	private int[] usedSlots() {
+		SlotCache cache = usedSlots;
+		// 先读modCount再读header，之后header的任何改变都会使这个缓存失效
+		int mod = modCount;
+		if (cache != null && cache.modCount == mod)
+			return cache.slots;
+		int[] slots = SlotCache.usedSlots(this::isSlotUsed, 0, numSlots);
+		usedSlots = new SlotCache(mod, slots);
+		return slots;
 	}
 
 	/**
@@ -486,6 +503,25 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose key is greater
+	 * than or equal to f, starting at the first one, which is found with a
+	 * binary search over the keys
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		int[] slots = usedSlots();
+		int lo = 0;
+		int hi = slots.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (f.compare(Predicate.Op.GREATER_THAN, tuples[slots[mid]].getField(keyField)))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return new BTreeLeafPageIterator(this, lo == slots.length ? numSlots : slots[lo]);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -532,6 +568,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
+		this.p = p;
+		this.curTuple = firstSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
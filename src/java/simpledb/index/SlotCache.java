@@ -0,0 +1,35 @@
+package simpledb.index;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * The used slots of a B+ tree page in order, for binary searches, together
+ * with the modification count of the page header they were read from. A page
+ * uses the cached slots only while its modification count is unchanged, so a
+ * cache built by a reader that saw a half-updated header (see
+ * {@link BTreeFile#setOptimisticDescent(boolean)}) is never used afterwards.
+ */
+class SlotCache {
+	final int modCount;
+	final int[] slots;
+
+	SlotCache(int modCount, int[] slots) {
+		this.modCount = modCount;
+		this.slots = slots;
+	}
+
+	/**
+	 * @return the slots in [from, to) for which used is true, in order
+	 */
+	static int[] usedSlots(IntPredicate used, int from, int to) {
+		// 不依赖页上记录的数量，header可能正在被修改
+		int[] slots = new int[to - from];
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			if (used.test(i))
+				slots[n++] = i;
+		}
+		return Arrays.copyOf(slots, n);
+	}
+}
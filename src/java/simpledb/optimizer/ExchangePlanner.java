@@ -0,0 +1,201 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a serial physical plan into one whose scans, joins and aggregates
+ * run as several parallel fragments connected by {@link Exchange} operators.
+ * <p>
+ * Large HeapFile scans are split into {@link MorselScan}s, one per fragment,
+ * and the Filters and Projects above them are copied into every fragment.
+ * A join of a partitioned input with a small (unpartitioned) one broadcasts
+ * the small side to every fragment; an equi-join of two partitioned inputs
+ * repartitions both on the join key. A grouped Aggregate over a partitioned
+ * input repartitions it on the group-by fields. Every other operator, and
+ * the root of the plan, reads the partitioned fragments through a
+ * {@link Gather}.
+ */
+public class ExchangePlanner {
+
+    private final int dop;
+
+    /**
+     * @param dop the number of parallel fragments (degree of parallelism)
+     */
+    public ExchangePlanner(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.dop = dop;
+    }
+
+    /**
+     * Rewrites plan for as many fragments as there are processors; on a single
+     * processor plan is returned unchanged.
+     */
+    public static OpIterator parallelize(OpIterator plan) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (processors < 2) {
+            return plan;
+        }
+        return new ExchangePlanner(processors).rewrite(plan);
+    }
+
+    /**
+     * @return a plan equivalent to plan (except for the order of unordered
+     *         results) with Exchanges inserted where they pay off
+     */
+    public OpIterator rewrite(OpIterator plan) {
+        List<OpIterator> parts = partition(plan);
+        if (parts != null) {
+            return new Gather(parts);
+        }
+        //已经自己并行执行的算子不再改写
+        if (!(plan instanceof Operator) || plan instanceof Exchange
+                || plan instanceof ParallelSeqScan || plan instanceof ParallelAggregate) {
+            return plan;
+        }
+        Operator op = (Operator) plan;
+        OpIterator[] children = op.getChildren();
+        OpIterator[] rewritten = new OpIterator[children.length];
+        boolean changed = false;
+        for (int i = 0; i < children.length; i++) {
+            //ParallelHashEquiJoin自己按页段并行扫描的一侧保持原样
+            if (plan instanceof ParallelHashEquiJoin && ParallelSeqScan.canParallelize(children[i])) {
+                rewritten[i] = children[i];
+                continue;
+            }
+            rewritten[i] = rewrite(children[i]);
+            changed |= rewritten[i] != children[i];
+        }
+        if (changed) {
+            op.setChildren(rewritten);
+        }
+        return op;
+    }
+
+    /**
+     * @return dop fragments that together produce the tuples of plan, or null
+     *         if plan is not worth (or not able to be) partitioned
+     */
+    private List<OpIterator> partition(OpIterator plan) {
+        if (plan instanceof MorselScan) {
+            return null;
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() < ParallelSeqScan.MIN_PARALLEL_PAGES) {
+                return null;
+            }
+            return new ArrayList<>(MorselScan.split(scan.getTransactionId(), scan.getTableId(),
+                    scan.getAlias(), scan.getColumns(), scan.getPredicates(), dop, ParallelSeqScan.DEFAULT_MORSEL_PAGES));
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            List<OpIterator> parts = partition(filter.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            List<OpIterator> result = new ArrayList<>(dop);
+            for (OpIterator part : parts) {
+                result.add(new Filter(filter.getPredicate(), part));
+            }
+            return result;
+        }
+        if (plan instanceof Project) {
+            Project project = (Project) plan;
+            List<OpIterator> parts = partition(project.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            Type[] types = new Type[project.getTupleDesc().numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = project.getTupleDesc().getFieldType(i);
+            }
+            List<OpIterator> result = new ArrayList<>(dop);
+            for (OpIterator part : parts) {
+                result.add(new Project(project.getOutFieldIds(), types, part));
+            }
+            return result;
+        }
+        if (plan instanceof Join) {
+            Join join = (Join) plan;
+            return partitionJoin(join.getJoinPredicate(), join.getChildren(), false);
+        }
+        if (plan.getClass() == HashEquiJoin.class) {
+            HashEquiJoin join = (HashEquiJoin) plan;
+            return partitionJoin(join.getJoinPredicate(), join.getChildren(), true);
+        }
+        if (plan.getClass() == Aggregate.class) {
+            Aggregate agg = (Aggregate) plan;
+            int[] gfields = agg.groupFields();
+            //不分组的聚合只有一个结果，留给Gather之后做
+            if (gfields.length == 0) {
+                return null;
+            }
+            List<OpIterator> parts = partition(agg.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            Repartition groups = Repartition.hash(parts, gfields, dop, false);
+            //各分片同时运行，平分原来的内存预算；0表示不限制
+            int budget = agg.maxGroupsInMemory() == 0 ? 0 : Math.max(1, agg.maxGroupsInMemory() / dop);
+            List<OpIterator> result = new ArrayList<>(dop);
+            for (int i = 0; i < dop; i++) {
+                result.add(new Aggregate(groups.consumer(i), agg.aggregateFields(), gfields, agg.aggregateOps(),
+                        budget));
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private List<OpIterator> partitionJoin(JoinPredicate p, OpIterator[] children, boolean hash) {
+        List<OpIterator> outer = partition(children[0]);
+        List<OpIterator> inner = partition(children[1]);
+        if (outer == null && inner == null) {
+            return null;
+        }
+        List<OpIterator> left = new ArrayList<>(dop);
+        List<OpIterator> right = new ArrayList<>(dop);
+        if (p.getOperator() == Predicate.Op.EQUALS && (inner != null || outer == null)) {
+            //两边按连接列重新分区，相等的键落在同一个分片
+            Repartition l = Repartition.hash(outer != null ? outer : single(rewrite(children[0])),
+                    new int[]{p.getField1()}, dop, false);
+            Repartition r = Repartition.hash(inner != null ? inner : single(rewrite(children[1])),
+                    new int[]{p.getField2()}, dop, true);
+            for (int i = 0; i < dop; i++) {
+                left.add(l.consumer(i));
+                right.add(r.consumer(i));
+            }
+        } else if (outer != null) {
+            //内表整个发给每个分片；内表会被rewind，所以只能是广播的一侧
+            Repartition r = Repartition.broadcast(inner != null ? inner : single(rewrite(children[1])), dop);
+            for (int i = 0; i < dop; i++) {
+                left.add(outer.get(i));
+                right.add(r.consumer(i));
+            }
+        } else {
+            return null;
+        }
+        List<OpIterator> result = new ArrayList<>(dop);
+        for (int i = 0; i < dop; i++) {
+            result.add(hash ? new HashEquiJoin(p, left.get(i), right.get(i)) : new Join(p, left.get(i), right.get(i)));
+        }
+        return result;
+    }
+
+    private static List<OpIterator> single(OpIterator plan) {
+        List<OpIterator> list = new ArrayList<>(1);
+        list.add(plan);
+        return list;
+    }
+}
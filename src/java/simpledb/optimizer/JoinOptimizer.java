@@ -73,7 +73,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.p == Predicate.Op.EQUALS && ParallelHashEquiJoin.shouldParallelize(plan1, plan2)) {
+            //一侧是大表扫描时，由多个线程并行建表和探测
+            j = new ParallelHashEquiJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -291,6 +294,10 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
         int numJoinNodes = this.joins.size();
+        //单表查询没有需要排序的join
+        if (numJoinNodes == 0) {
+            return this.joins;
+        }
         PlanCache planCache = new PlanCache();
 
         for (int i = 1; i <= numJoinNodes; i++) {
@@ -16,8 +16,8 @@ import java.io.File;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * LogicalPlans can represent queries with any number of aggregates
+ * and group by fields; they are all computed by a single Aggregate.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -32,12 +32,14 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private final List<String> aggOps;
+    private final List<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private boolean hasLimit = false;
+    private int limit;
     private String query;
 //    private Query owner;
 
@@ -50,6 +52,9 @@ public class LogicalPlan {
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
+        groupByFields = new ArrayList<>();
+        aggOps = new ArrayList<>();
+        aggFields = new ArrayList<>();
         this.query = "";
     }
 
@@ -189,23 +194,49 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All aggregates of a
+        query are computed together, grouped by every field added with
+        {@link #addGroupByField}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
+        if (afield.equals("*")) {
+            //COUNT(*)，与addProjectField中的命名保持一致
+            if (getAggOp(op) != Aggregator.Op.COUNT)
+                throw new ParsingException(op + "(*) is not supported");
+            afield="null.*";
+        }
+        aggOps.add(op);
+        aggFields.add(afield);
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query.  Adding the same field twice has no
+        effect.
+        @param gfield the field to group by
+     * @throws ParsingException
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +250,18 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause to the query, so that at most n tuples are returned.
+        Combined with an ORDER BY this is planned as a {@link TopN} instead of a full sort.
+        @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+        hasLimit = true;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -261,6 +304,17 @@ public class LogicalPlan {
 
     }
 
+    /** Return the position of the aggregate op(fname) among the aggregates of
+        the plan, or -1 if it was not added.
+     */
+    private int indexOfAggregate(String op, String fname) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equals(op) && aggFields.get(i).equals(fname))
+                return i;
+        }
+        return -1;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -274,6 +328,75 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return the qualified names of all fields the query reads, or null if it
+     *         selects every field
+     */
+    private Set<String> referencedFields() {
+        Set<String> fields = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*")) {
+                return null;
+            }
+            fields.add(si.fname);
+        }
+        fields.addAll(aggFields);
+        fields.addAll(groupByFields);
+        if (hasOrderBy) {
+            fields.add(oByField);
+        }
+        for (LogicalFilterNode lf : filters) {
+            //下推到扫描的条件在页的字节上检查，不需要扫描返回这一列
+            if (!pushesFilters(lf.tableAlias)) {
+                fields.add(lf.fieldQuantifiedName);
+            }
+        }
+        for (LogicalJoinNode lj : joins) {
+            fields.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                fields.add(lj.f2QuantifiedName);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return true if the filters on the table scanned as alias are tested by
+     *         its SeqScan rather than by Filter operators above it
+     */
+    private boolean pushesFilters(String alias) {
+        Integer id = getTableId(alias);
+        return id != null && Database.getCatalog().getDatabaseFile(id) instanceof HeapFile;
+    }
+
+    /**
+     * @return the indexes of the columns of the table scanned as alias that
+     *         are in referenced, or null if the scan needs all of them
+     */
+    private static int[] pushedColumns(String alias, TupleDesc td, Set<String> referenced) {
+        if (referenced == null) {
+            return null;
+        }
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (referenced.contains(alias + "." + td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        if (columns.size() == td.numFields()) {
+            return null;
+        }
+        //例如只有COUNT(*)，至少保留一列
+        if (columns.isEmpty()) {
+            columns.add(0);
+        }
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = columns.get(i);
+        }
+        return result;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -293,11 +416,15 @@ public class LogicalPlan {
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
 
+        Set<String> referenced = referencedFields();
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 //只扫描查询用到的列，其余列不从页中解析
+                 ss = new SeqScan(t, file.getId(), table.alias,
+                         pushedColumns(table.alias, file.getTupleDesc(), referenced));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -309,6 +436,7 @@ public class LogicalPlan {
 
         }
 
+        Map<String,List<Predicate>> pushedFilters = new HashMap<>();
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -317,10 +445,13 @@ public class LogicalPlan {
 
             Field f;
             Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            //扫描可能只含部分列，按表中的列号找
+            TupleDesc td = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            int column;
 
             try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+                column = td.fieldNameToIndex(lf.fieldPureName);
+                ftyp = td.getFieldType(column);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
@@ -329,21 +460,34 @@ public class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            if (pushesFilters(lf.tableAlias)) {
+                pushedFilters.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>())
+                        .add(new Predicate(column, lf.p, f));
+            } else {
+                Predicate p = null;
+                try {
+                    p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+                }
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //统计信息按表中的列号索引
+            double sel = s.estimateSelectivity(column, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        //HeapFile上的过滤条件交给SeqScan在页的字节上检查，不满足的tuple不会被解析
+        for (Map.Entry<String,List<Predicate>> e : pushedFilters.entrySet()) {
+            SeqScan ss = (SeqScan) subplanMap.get(e.getKey());
+            subplanMap.put(e.getKey(), new SeqScan(t, ss.getTableId(), e.getKey(), ss.getColumns(),
+                    e.getValue().toArray(new Predicate[0])));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -413,28 +557,35 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                //聚合的输出中先是全部分组列，然后按addAggregate的顺序排列各个聚合列
+                int aggIndex = indexOfAggregate(si.aggOp, si.fname);
+                if (aggIndex == -1) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + aggIndex);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gbIndex = groupByFields.indexOf(si.fname);
+                    if (gbIndex == -1) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gbIndex);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,10 +612,33 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    //COUNT(*)计数任意一列都一样，取第0列
+                    afields[i] = aggFields.get(i).equals("null.*") ? 0 : td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                }
+                if (gfields.length == 1 && SortedAggregate.isOrderedOn(node, gfields[0])) {
+                    //输入已按分组列有序，逐组流式聚合，不需要哈希表
+                    aggNode = new SortedAggregate(node, afields, gfields, aops);
+                } else if (afields.length > 1 || gfields.length > 1) {
+                    //多个聚合或多个分组列，在一遍扫描中一起计算
+                    aggNode = new Aggregate(node, afields, gfields, aops, SpillingAggregator.DEFAULT_MAX_GROUPS);
+                } else {
+                    int gfield = gfields.length == 0?Aggregator.NO_GROUPING:gfields[0];
+                    //大表上直接扫描的聚合分给多个线程做
+                    if (ParallelAggregate.shouldParallelize(node))
+                        aggNode = new ParallelAggregate(node, afields[0], gfield, aops[0],
+                                    Runtime.getRuntime().availableProcessors(), SpillingAggregator.DEFAULT_MAX_GROUPS);
+                    else
+                        aggNode = new Aggregate(node, afields[0], gfield,
+                                    aops[0], SpillingAggregator.DEFAULT_MAX_GROUPS);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,10 +646,21 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (hasLimit)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (hasLimit) {
+            node = new Limit(limit, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        //只有扫描、过滤和投影的大表查询，交给多个线程按页段并行执行
+        if (ParallelSeqScan.shouldParallelize(project))
+            return new ParallelSeqScan(project);
+        //其他用到大表的查询，在扫描、连接和聚合之间插入Exchange分给多个线程执行
+        return ExchangePlanner.parallelize(project);
     }
 
     public static void main(String[] argv) {
@@ -44,16 +44,31 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    /**
+     * @return the estimated number of tuples returned by scan, which are
+     *         only those that satisfy the predicates pushed into it
+     */
+    private static int scanCardinality(SeqScan scan, Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(scan.getTableName());
+        double selectivity = 1.0;
+        for (Predicate p : scan.getPredicates()) {
+            selectivity *= stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        return stats.estimateTableCardinality(selectivity);
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -80,9 +95,7 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality((SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -123,8 +136,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,8 +147,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -178,8 +189,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,8 +200,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -220,28 +229,30 @@ public class OperatorCardinality {
         }
 
         if (child instanceof SeqScan) {
-            childCard = tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0);
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        //多个分组列时，分组数估计为各列不同值个数之积，且不超过child的基数
+        double numGroups = 1.0;
+        int numGroupFields = a.groupFields().length;
+        for (int i = 0; i < numGroupFields; i++) {
+            String[] tmp = a.getTupleDesc().getFieldName(i).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            numGroups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, numGroups)));
         return hasJoinPK;
     }
 }
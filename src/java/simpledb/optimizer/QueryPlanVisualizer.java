@@ -4,6 +4,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -18,6 +19,8 @@ public class QueryPlanVisualizer {
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
+    static final String PARALLEL = "parallel";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -78,6 +81,20 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            //下推到扫描中的过滤条件
+            Predicate[] predicates = s.getPredicates();
+            if (predicates.length > 0) {
+                TupleDesc tableTd = Database.getCatalog().getTupleDesc(s.getTableId());
+                StringBuilder sb = new StringBuilder();
+                for (Predicate p : predicates) {
+                    if (sb.length() > 0) {
+                        sb.append(",");
+                    }
+                    sb.append(s.getAlias()).append(".").append(tableTd.getFieldName(p.getField()))
+                            .append(p.getOp()).append(p.getOperand());
+                }
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, sb);
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -173,15 +190,28 @@ public class QueryPlanVisualizer {
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
+                int numGroupFields = a.groupFields().length;
+                Aggregator.Op[] aops = a.aggregateOps();
+                StringBuilder aggTxt = new StringBuilder();
+                for (int i = 0; i < aops.length; i++) {
+                    if (i > 0)
+                        aggTxt.append(",");
+                    aggTxt.append(aops[i]).append("(").append(td.getFieldName(numGroupFields + i)).append(")");
+                }
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggTxt, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    StringBuilder groupTxt = new StringBuilder();
+                    for (int i = 0; i < numGroupFields; i++) {
+                        if (i > 0)
+                            groupTxt.append(",");
+                        groupTxt.append(td.getFieldName(i));
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groupTxt, aggTxt, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -240,6 +270,51 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String txt;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    txt = String.format("%1$s(%2$s),%3$s %4$d,card:%5$d", ORDERBY,
+                            children[0].getTupleDesc().getFieldName(o.getOrderByField()),
+                            LIMIT, o.getLimit(), o.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    txt = String.format("%1$s %2$d,card:%3$d", LIMIT, l.getLimit(),
+                            l.getEstimatedCardinality());
+                }
+                thisNode.text = txt;
+                int upBarShift = parentUpperBarStartShift;
+                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = ORDERBY.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - ORDERBY.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof ParallelSeqScan) {
+                ParallelSeqScan ps = (ParallelSeqScan) plan;
+                thisNode.text = String.format("%1$s(%2$d),card:%3$d", PARALLEL,
+                        ps.getNumWorkers(), ps.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (PARALLEL.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = PARALLEL.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - PARALLEL.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
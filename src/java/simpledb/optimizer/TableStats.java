@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -115,8 +116,15 @@ public class TableStats {
         SeqScan seqScan = new SeqScan(tid, tableid, "");
 
         this.nfields = seqScan.getTupleDesc().numFields();
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.npages = heapFile.numPages();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        //ColumnFile的页数是所有列的页数之和，即扫描全部列时读的页数
+        if (file instanceof ColumnFile) {
+            this.npages = ((ColumnFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            this.npages = ((BTreeFile) file).numPages();
+        } else {
+            this.npages = ((HeapFile) file).numPages();
+        }
         /**
          * 获取每个filed的最大值，构成一个数组
          */
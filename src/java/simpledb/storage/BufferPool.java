@@ -3,6 +3,8 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
 import simpledb.storage.cache.BufferCache;
 import simpledb.storage.cache.PageLruCache;
 import simpledb.storage.lock.LockManager;
@@ -59,6 +61,9 @@ public class BufferPool {
     //锁管理器
     private final LockManager lockManager;
 
+    //各事务在缓冲池之外修改过的文件(批量追加的页、空闲空间表)，事务结束时由这些文件提交或撤销
+    private final Map<TransactionId, Set<HeapFile>> fileChanges = new HashMap<>();
+
     //事务获取不到锁时需要等待，由于实际用的是sleep来体现等待，此处参数是sleep的时间
     private final long SLEEP_INTERVAL;
 
@@ -119,33 +124,38 @@ public class BufferPool {
         // some code goes here
         //if it is present
 
-        boolean result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
-                : lockManager.grantXLock(tid, pid);
-        //下面的while循环就是在模拟等待过程，隔一段时间就检查一次是否申请到锁了，还没申请到就检查是否陷入死锁
-        while (!result) {
-            if (lockManager.deadlockOccurred(tid, pid)) {
-                throw new TransactionAbortedException();
-            }
-            try {
-                Thread.sleep(SLEEP_INTERVAL);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            //sleep之后再次判断result
-            result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
-                    : lockManager.grantXLock(tid, pid);
-        }
+        lockPage(tid, pid, perm);
+        return readPage(pid);
+    }
 
-        HeapPage page = (HeapPage) bufferPool.get(pid);
+    /**
+     * Retrieve the specified page without acquiring a lock, reading it into
+     * the buffer pool if it is not cached. Callers must check that what they
+     * read is still valid, as another transaction may be changing the page;
+     * see {@link BTreeFile#setOptimisticDescent(boolean)}.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page readPage(PageId pid) throws DbException {
+        Page page = bufferPool.get(pid);
         if (page!=null){
             //緩存 命中
             return page;
         }
 
-        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-        HeapPage newPage = (HeapPage) table.readPage(pid);
+        DbFile table = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page newPage = table.readPage(pid);
         //addNewPage(pid, newPage);
-        Page removedPage = bufferPool.put(pid, newPage);
+        //不加锁的读者可能和持有锁的事务同时未命中，检查和放入必须是原子的，
+        //否则会用磁盘上的旧版本覆盖另一个线程已经放入(可能已经修改)的页
+        Page removedPage;
+        synchronized (bufferPool) {
+            page = bufferPool.get(pid);
+            if (page != null) {
+                return page;
+            }
+            removedPage = bufferPool.put(pid, newPage);
+        }
         if (removedPage != null) {
             try {
                 flushPage(removedPage);
@@ -154,7 +164,35 @@ public class BufferPool {
             }
         }
         return newPage;
+    }
 
+    /**
+     * Acquires a lock on a page without reading the page. Will block until the
+     * lock is granted, like {@link #getPage}.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        boolean result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
+                : lockManager.grantXLock(tid, pid);
+        //下面的while循环就是在模拟等待过程，隔一段时间就检查一次是否申请到锁了，还没申请到就检查是否陷入死锁
+        while (!result) {
+            if (lockManager.deadlockOccurred(tid, pid)) {
+                throw new TransactionAbortedException();
+            }
+            try {
+                Thread.sleep(SLEEP_INTERVAL);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            //sleep之后再次判断result
+            result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
+                    : lockManager.grantXLock(tid, pid);
+        }
     }
 
     /**
@@ -206,12 +244,55 @@ public class BufferPool {
     public synchronized void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        lockManager.releaseTransactionLocks(tid);
+        //批量追加的页要在释放锁之前提交或撤销，其他事务才看不到未提交的页
+        Set<HeapFile> changed = fileChanges.remove(tid);
+        IOException failure = null;
+        if (changed != null && commit) {
+            //批量追加的页不写日志，强制刷盘是它们唯一的持久性保证；刷不下去整个事务改为回滚
+            for (HeapFile file : changed) {
+                try {
+                    file.forceBulkLoad(tid);
+                } catch (IOException e) {
+                    failure = e;
+                    commit = false;
+                    break;
+                }
+            }
+        }
+        if (changed != null) {
+            for (HeapFile file : changed) {
+                try {
+                    file.completeTransaction(tid, commit);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        //先写回或撤销页再释放锁，其他事务拿到锁后不会读到未提交的页
         if (commit) {
             flushPages(tid);
         } else {
             revertTransactionAction(tid);
         }
+        lockManager.releaseTransactionLocks(tid);
+        if (failure != null) {
+            throw new RuntimeException("failed to complete the bulk loads of " + tid
+                    + (commit ? "" : "; the transaction was rolled back"), failure);
+        }
+    }
+
+    /**
+     * Records that tid changed file outside the buffer pool, by appending
+     * pages with a {@link BulkLoader} or by marking pages full in its
+     * {@link FreeSpaceMap}, so that the changes are made durable or undone
+     * when tid completes.
+     */
+    synchronized void registerFileChanges(TransactionId tid, HeapFile file) {
+        fileChanges.computeIfAbsent(tid, k -> new HashSet<>()).add(file);
     }
 
     /**
@@ -220,12 +301,27 @@ public class BufferPool {
      * @param tid
      */
     public synchronized void revertTransactionAction(TransactionId tid) {
+        //撤销B+树的分裂或合并时，不加锁下降的读者要能发现树的结构变了
+        Set<BTreeFile> restructured = new HashSet<>();
         Iterator<Page> it = bufferPool.iterator();
         while (it.hasNext()) {
             Page p = it.next();
-            if (p.isDirty() != null && p.isDirty().equals(tid)) {
-                bufferPool.reCachePage(p.getId());
+            if (tid.equals(p.isDirty()) && p.getId() instanceof BTreePageId
+                    && ((BTreePageId) p.getId()).pgcateg() != BTreePageId.LEAF) {
+                restructured.add((BTreeFile) Database.getCatalog().getDatabaseFile(p.getId().getTableId()));
+            }
+        }
+        restructured.forEach(BTreeFile::beginStructureChange);
+        try {
+            it = bufferPool.iterator();
+            while (it.hasNext()) {
+                Page p = it.next();
+                if (p.isDirty() != null && p.isDirty().equals(tid)) {
+                    bufferPool.reCachePage(p.getId());
+                }
             }
+        } finally {
+            restructured.forEach(BTreeFile::endStructureChange);
         }
     }
     /**
@@ -321,7 +417,10 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         //bufferPool.removePage(pid);
-        bufferPool.removePage(pid);
+        //不在缓存中的page不需要丢弃
+        if (bufferPool.isCached(pid)) {
+            bufferPool.removePage(pid);
+        }
     }
 
     /**
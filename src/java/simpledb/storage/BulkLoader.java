@@ -0,0 +1,115 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+/**
+ * BulkLoader appends tuples to a HeapFile without going through the
+ * BufferPool. Tuples are packed into new pages in memory; every
+ * {@link #BATCH_PAGES} pages are written at the end of the file in one
+ * sequential write. Existing pages, and the free space on them, are not
+ * touched.
+ * <p>
+ * The pages are reserved in batches at the end of the file, and the loading
+ * transaction holds exclusive locks on them, so other transactions do not see
+ * the tuples until it commits. Nothing is logged per tuple: when the
+ * transaction commits the file is forced to disk, and when it aborts the
+ * appended pages are emptied again, see {@link HeapFile#completeBulkLoad}. If
+ * the force fails, the transaction is rolled back and the commit throws.
+ * <p>
+ * Because the pages are not logged, recovery cannot undo them: if the system
+ * crashes during a load, the pages written so far stay in the file with their
+ * uncommitted tuples. Bulk load only into tables that can be reloaded from
+ * scratch after a crash.
+ * <p>
+ * Tuples get their RecordIds as they are added. Call {@link #finish} after the
+ * last tuple to write the last, partly filled batch.
+ */
+public class BulkLoader {
+
+    /** The number of pages reserved and written at a time. */
+    public static final int BATCH_PAGES = 256;
+
+    private final HeapFile file;
+    private final TransactionId tid;
+    private final int pageSize = BufferPool.getPageSize();
+
+    //当前批的字节，已写满的页依次放在前面
+    private final byte[] batch = new byte[BATCH_PAGES * pageSize];
+    //当前批第一页的页号，-1表示还没有预留
+    private int batchStart = -1;
+    private int batchPages;
+    //正在填的页
+    private HeapPage page;
+    private int count;
+
+    BulkLoader(HeapFile file, TransactionId tid) {
+        this.file = file;
+        this.tid = tid;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws DbException if the tuple does not fit on an empty page, or its
+     *                     TupleDesc does not match the file's
+     */
+    public void add(Tuple t) throws DbException, IOException, TransactionAbortedException {
+        if (page != null && !page.hasRoomFor(t)) {
+            closePage();
+        }
+        if (page == null) {
+            if (batchStart < 0) {
+                batchStart = file.reservePages(tid, BATCH_PAGES);
+            }
+            page = file.emptyPage(batchStart + batchPages);
+            if (!page.hasRoomFor(t)) {
+                throw new DbException("BulkLoader: tuple does not fit on an empty page");
+            }
+        }
+        page.insertTuple(t);
+        count++;
+    }
+
+    //把写满的页放进当前批，批满了就写到文件里
+    private void closePage() throws IOException {
+        System.arraycopy(page.getPageData(), 0, batch, batchPages * pageSize, pageSize);
+        batchPages++;
+        page = null;
+        if (batchPages == BATCH_PAGES) {
+            file.writePages(batchStart, batch, batchPages * pageSize);
+            batchStart = -1;
+            batchPages = 0;
+        }
+    }
+
+    /**
+     * Writes the pages not yet written, and gives back the reserved pages
+     * that were not needed if no other transaction appended pages after them.
+     *
+     * @return the number of tuples added
+     */
+    public int finish() throws IOException {
+        boolean partial = page != null;
+        if (partial) {
+            System.arraycopy(page.getPageData(), 0, batch, batchPages * pageSize, pageSize);
+            batchPages++;
+            page = null;
+        }
+        if (batchPages > 0) {
+            file.writePages(batchStart, batch, batchPages * pageSize);
+        }
+        if (partial) {
+            file.markHasRoom(batchStart + batchPages - 1);
+        }
+        if (batchStart >= 0) {
+            file.releasePages(tid, batchStart + batchPages, batchStart + BATCH_PAGES);
+        }
+        batchStart = -1;
+        batchPages = 0;
+        return count;
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * A {@link Predicate} prepared for the layout of the tuples of a page, so that
+ * it can be tested directly on the bytes of a tuple as they were read from
+ * disk, without decoding the tuple's fields. Tuples whose bytes are not
+ * available (inserted or changed since the page was read) are tested with
+ * {@link Predicate#filter}.
+ */
+final class BytePredicate {
+
+    private final Predicate predicate;
+    private final Predicate.Op op;
+    private final Type type;
+    private final int fieldOffset;
+    //INT列比较的值
+    private final int intValue;
+    //STRING列比较的值按writeBytes写出的字节，不全是ASCII时为null，此时解码后再比较
+    private final byte[] bytes;
+
+    /**
+     * @param predicate    a predicate on the tuples of a page
+     * @param td           the schema of those tuples
+     * @param fieldOffsets the offset of every field from the start of a tuple,
+     *                     see {@link LazyTuple#fieldOffsets(TupleDesc)}
+     */
+    BytePredicate(Predicate predicate, TupleDesc td, int[] fieldOffsets) {
+        this.predicate = predicate;
+        this.op = predicate.getOp();
+        this.type = td.getFieldType(predicate.getField());
+        this.fieldOffset = fieldOffsets[predicate.getField()];
+        Field operand = predicate.getOperand();
+        if (type == Type.INT_TYPE) {
+            this.intValue = ((IntField) operand).getValue();
+            this.bytes = null;
+        } else {
+            this.intValue = 0;
+            this.bytes = asciiBytes(((StringField) operand).getValue());
+        }
+    }
+
+    private static byte[] asciiBytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return null;
+            }
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+    /**
+     * @return true if t, a tuple of the page, satisfies the predicate
+     */
+    boolean matches(Tuple t) {
+        if (t instanceof LazyTuple) {
+            LazyTuple lt = (LazyTuple) t;
+            byte[] data = lt.rawData();
+            if (data != null) {
+                return matches(data, lt.rawOffset());
+            }
+        }
+        return predicate.filter(t);
+    }
+
+    private boolean matches(byte[] data, int tupleOffset) {
+        int pos = tupleOffset + fieldOffset;
+        if (type == Type.INT_TYPE) {
+            return test(Integer.compare(Type.readInt(data, pos), intValue));
+        }
+        if (bytes == null) {
+            return type.parse(data, pos).compare(op, predicate.getOperand());
+        }
+        int len = Math.min(Type.readInt(data, pos), Type.STRING_LEN);
+        //解码出的字符串里，ASCII字符与字节一一对应，其余字符都大于0x7f，
+        //所以和ASCII的值按无符号字节比较，结果与String.compareTo一致
+        if (op == Predicate.Op.LIKE) {
+            return contains(data, pos + 4, len);
+        }
+        return test(compare(data, pos + 4, len));
+    }
+
+    private int compare(byte[] data, int start, int len) {
+        int n = Math.min(len, bytes.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (data[start + i] & 0xff) - bytes[i];
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return len - bytes.length;
+    }
+
+    private boolean contains(byte[] data, int start, int len) {
+        outer:
+        for (int i = 0; i + bytes.length <= len; i++) {
+            for (int j = 0; j < bytes.length; j++) {
+                if (data[start + i + j] != bytes[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean test(int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in a file of its
+ * own, so a scan of a few columns reads only the pages of those columns. The
+ * file of column i is the file the table was created with plus the suffix
+ * ".i"; it is a sequence of {@link ColumnPage}s holding the values of that
+ * column in row order.
+ * <p>
+ * Row r of the table is stored at the same position, r, in every column. A
+ * row is in use exactly when its slot is used in every column, so deleting a
+ * tuple clears its slot in all columns. New tuples go into the first free row
+ * of the last page of column 0, or into a new row after it, so deleted rows in
+ * earlier pages are not reused. The RecordId of a tuple is the page and slot
+ * of its row in column 0.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc tupleDesc;
+
+    /**
+     * Constructs a column file whose columns are stored next to f.
+     *
+     * @param f  the file whose name, plus the column number, names the file of
+     *           each column; f itself is not used
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.tupleDesc = td;
+    }
+
+    /**
+     * Returns the File this ColumnFile was created with.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the file that stores the values of the given column.
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + "." + column);
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the number of pages in the file of the given column.
+     */
+    public int numPages(int column) {
+        return (int) (getColumnFile(column).length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in the files of all columns.
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            pages += numPages(i);
+        }
+        return pages;
+    }
+
+    private int rowsPerPage(int column) {
+        return ColumnPage.numSlots(tupleDesc.getFieldType(column));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId id = (ColumnPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(getColumnFile(id.getColumn()), "r")) {
+            raf.seek((long) id.getPageNumber() * data.length);
+            raf.readFully(data);
+            return new ColumnPage(id, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("ColumnFile: readPage: cannot read " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId id = (ColumnPageId) page.getId();
+        try (RandomAccessFile raf = new RandomAccessFile(getColumnFile(id.getColumn()), "rw")) {
+            raf.seek((long) id.getPageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+    }
+
+    private ColumnPage getPage(TransactionId tid, int column, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid, new ColumnPageId(getId(), column, pgNo), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!tupleDesc.equals(t.getTupleDesc())) {
+            throw new DbException("ColumnFile: insertTuple: tupledesc is mismatch");
+        }
+        //在第0列最后一页找空行，没有的话新开一行
+        int perPage = rowsPerPage(0);
+        int lastPage = numPages(0) - 1;
+        int row = (lastPage + 1) * perPage;
+        if (lastPage >= 0) {
+            int slot = getPage(tid, 0, lastPage, Permissions.READ_WRITE).firstEmptySlot();
+            if (slot >= 0) {
+                row = lastPage * perPage + slot;
+            }
+        }
+
+        List<Page> affected = new ArrayList<>(tupleDesc.numFields());
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            int pgNo = row / rowsPerPage(i);
+            if (pgNo >= numPages(i)) {
+                //先把空白页写入磁盘，再通过BufferPool访问
+                ColumnPageId pid = new ColumnPageId(getId(), i, pgNo);
+                writePage(new ColumnPage(pid, new byte[BufferPool.getPageSize()]));
+            }
+            ColumnPage page = getPage(tid, i, pgNo, Permissions.READ_WRITE);
+            page.setField(row % rowsPerPage(i), t.getField(i));
+            page.markDirty(true, tid);
+            affected.add(page);
+        }
+        t.setRecordId(new RecordId(new ColumnPageId(getId(), 0, row / perPage), row % perPage));
+        return affected;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId()
+                || ((ColumnPageId) rid.getPageId()).getColumn() != 0) {
+            throw new DbException("ColumnFile: deleteTuple: tuple is not in this file");
+        }
+        int row = rid.getPageId().getPageNumber() * rowsPerPage(0) + rid.getTupleNumber();
+        if (rid.getPageId().getPageNumber() >= numPages(0)
+                || !getPage(tid, 0, rid.getPageId().getPageNumber(), Permissions.READ_WRITE)
+                        .isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("ColumnFile: deleteTuple: tuple slot is empty");
+        }
+        List<Page> affected = new ArrayList<>(tupleDesc.numFields());
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            ColumnPage page = getPage(tid, i, row / rowsPerPage(i), Permissions.READ_WRITE);
+            page.clearSlot(row % rowsPerPage(i));
+            page.markDirty(true, tid);
+            affected.add(page);
+        }
+        return affected;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over only some of the columns of this file. Only
+     * the pages of those columns are read.
+     *
+     * @param tid     the transaction the iterator runs as a part of
+     * @param columns the indexes of the columns to return, in order, or null
+     *                for all of them
+     * @return an iterator whose tuples hold the given columns of each tuple of
+     *         this file, with their RecordIds
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(tid, columns == null ? null : columns.clone());
+    }
+
+    private class ColumnFileIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        //要返回的列，以及返回的tuple的TupleDesc
+        private final int[] columns;
+        private final TupleDesc td;
+        //每列每页的行数
+        private final int[] perPage;
+
+        //每个要返回的列当前所在的页，按行号顺序依次向后读
+        private ColumnPage[] pages;
+        private int[] pageNumbers;
+        //下一个要检查的行，为-1时表示没有打开
+        private int row = -1;
+        private int numRows;
+        private boolean found;
+
+        private ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            if (columns == null) {
+                columns = new int[tupleDesc.numFields()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = i;
+                }
+                this.td = tupleDesc;
+            } else {
+                Type[] types = new Type[columns.length];
+                String[] names = new String[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    types[i] = tupleDesc.getFieldType(columns[i]);
+                    names[i] = tupleDesc.getFieldName(columns[i]);
+                }
+                this.td = new TupleDesc(types, names);
+            }
+            this.columns = columns;
+            this.perPage = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                perPage[i] = rowsPerPage(columns[i]);
+            }
+        }
+
+        private ColumnPage page(int k, int pgNo) throws TransactionAbortedException, DbException {
+            if (pageNumbers[k] != pgNo) {
+                pages[k] = getPage(tid, columns[k], pgNo, Permissions.READ_ONLY);
+                pageNumbers[k] = pgNo;
+            }
+            return pages[k];
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            pages = new ColumnPage[columns.length];
+            pageNumbers = new int[columns.length];
+            Arrays.fill(pageNumbers, -1);
+            row = 0;
+            found = false;
+            //用第一个要返回的列判断哪些行在使用
+            numRows = numPages(columns[0]) * perPage[0];
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (row < 0) {
+                return false;
+            }
+            while (!found && row < numRows) {
+                if (page(0, row / perPage[0]).isSlotUsed(row % perPage[0])) {
+                    found = true;
+                } else {
+                    row++;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("ColumnFileIterator: no more tuples");
+            }
+            Tuple t = new Tuple(td);
+            for (int k = 0; k < columns.length; k++) {
+                t.setField(k, page(k, row / perPage[k]).getField(row % perPage[k]));
+            }
+            int perPage0 = rowsPerPage(0);
+            t.setRecordId(new RecordId(new ColumnPageId(getId(), 0, row / perPage0), row % perPage0));
+            row++;
+            found = false;
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            pages = null;
+            pageNumbers = null;
+            row = -1;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a {@link ColumnFile}: the values of one column for a range of
+ * consecutive rows. Like a {@link HeapPage} with a single field, a page is a
+ * bitmap of the slots in use followed by one fixed-size slot per value. Row r
+ * of the table is in slot r % {@link #numSlots(Type)} of page
+ * r / {@link #numSlots(Type)} of its column.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int numSlots;
+    private final byte[] header;
+    private final Field[] values;
+
+    private TransactionId lastDirtyOperation;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk: a
+     * header bitmap of ceiling(numSlots / 8) bytes, then numSlots values of
+     * the type of the column.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.numSlots = numSlots(type);
+        this.header = new byte[(numSlots + 7) / 8];
+        this.values = new Field[numSlots];
+        System.arraycopy(data, 0, header, 0, header.length);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                values[i] = type.parse(data, header.length + i * type.getLen());
+            }
+        }
+        //data不会再被修改，直接作为修改前的内容
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * @return the number of values of the given type that fit on a page
+     */
+    public static int numSlots(Type type) {
+        return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return lastDirtyOperation;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastDirtyOperation = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                buf.position(header.length + i * type.getLen());
+                type.write(values[i], buf);
+            }
+        }
+        return out;
+    }
+
+    public ColumnPage getBeforeImage() {
+        try {
+            synchronized (oldDataLock) {
+                return new ColumnPage(pid, oldData);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the number of value slots of this page
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if slot i of this page holds a value.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return the first slot of this page that holds no value, or -1 if the
+     *         page is full
+     */
+    public int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value in slot i, or null if the slot is empty
+     */
+    public Field getField(int i) {
+        return isSlotUsed(i) ? values[i] : null;
+    }
+
+    /**
+     * Stores f in slot i and marks the slot used.
+     */
+    public void setField(int i, Field f) {
+        if (f.getType() != type) {
+            throw new IllegalArgumentException("expected a value of type " + type + " but got " + f.getType());
+        }
+        values[i] = f;
+        header[i / 8] |= (byte) (1 << (i % 8));
+    }
+
+    /**
+     * Marks slot i empty.
+     */
+    public void clearSlot(int i) {
+        values[i] = null;
+        header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a ColumnFile. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column  The column of the table whose values the page holds
+     * @param pgNo    The page number in the file of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table whose values the page holds */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the file of column getColumn() associated
+     *   with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, column, pgNo);
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ColumnPageId)) {
+            return false;
+        }
+        ColumnPageId another = (ColumnPageId) o;
+        return tableId == another.tableId && column == another.column && pgNo == another.pgNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,436 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A HeapPage that stores every string of the page once, in a dictionary at
+ * the end of the page, and replaces the string fields of its tuples by two
+ * byte codes into that dictionary. Tables whose string columns have few
+ * distinct values fit many more tuples on a page than with the fixed-size
+ * slots of {@link HeapPage}.
+ * <p>
+ * The format of a page is:
+ * <ul>
+ * <li>the number of tuple slots and the number of dictionary entries, as
+ * unsigned shorts</li>
+ * <li>a bitmap of the slots in use, one bit per slot as in HeapPage</li>
+ * <li>one fixed-size record per slot: an INT field as 4 bytes, a STRING field
+ * as the unsigned short code of its value</li>
+ * <li>the dictionary entries, in code order, each a short length followed by
+ * one byte per character</li>
+ * <li>free space</li>
+ * </ul>
+ * A page of zeros is an empty page.
+ * <p>
+ * All tuples of a page that hold the same string share one
+ * {@link StringField}, so predicates on string columns are evaluated once per
+ * dictionary entry by {@link #iterator(Predicate[])}, and operators that
+ * group or compare fields find equal values by reference before comparing
+ * characters. Strings no tuple refers to any more are left out of the
+ * dictionary when the page is written, and slot numbers do not change while a
+ * tuple is on the page.
+ *
+ * @see HeapFile.PageFormat#DICTIONARY
+ */
+public class DictionaryHeapPage extends HeapPage {
+
+    private static final int COUNTS_SIZE = 4;
+    private static final int CODE_SIZE = 2;
+    private static final int STRING_LENGTH_SIZE = 2;
+
+    /**
+     * 每个slot对应的tuple，空slot为null
+     */
+    private final List<Tuple> slots = new ArrayList<>();
+
+    /**
+     * 每个slot中各列的字典编码，下标为列号，非字符串列不使用
+     */
+    private final List<int[]> slotCodes = new ArrayList<>();
+
+    /**
+     * 字典：编码到值，值到编码，以及每个编码被多少tuple引用
+     */
+    private final List<StringField> dictionary = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    private int[] refs = new int[16];
+
+    /**
+     * 被引用的字典项写到页上所占的字节数
+     */
+    private int dictionaryBytes;
+
+    /**
+     * 一条record的字节数
+     */
+    private final int recordSize;
+
+    /**
+     * Create a DictionaryHeapPage from the bytes of a page read from disk, in
+     * the format described above.
+     */
+    public DictionaryHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : CODE_SIZE;
+        }
+        this.recordSize = size;
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = buf.getShort(0) & 0xffff;
+        int numEntries = buf.getShort(2) & 0xffff;
+        int recordsStart = COUNTS_SIZE + bitmapSize(numSlots);
+        int position = recordsStart + numSlots * recordSize;
+        if (position > data.length) {
+            throw new IOException("slots do not fit in the page");
+        }
+        for (int i = 0; i < numEntries; i++) {
+            int strLen = buf.getShort(position) & 0xffff;
+            position += STRING_LENGTH_SIZE;
+            if (position + strLen > data.length) {
+                throw new IOException("dictionary does not fit in the page");
+            }
+            String value = new String(data, position, strLen);
+            position += strLen;
+            codes.put(value, dictionary.size());
+            dictionary.add(new StringField(value, Type.STRING_LEN));
+        }
+        refs = new int[Math.max(numEntries, refs.length)];
+
+        buf.position(recordsStart);
+        for (int i = 0; i < numSlots; i++) {
+            if ((data[COUNTS_SIZE + i / 8] & (1 << (i % 8))) == 0) {
+                buf.position(buf.position() + recordSize);
+                slots.add(null);
+                slotCodes.add(null);
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            int[] tupleCodes = new int[td.numFields()];
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    t.setField(j, new IntField(buf.getInt()));
+                    continue;
+                }
+                int code = buf.getShort() & 0xffff;
+                if (code >= numEntries) {
+                    throw new IOException("dictionary code " + code + " out of range");
+                }
+                t.setField(j, dictionary.get(code));
+                tupleCodes[j] = code;
+                addRef(code);
+            }
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            slotCodes.add(tupleCodes);
+        }
+    }
+
+    private static int bitmapSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    private static int entrySize(String value) {
+        return STRING_LENGTH_SIZE + value.length();
+    }
+
+    /**
+     * @return the string in column j of t, cut to {@link Type#STRING_LEN}
+     *         characters as when it is written to a page
+     */
+    private static String stringValue(Tuple t, int j) {
+        String value = ((StringField) t.getField(j)).getValue();
+        return value.length() > Type.STRING_LEN ? value.substring(0, Type.STRING_LEN) : value;
+    }
+
+    private void addRef(int code) {
+        if (refs[code]++ == 0) {
+            dictionaryBytes += entrySize(dictionary.get(code).getValue());
+        }
+    }
+
+    private void removeRef(int code) {
+        if (--refs[code] == 0) {
+            dictionaryBytes -= entrySize(dictionary.get(code).getValue());
+        }
+    }
+
+    /**
+     * @return the code of value, adding it to the dictionary if needed
+     */
+    private int codeOf(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        int newCode = dictionary.size();
+        dictionary.add(new StringField(value, Type.STRING_LEN));
+        codes.put(value, newCode);
+        if (newCode == refs.length) {
+            refs = Arrays.copyOf(refs, refs.length * 2);
+        }
+        return newCode;
+    }
+
+    private int usedBytes(int numSlots) {
+        return COUNTS_SIZE + bitmapSize(numSlots) + numSlots * recordSize + dictionaryBytes;
+    }
+
+    private int firstEmptySlot() {
+        return slots.indexOf(null);
+    }
+
+    @Override
+    public DictionaryHeapPage getBeforeImage() {
+        try {
+            return new DictionaryHeapPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        buf.putShort(0, (short) slots.size());
+        buf.position(COUNTS_SIZE + bitmapSize(slots.size()));
+
+        //只写被引用的字典项，按第一次出现的顺序重新编码
+        int[] newCodes = new int[dictionary.size()];
+        Arrays.fill(newCodes, -1);
+        List<String> entries = new ArrayList<>();
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple t = slots.get(i);
+            if (t == null) {
+                buf.position(buf.position() + recordSize);
+                continue;
+            }
+            out[COUNTS_SIZE + i / 8] |= (byte) (1 << (i % 8));
+            int[] tupleCodes = slotCodes.get(i);
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    Type.INT_TYPE.write(t.getField(j), buf);
+                    continue;
+                }
+                int code = tupleCodes[j];
+                if (newCodes[code] < 0) {
+                    newCodes[code] = entries.size();
+                    entries.add(dictionary.get(code).getValue());
+                }
+                buf.putShort((short) newCodes[code]);
+            }
+        }
+
+        buf.putShort(2, (short) entries.size());
+        for (String value : entries) {
+            buf.putShort((short) value.length());
+            //和Type.write一样只写每个字符的低8位
+            for (int i = 0; i < value.length(); i++) {
+                buf.put((byte) value.charAt(i));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        assert t != null;
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("deleteTuple: Error: tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("deleteTuple: Error: tuple slot is empty");
+        }
+        int[] tupleCodes = slotCodes.get(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                removeRef(tupleCodes[j]);
+            }
+        }
+        slots.set(slot, null);
+        slotCodes.set(slot, null);
+        //去掉末尾的空slot
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+            slots.remove(slots.size() - 1);
+            slotCodes.remove(slotCodes.size() - 1);
+        }
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        assert t != null;
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("insertTuple: no empty slots or tupledesc is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("insertTuple: ERROR: not enough free space on the page");
+        }
+        int slot = firstEmptySlot();
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(null);
+            slotCodes.add(null);
+        }
+        //页上保存自己的tuple副本，调用者的tuple只设置RecordId，与HeapPage一致
+        Tuple stored = new Tuple(td);
+        int[] tupleCodes = new int[td.numFields()];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                tupleCodes[j] = codeOf(stringValue(t, j));
+                addRef(tupleCodes[j]);
+                //与页上其他tuple共用同一个StringField
+                stored.setField(j, dictionary.get(tupleCodes[j]));
+            } else {
+                stored.setField(j, t.getField(j));
+            }
+        }
+        RecordId rid = new RecordId(pid, slot);
+        t.setRecordId(rid);
+        stored.setRecordId(rid);
+        slots.set(slot, stored);
+        slotCodes.set(slot, tupleCodes);
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int numSlots = firstEmptySlot() < 0 ? slots.size() + 1 : slots.size();
+        int needed = usedBytes(numSlots);
+        //还不在字典中的字符串需要新的字典项，同一个tuple中重复的值只算一次
+        List<String> added = new ArrayList<>();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) != Type.STRING_TYPE) {
+                continue;
+            }
+            String value = stringValue(t, j);
+            Integer code = codes.get(value);
+            if ((code == null || refs[code] == 0) && !added.contains(value)) {
+                added.add(value);
+                needed += entrySize(value);
+            }
+        }
+        return needed <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns how many more tuples fit on this page if each of them brings
+     * new strings of the largest possible size; tuples whose strings are
+     * already in the dictionary may fit even when this is 0, see
+     * {@link #hasRoomFor}.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int newEntries = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                newEntries += STRING_LENGTH_SIZE + Type.STRING_LEN;
+            }
+        }
+        int emptySlots = Collections.frequency(slots, null);
+        int numSlots = slots.size();
+        int used = usedBytes(numSlots);
+        int count = 0;
+        while (true) {
+            int next = emptySlots > count ? numSlots : numSlots + 1;
+            int nextUsed = used + newEntries + (next - numSlots) * recordSize
+                    + bitmapSize(next) - bitmapSize(numSlots);
+            if (nextUsed > BufferPool.getPageSize()) {
+                return count;
+            }
+            used = nextUsed;
+            numSlots = next;
+            count++;
+        }
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slots.size() && slots.get(i) != null;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> result = new ArrayList<>(slots.size());
+        for (Tuple t : slots) {
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result.iterator();
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. A predicate on a string column is evaluated once
+     * for each value in the dictionary, and tuples are then matched by their
+     * codes; if no value in the dictionary satisfies it, no tuple is looked
+     * at.
+     */
+    @Override
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        //每个字符串列上的条件对每个字典项的结果，其他条件逐个tuple检查
+        List<Predicate> tuplePredicates = new ArrayList<>();
+        List<Integer> codePredicateFields = new ArrayList<>();
+        List<boolean[]> codePredicateMatches = new ArrayList<>();
+        for (Predicate p : predicates) {
+            if (td.getFieldType(p.getField()) != Type.STRING_TYPE) {
+                tuplePredicates.add(p);
+                continue;
+            }
+            boolean[] matches = new boolean[dictionary.size()];
+            boolean any = false;
+            for (int code = 0; code < matches.length; code++) {
+                if (refs[code] > 0 && dictionary.get(code).compare(p.getOp(), p.getOperand())) {
+                    matches[code] = true;
+                    any = true;
+                }
+            }
+            if (!any) {
+                return Collections.emptyIterator();
+            }
+            codePredicateFields.add(p.getField());
+            codePredicateMatches.add(matches);
+        }
+
+        ArrayList<Tuple> result = new ArrayList<>(slots.size());
+        slots:
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple t = slots.get(i);
+            if (t == null) {
+                continue;
+            }
+            int[] tupleCodes = slotCodes.get(i);
+            for (int k = 0; k < codePredicateFields.size(); k++) {
+                if (!codePredicateMatches.get(k)[tupleCodes[codePredicateFields.get(k)]]) {
+                    continue slots;
+                }
+            }
+            for (Predicate p : tuplePredicates) {
+                if (!p.filter(t)) {
+                    continue slots;
+                }
+            }
+            result.add(t);
+        }
+        return result.iterator();
+    }
+}
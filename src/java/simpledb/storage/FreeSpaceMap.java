@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so that
+ * {@link HeapFile#insertTuple} can go straight to a page with room instead of
+ * reading and locking every page from the start of the file.
+ * <p>
+ * The map is one bit per page, set when an insert found the page full and
+ * cleared when a tuple is deleted from it. It is stored next to the heap file,
+ * in a file with the suffix ".fsm". Changes are made in memory and written out
+ * by {@link #flush}, which the heap file calls whenever it writes a page and
+ * when a transaction that changed the map completes; changes made since the
+ * last flush are lost if the database stops, which only makes the hint less
+ * accurate. A page past the end of the file counts as not full.
+ * <p>
+ * The map is only a hint. A page marked not full may turn out to be full, in
+ * which case the insert marks it and moves on; a page marked full although it
+ * has room (for example after an aborted delete, or a slotted page too full
+ * for a long tuple but not for a short one) is not offered until a tuple is
+ * deleted from it. Neither case affects correctness, so the map needs no
+ * logging. The one change undone with a transaction is marking a page full
+ * that its own uncommitted inserts filled, see {@link HeapFile#insertTuple};
+ * otherwise the space would stay hidden after the inserts are rolled back.
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private final BitSet full;
+    //是否有还没写回文件的修改
+    private boolean dirty;
+
+    /**
+     * Opens the free-space map of the given heap file, or creates an empty one
+     * if the heap file has none yet.
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.file = fileOf(heapFile);
+        BitSet bits = new BitSet();
+        if (file.exists()) {
+            try {
+                bits = BitSet.valueOf(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                //读不出来就当作所有页都有空间，插入时会重新发现满的页
+                bits = new BitSet();
+            }
+        }
+        this.full = bits;
+    }
+
+    /**
+     * @return the file the free-space map of the given heap file is stored in
+     */
+    public static File fileOf(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Deletes the free-space map of the given heap file, which is about to be
+     * written from scratch.
+     */
+    public static void delete(File heapFile) {
+        fileOf(heapFile).delete();
+    }
+
+    /**
+     * Returns the file the map is stored in.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the first page at or after pgNo that is not known to be full
+     */
+    public synchronized int nextPageWithRoom(int pgNo) {
+        return full.nextClearBit(pgNo);
+    }
+
+    /**
+     * @return true if an insert found the given page full, and no tuple has
+     *         been deleted from it since
+     */
+    public synchronized boolean isFull(int pgNo) {
+        return full.get(pgNo);
+    }
+
+    /**
+     * Records that a tuple did not fit on the given page.
+     */
+    public synchronized void markFull(int pgNo) {
+        if (!full.get(pgNo)) {
+            full.set(pgNo);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Records that a tuple was deleted from the given page.
+     */
+    public synchronized void markHasRoom(int pgNo) {
+        if (full.get(pgNo)) {
+            full.clear(pgNo);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its file if it changed since the last flush.
+     */
+    public synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        //toByteArray去掉了末尾的0字节，截断文件以免留下旧的标记
+        byte[] bytes = full.toByteArray();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(bytes);
+            raf.setLength(bytes.length);
+            dirty = false;
+        } catch (IOException e) {
+            //只是提示，写失败不影响正确性，下次插入时会重新发现
+            e.printStackTrace();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -24,6 +26,31 @@ public class HeapFile implements DbFile {
     private TupleDesc tupleDesc;
 
     private int numPage;
+    //页的格式
+    private final PageFormat pageFormat;
+    //每页各列的最小值和最大值，用于在带条件的扫描中跳过页
+    private final ZoneMap zoneMap;
+    //记录哪些页已满，插入时直接跳过
+    private final FreeSpaceMap freeSpaceMap;
+    //在文件末尾追加新页时持有，保证同时追加的页不重叠
+    private final Object appendLock = new Object();
+    //各事务批量追加的页，每项是[起始页号, 结束页号)
+    private final Map<TransactionId, List<int[]>> bulkAppends = new HashMap<>();
+    //各事务因为自己未提交的插入而标记为满的页，事务回滚时要恢复为有空间
+    private final Map<TransactionId, List<Integer>> filledPages = new HashMap<>();
+
+    /**
+     * The ways a HeapFile can lay out the tuples of its pages.
+     */
+    public enum PageFormat {
+        /** One fixed-size slot per tuple, see {@link HeapPage}. */
+        FIXED,
+        /** Variable-length records behind a slot directory, see {@link SlottedHeapPage}. */
+        SLOTTED,
+        /** Strings replaced by codes into a per-page dictionary, see {@link DictionaryHeapPage}. */
+        DICTIONARY
+    }
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -32,10 +59,23 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are in
+     * the given format.
+     *
+     * @param f          the file that stores the on-disk backing store for
+     *                   this heap file.
+     * @param pageFormat the format of the pages of f
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat pageFormat) {
         this.dbFile = f;
         this.tupleDesc = td;
-        // some code goes here
-        //System.out.println(BufferPool.getPageSize());
+        this.pageFormat = pageFormat;
+        this.zoneMap = new ZoneMap(td);
+        this.freeSpaceMap = new FreeSpaceMap(f);
         numPage = (int) (dbFile.length() / BufferPool.getPageSize());
     }
 
@@ -65,6 +105,31 @@ public class HeapFile implements DbFile {
         return dbFile.getAbsoluteFile().hashCode();
     }
 
+    /**
+     * Returns the map of the pages of this file that are full.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns the format of the pages of this file.
+     */
+    public PageFormat getPageFormat() {
+        return pageFormat;
+    }
+
+    private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        switch (pageFormat) {
+            case SLOTTED:
+                return new SlottedHeapPage(pid, data);
+            case DICTIONARY:
+                return new DictionaryHeapPage(pid, data);
+            default:
+                return new HeapPage(pid, data);
+        }
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -108,7 +173,7 @@ public class HeapFile implements DbFile {
             try {
                 in.skip(pgNo * pageSize);
                 in.read(rawPgData);
-                return new HeapPage(new HeapPageId(tableid, pgNo), rawPgData);
+                return newPage(new HeapPageId(tableid, pgNo), rawPgData);
             } catch (IOException e) {
                 throw new IllegalArgumentException("HeapFile: readPage:");
             } finally {
@@ -148,7 +213,8 @@ public class HeapFile implements DbFile {
         RandomAccessFile dbfile = new RandomAccessFile(dbFile, "rws");
         dbfile.skipBytes(pgNo * pageSize);
         dbfile.write(pgData);
-
+        //空闲空间表的修改随页一起写回
+        freeSpaceMap.flush();
     }
 
     /**
@@ -219,27 +285,43 @@ public class HeapFile implements DbFile {
         /////////////
         // some code goes here
         ArrayList<Page> affectedPages = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
+        //只看空闲空间表中没有满的页
+        for (int i = freeSpaceMap.nextPageWithRoom(0); i < numPages(); i = freeSpaceMap.nextPageWithRoom(i + 1)) {
 //            HeapPageId pid = new HeapPageId(getId(), i);
             HeapPageId pid = new HeapPageId(getId(), i);
+            boolean locked = Database.getBufferPool().holdsLock(tid, pid);
             HeapPage page = null;
             page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() != 0) {
+            if (page.hasRoomFor(t)) {
                 //page的insertTuple已经负责修改tuple信息来表明其存储在该page上
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                zoneMap.tupleInserted(i, t);
                 affectedPages.add(page);
                 break;
             }
+            if (tid.equals(page.isDirty())) {
+                //页满可能只是因为本事务还没提交的插入
+                fillPage(tid, i);
+            } else {
+                freeSpaceMap.markFull(i);
+            }
+            //页没有被修改过，之前也没有锁，可以提前释放锁，不阻塞其他事务
+            if (!locked) {
+                Database.getBufferPool().unsafeReleasePage(tid, pid);
+            }
         }
         if (affectedPages.size() == 0) {//说明page都已经满了
             //创建一个新的空白的Page
 //            HeapPageId npid = new HeapPageId(getId(), numPages());
-            HeapPageId npid = new HeapPageId(getId(), numPages());
-            HeapPage blankPage = new HeapPage(npid, HeapPage.createEmptyPageData());
-            numPage++;
-            //将其写入磁盘
-            writePage(blankPage);
+            HeapPageId npid;
+            synchronized (appendLock) {
+                npid = new HeapPageId(getId(), numPages());
+                HeapPage blankPage = newPage(npid, HeapPage.createEmptyPageData());
+                numPage++;
+                //将其写入磁盘
+                writePage(blankPage);
+            }
             //通过BufferPool来访问该新的page
             HeapPage newPage = null;
             newPage = (HeapPage) Database.getBufferPool().getPage(tid, npid, Permissions.READ_WRITE);
@@ -251,6 +333,209 @@ public class HeapFile implements DbFile {
         // not necessary for proj1
     }
 
+    /**
+     * Returns a loader that appends tuples to this file on new pages, filled
+     * in memory and written in large sequential writes instead of through the
+     * BufferPool. Use it for loads too big to go through
+     * {@link BufferPool#insertTuple} one tuple at a time.
+     *
+     * @param tid the transaction the tuples are inserted by
+     * @see BulkLoader
+     */
+    public BulkLoader bulkLoader(TransactionId tid) {
+        return new BulkLoader(this, tid);
+    }
+
+    /**
+     * Makes an empty page in the format of this file; bulk loads fill it in
+     * memory.
+     */
+    HeapPage emptyPage(int pgNo) throws IOException {
+        return newPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Reserves numPages new pages at the end of this file for a bulk load by
+     * tid, which gets exclusive locks on them. The pages read as empty until
+     * they are written with {@link #writePages}, and the free-space map counts
+     * them as full until the load marks or gives back the ones with room.
+     *
+     * @return the number of the first reserved page
+     */
+    int reservePages(TransactionId tid, int numPages) throws IOException, TransactionAbortedException {
+        int start;
+        //appendLock只保护页号的分配，加锁和登记在它外面做，避免和BufferPool的锁顺序相反
+        synchronized (appendLock) {
+            start = numPages();
+            //空闲空间表里先标成满的，别的事务插入时不会选中这些还没写的页
+            for (int i = 0; i < numPages; i++) {
+                freeSpaceMap.markFull(start + i);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(dbFile, "rw")) {
+                raf.setLength((long) (start + numPages) * BufferPool.getPageSize());
+            }
+            synchronized (bulkAppends) {
+                bulkAppends.computeIfAbsent(tid, k -> new ArrayList<>()).add(new int[] { start, start + numPages });
+            }
+        }
+        //先登记，加锁时被回滚也能撤销这些页
+        Database.getBufferPool().registerFileChanges(tid, this);
+        for (int i = 0; i < numPages; i++) {
+            Database.getBufferPool().lockPage(tid, new HeapPageId(getId(), start + i), Permissions.READ_WRITE);
+        }
+        return start;
+    }
+
+    /**
+     * Gives back the reserved pages [from, to) that a bulk load by tid did not
+     * use, by cutting them off the file if they are still its last pages.
+     * Otherwise they stay in the file as empty pages.
+     */
+    void releasePages(TransactionId tid, int from, int to) throws IOException {
+        synchronized (appendLock) {
+            for (int pgNo = from; pgNo < to; pgNo++) {
+                freeSpaceMap.markHasRoom(pgNo);
+            }
+            if (from == to || to != numPages()) {
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(dbFile, "rw")) {
+                raf.setLength((long) from * BufferPool.getPageSize());
+            }
+            synchronized (bulkAppends) {
+                for (int[] range : bulkAppends.get(tid)) {
+                    if (range[1] == to) {
+                        range[1] = from;
+                    }
+                }
+            }
+        }
+        //这些页号之后会分给别的事务追加的页，不能一直锁着
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            Database.getBufferPool().unsafeReleasePage(tid, new HeapPageId(getId(), pgNo));
+        }
+    }
+
+    /**
+     * Writes the bytes of consecutive pages, starting at page start, in one
+     * write. The data is not forced to disk until the bulk load commits.
+     */
+    void writePages(int start, byte[] data, int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(dbFile, "rw")) {
+            raf.seek((long) start * BufferPool.getPageSize());
+            raf.write(data, 0, length);
+        }
+    }
+
+    /**
+     * Marks page pgNo full in the free space map on behalf of tid, whose own
+     * uncommitted inserts filled it; the mark is taken back if tid aborts.
+     */
+    private void fillPage(TransactionId tid, int pgNo) {
+        boolean first;
+        synchronized (filledPages) {
+            first = !filledPages.containsKey(tid);
+            filledPages.computeIfAbsent(tid, k -> new ArrayList<>()).add(pgNo);
+        }
+        freeSpaceMap.markFull(pgNo);
+        if (first) {
+            Database.getBufferPool().registerFileChanges(tid, this);
+        }
+    }
+
+    /**
+     * Forces the pages tid bulk loaded into this file to disk. Called by the
+     * BufferPool before tid commits; if this fails, tid is rolled back.
+     *
+     * @throws IOException if the file could not be forced
+     */
+    void forceBulkLoad(TransactionId tid) throws IOException {
+        synchronized (bulkAppends) {
+            if (!bulkAppends.containsKey(tid)) {
+                return;
+            }
+        }
+        synchronized (appendLock) {
+            try (RandomAccessFile raf = new RandomAccessFile(dbFile, "rw")) {
+                raf.getChannel().force(true);
+            }
+        }
+    }
+
+    /**
+     * Called by the BufferPool when tid, which changed this file outside the
+     * buffer pool, completes. On abort the pages that tid's own inserts
+     * filled have room again, and bulk loaded pages are undone as described
+     * in {@link #completeBulkLoad}.
+     *
+     * @throws IOException if bulk loaded pages could not be undone
+     */
+    void completeTransaction(TransactionId tid, boolean commit) throws IOException {
+        List<Integer> filled;
+        synchronized (filledPages) {
+            filled = filledPages.remove(tid);
+        }
+        if (filled != null && !commit) {
+            for (int pgNo : filled) {
+                freeSpaceMap.markHasRoom(pgNo);
+            }
+        }
+        try {
+            completeBulkLoad(tid, commit);
+        } finally {
+            freeSpaceMap.flush();
+        }
+    }
+
+    /**
+     * Forgets or undoes the pages tid bulk loaded into this file. On commit
+     * they have already been forced to disk by {@link #forceBulkLoad}. On
+     * abort they are emptied, and cut off the file if nothing was appended
+     * after them.
+     *
+     * @throws IOException if the pages could not be emptied
+     */
+    void completeBulkLoad(TransactionId tid, boolean commit) throws IOException {
+        List<int[]> ranges;
+        synchronized (bulkAppends) {
+            ranges = bulkAppends.remove(tid);
+        }
+        if (ranges == null || commit) {
+            return;
+        }
+        synchronized (appendLock) {
+            try (RandomAccessFile raf = new RandomAccessFile(dbFile, "rw")) {
+                byte[] empty = HeapPage.createEmptyPageData();
+                //从后往前撤销，末尾的页可以直接截掉
+                for (int r = ranges.size() - 1; r >= 0; r--) {
+                    int[] range = ranges.get(r);
+                    for (int pgNo = range[0]; pgNo < range[1]; pgNo++) {
+                        freeSpaceMap.markHasRoom(pgNo);
+                        zoneMap.tupleDeleted(pgNo);
+                        //事务自己可能读过这些页，缓存里的版本已经无效
+                        Database.getBufferPool().discardPage(new HeapPageId(getId(), pgNo));
+                    }
+                    if (range[1] == numPages()) {
+                        raf.setLength((long) range[0] * BufferPool.getPageSize());
+                    } else {
+                        raf.seek((long) range[0] * BufferPool.getPageSize());
+                        for (int pgNo = range[0]; pgNo < range[1]; pgNo++) {
+                            raf.write(empty);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the given page, which a bulk load left partly filled, has
+     * room for more tuples. Reserved pages count as full until then.
+     */
+    void markHasRoom(int pgNo) {
+        freeSpaceMap.markHasRoom(pgNo);
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -270,6 +555,8 @@ public class HeapFile implements DbFile {
             int pgNo = pid.getPageNumber();
             HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             pg.deleteTuple(t);
+            zoneMap.tupleDeleted(pgNo);
+            freeSpaceMap.markHasRoom(pgNo);
             // writePage(pg);
             affected.add(pg);
             return affected;
@@ -285,13 +572,31 @@ public class HeapFile implements DbFile {
         private final TransactionId transactionId;
         private final int tableId;
         private final int numPages;
+        //要返回的列及其TupleDesc，为null时返回全部列
+        private final int[] columns;
+        private final TupleDesc projectedTd;
+        //在页的字节上检查的条件
+        private final Predicate[] predicates;
 
-        private HeapFileIterator(TransactionId tid) {
+        private HeapFileIterator(TransactionId tid, int[] columns, Predicate[] predicates) {
             this.pgCursor = null;
             this.tupleIterator = null;
             this.transactionId = tid;
             this.tableId = getId();
             this.numPages = numPages();
+            this.columns = columns;
+            this.predicates = predicates;
+            if (columns == null) {
+                this.projectedTd = null;
+            } else {
+                Type[] types = new Type[columns.length];
+                String[] names = new String[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    types[i] = tupleDesc.getFieldType(columns[i]);
+                    names[i] = tupleDesc.getFieldName(columns[i]);
+                }
+                this.projectedTd = new TupleDesc(types, names);
+            }
         }
 
         @Override
@@ -319,7 +624,8 @@ public class HeapFile implements DbFile {
         @Override
         public Tuple next() throws TransactionAbortedException, DbException {
             if (this.hasNext()){
-                return tupleIterator.next();
+                Tuple t = tupleIterator.next();
+                return columns == null ? t : t.project(columns, projectedTd);
             }
             throw new NoSuchElementException("HeapFileIterator: error: next: no more elemens");
         }
@@ -337,18 +643,65 @@ public class HeapFile implements DbFile {
         }
 
         private Iterator<Tuple> getTupleIterator (int pgNO) throws TransactionAbortedException, DbException {
-            HeapPageId heapPageId = new HeapPageId(tableId, pgNO);
-            return ((HeapPage)Database.getBufferPool().
-                    getPage(transactionId,heapPageId, Permissions.READ_ONLY))
-                    .iterator();
+            return tuples(transactionId, pgNO, predicates);
         }
     }
+    /**
+     * Returns the tuples of a page of this file that satisfy all of the given
+     * predicates. If the zone map of this file shows that no tuple of the page
+     * can satisfy them, the page is skipped without being read from the
+     * BufferPool.
+     *
+     * @param tid        the transaction reading the page
+     * @param pgNo       the number of the page
+     * @param predicates predicates on the columns of this file
+     * @see ZoneMap
+     */
+    public Iterator<Tuple> tuples(TransactionId tid, int pgNo, Predicate[] predicates)
+            throws TransactionAbortedException, DbException {
+        if (!zoneMap.mayMatch(pgNo, predicates)) {
+            return Collections.emptyIterator();
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo),
+                Permissions.READ_ONLY);
+        zoneMap.summarize(page, predicates);
+        return page.iterator(predicates);
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
 
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null, new Predicate[0]);
         //return new HeapIterator(tid);
     }
+
+    /**
+     * Returns an iterator over only some of the columns of this file. Fields
+     * of the other columns are never decoded from the pages.
+     *
+     * @param tid     the transaction the iterator runs as a part of
+     * @param columns the indexes of the columns to return, in order
+     * @return an iterator whose tuples hold the given columns of each tuple of
+     *         this file, with their RecordIds
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of the
+     * given predicates, restricted to some of the columns. The predicates are
+     * tested on the page bytes before the tuples are returned, see
+     * {@link HeapPage#iterator(Predicate[])}.
+     *
+     * @param tid        the transaction the iterator runs as a part of
+     * @param columns    the indexes of the columns to return, in order, or
+     *                   null for all of them
+     * @param predicates predicates on the columns of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate[] predicates) {
+        return new HeapFileIterator(tid, columns == null ? null : columns.clone(), predicates.clone());
+    }
     /**
      * 这个类在实现时有不少疑惑，参考了别人的代码才清楚以下一些点：
      * 1.tableid就是heapfile的id，即通过getId。。但是这个不是从0开始的，按照课程源码推荐，这是文件的哈希码。。
@@ -4,8 +4,17 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -107,6 +116,7 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FreeSpaceMap.delete(outFile);
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -224,4 +234,204 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** The number of pages each worker of the parallel convert builds at a time. */
+  public static final int PAGES_PER_CHUNK = 64;
+
+  /** Convert the specified input text file into a binary page file, parsing
+   * the input and building the pages on several threads. <br>
+   *
+   * The calling thread reads the input and cuts it into chunks of
+   * {@link #PAGES_PER_CHUNK} pages worth of lines. Worker threads parse the
+   * chunks and build their pages; the calling thread writes the finished
+   * pages in input order through one FileChannel. Only a bounded number of
+   * chunks is in memory at a time, so the input can be larger than memory.
+   * <p>
+   * For well-formed input the output is the same as that of the serial
+   * {@link #convert(File, File, int, int, Type[], char)}. Unlike the serial
+   * version, a last line without a trailing newline is kept, and a line with
+   * a bad integer or the wrong number of fields fails the whole conversion.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between two fields of a line
+   * @param threads the number of worker threads
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
+      throws IOException {
+    if (threads < 1)
+        throw new IllegalArgumentException("threads must be positive: " + threads);
+    PageLayout layout = new PageLayout(npagebytes, numFields, typeAr, fieldSeparator);
+    int recordsPerChunk = PAGES_PER_CHUNK * layout.nrecords;
+
+    FreeSpaceMap.delete(outFile);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    //按输入顺序排队的chunk，写完一个才从队头取下一个
+    ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    try (InputStream in = new FileInputStream(inFile);
+         FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        long position = 0;
+        int chunks = 0;
+        byte[] block = new byte[1 << 16];
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        int lines = 0;
+        boolean blank = true;
+        int n;
+        while ((n = in.read(block)) > 0) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                byte b = block[i];
+                if (b == '\n') {
+                    // 空行不算记录，和串行版本一样跳过
+                    if (!blank && ++lines == recordsPerChunk) {
+                        chunk.write(block, start, i + 1 - start);
+                        start = i + 1;
+                        byte[] bytes = chunk.toByteArray();
+                        pending.add(pool.submit(() -> layout.buildPages(bytes)));
+                        chunk.reset();
+                        lines = 0;
+                        chunks++;
+                        // 限制同时在内存里的chunk数
+                        if (pending.size() >= threads * 2)
+                            position = writeChunk(pending.poll(), out, position);
+                    }
+                    blank = true;
+                } else if (b != '\r') {
+                    blank = false;
+                }
+            }
+            chunk.write(block, start, n - start);
+        }
+        // 最后不完整的chunk；文件是空的时候也要写出一个空页
+        if (!blank || lines > 0 || chunks == 0) {
+            byte[] bytes = chunk.toByteArray();
+            pending.add(pool.submit(() -> layout.buildPages(bytes)));
+        }
+        while (!pending.isEmpty())
+            position = writeChunk(pending.poll(), out, position);
+    } finally {
+        for (Future<byte[]> f : pending)
+            f.cancel(true);
+        pool.shutdownNow();
+    }
+  }
+
+  private static long writeChunk(Future<byte[]> chunk, FileChannel out, long position)
+      throws IOException {
+    byte[] pages;
+    try {
+        pages = chunk.get();
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("convert interrupted");
+    } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+        throw new IOException(e.getCause());
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(pages);
+    while (buffer.hasRemaining())
+        position += out.write(buffer, position);
+    return position;
+  }
+
+  /**
+   * The layout of the pages built by the parallel convert, the same as the
+   * one the serial convert writes: a header bitmap followed by fixed-length
+   * records.
+   */
+  private static class PageLayout {
+    final int npagebytes;
+    final Type[] typeAr;
+    final char fieldSeparator;
+    final int nrecbytes;
+    final int nrecords;
+    final int nheaderbytes;
+
+    PageLayout(int npagebytes, int numFields, Type[] typeAr, char fieldSeparator) {
+        this.npagebytes = npagebytes;
+        this.typeAr = Arrays.copyOf(typeAr, numFields);
+        this.fieldSeparator = fieldSeparator;
+        int recbytes = 0;
+        for (int i = 0; i < numFields; i++)
+            recbytes += typeAr[i].getLen();
+        this.nrecbytes = recbytes;
+        this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        this.nheaderbytes = (nrecords + 7) / 8;
+    }
+
+    /**
+     * Parses the lines of a chunk and returns the pages holding them. A
+     * chunk without records gives one empty page.
+     */
+    byte[] buildPages(byte[] chunk) throws IOException {
+        // 和串行版本一样用默认字符集读入，字符串只写每个字符的低8位
+        String text = new String(chunk, Charset.defaultCharset());
+        int records = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n')
+                records++;
+        }
+        records++;
+        ByteBuffer pages = ByteBuffer.allocate(Math.max(1, (records + nrecords - 1) / nrecords) * npagebytes);
+
+        int recordNo = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0)
+                end = text.length();
+            String line = text.substring(start, end).replace("\r", "");
+            start = end + 1;
+            if (line.isEmpty())
+                continue;
+            int page = recordNo / nrecords;
+            int slot = recordNo % nrecords;
+            int pageStart = page * npagebytes;
+            pages.put(pageStart + slot / 8, (byte) (pages.get(pageStart + slot / 8) | (1 << (slot % 8))));
+            pages.position(pageStart + nheaderbytes + slot * nrecbytes);
+            writeRecord(line, pages);
+            recordNo++;
+        }
+        return Arrays.copyOf(pages.array(), Math.max(1, (recordNo + nrecords - 1) / nrecords) * npagebytes);
+    }
+
+    private void writeRecord(String line, ByteBuffer out) throws IOException {
+        int fieldStart = 0;
+        for (int fieldNo = 0; fieldNo < typeAr.length; fieldNo++) {
+            int fieldEnd = line.indexOf(fieldSeparator, fieldStart);
+            if (fieldEnd < 0) {
+                if (fieldNo != typeAr.length - 1)
+                    throw new IOException("BAD LINE : " + line + " (expected " + typeAr.length + " fields)");
+                fieldEnd = line.length();
+            } else if (fieldNo == typeAr.length - 1) {
+                throw new IOException("BAD LINE : " + line + " (expected " + typeAr.length + " fields)");
+            }
+            String s = line.substring(fieldStart, fieldEnd).trim();
+            fieldStart = fieldEnd + 1;
+            if (typeAr[fieldNo] == Type.INT_TYPE) {
+                try {
+                    out.putInt(Integer.parseInt(s));
+                } catch (NumberFormatException e) {
+                    throw new IOException("BAD LINE : " + line, e);
+                }
+            } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                out.putInt(s.length());
+                for (int i = 0; i < s.length(); i++)
+                    out.put((byte) s.charAt(i));
+                // 剩下的字节已经是0
+                out.position(out.position() + Type.STRING_LEN - s.length());
+            }
+        }
+    }
+  }
 }
@@ -3,6 +3,7 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -57,7 +58,7 @@ public class HeapPage implements Page {
     /**
      * 锁
      */
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -79,24 +80,35 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
+        // allocate and read the header slots and tuples of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        HeapPageCodec.decode(this, data);
+
+        //data本身就是修改前的内容，tuple也引用它，之后不会被修改
+        synchronized(oldDataLock)
+        {
+            oldData = data;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * Create a page of table id with data as its before image, for subclasses
+     * that store their tuples in another format. The header and tuple slots
+     * of the fixed format are left empty, so a subclass has to override every
+     * method that reads them.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, byte[] data) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = 0;
+        this.header = new byte[0];
+        this.tuples = new Tuple[0];
+        synchronized(oldDataLock)
+        {
+            oldData = data;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -125,12 +137,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,beforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -139,6 +146,16 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return the bytes of this page as of the last call to setBeforeImage
+     */
+    byte[] beforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData;
+        }
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -155,40 +172,6 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -201,64 +184,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return HeapPageCodec.encode(this);
     }
 
     /**
@@ -391,6 +317,13 @@ public class HeapPage implements Page {
         return num;
     }
 
+    /**
+     * Returns true if t can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -463,7 +396,7 @@ public class HeapPage implements Page {
             ArrayList<Tuple> tupleArrayList = new ArrayList<Tuple>(numSlots);
             for (int i = 0; i < numSlots; i++) {
                 if (isSlotUsed(i)) {
-                    tupleArrayList.add(i, tuples[i]);
+                    tupleArrayList.add(tuples[i]);
                 }
             }
             iter = tupleArrayList.iterator();
@@ -494,5 +427,40 @@ public class HeapPage implements Page {
         return new HeapPageTupleIterator2();
     }
 
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. The predicates are tested on the bytes of each
+     * tuple as read from disk, so the fields of tuples that are skipped are
+     * never decoded.
+     *
+     * @param predicates predicates whose field numbers are columns of the
+     *                   tuples of this page; may be empty
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        if (predicates.length == 0) {
+            return iterator();
+        }
+        int[] fieldOffsets = LazyTuple.fieldOffsets(td);
+        BytePredicate[] tests = new BytePredicate[predicates.length];
+        for (int i = 0; i < tests.length; i++) {
+            tests[i] = new BytePredicate(predicates[i], td, fieldOffsets);
+        }
+        ArrayList<Tuple> result = new ArrayList<>();
+        slots:
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            Tuple t = tuples[i];
+            for (BytePredicate test : tests) {
+                if (!test.matches(t)) {
+                    continue slots;
+                }
+            }
+            result.add(t);
+        }
+        return result.iterator();
+    }
+
 }
 
@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a {@link HeapPage} to and from its on-disk format: the header
+ * bitmap, then one fixed-size slot per tuple, then zero padding up to the page
+ * size.
+ * <p>
+ * Reading copies the header out of the page bytes and wraps every used slot
+ * in a {@link LazyTuple} over those same bytes, so nothing is parsed up front.
+ * Writing fills a single array: tuples that are unchanged since the page was
+ * read are copied from the bytes they were read from with
+ * {@link System#arraycopy}, one copy per run of adjacent slots, and other
+ * tuples are encoded field by field with {@link ByteBuffer} puts. Empty slots
+ * stay zero.
+ */
+final class HeapPageCodec {
+
+    private HeapPageCodec() {
+    }
+
+    /**
+     * Fills the header and tuples of page from data, the bytes of the page as
+     * read from disk. The tuples keep a reference to data.
+     */
+    static void decode(HeapPage page, byte[] data) {
+        System.arraycopy(data, 0, page.header, 0, page.header.length);
+        int tupleSize = page.td.getSize();
+        int[] fieldOffsets = LazyTuple.fieldOffsets(page.td);
+        for (int i = 0; i < page.numSlots; i++) {
+            if (!page.isSlotUsed(i)) {
+                continue;
+            }
+            Tuple t = new LazyTuple(page.td, data, page.header.length + i * tupleSize, fieldOffsets);
+            t.setRecordId(new RecordId(page.pid, i));
+            page.tuples[i] = t;
+        }
+    }
+
+    /**
+     * @return the bytes of page in the format read by {@link #decode}
+     */
+    static byte[] encode(HeapPage page) {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(page.header, 0, out, 0, page.header.length);
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int tupleSize = page.td.getSize();
+
+        //当前可以整段复制的连续slot：来源数组、来源起点、起始slot和slot数
+        byte[] runData = null;
+        int runOffset = 0;
+        int runSlot = 0;
+        int runLength = 0;
+        for (int i = 0; i < page.numSlots; i++) {
+            Tuple t = page.isSlotUsed(i) ? page.tuples[i] : null;
+            byte[] raw = t instanceof LazyTuple ? ((LazyTuple) t).rawData() : null;
+            if (raw != null && raw == runData
+                    && ((LazyTuple) t).rawOffset() == runOffset + runLength * tupleSize) {
+                runLength++;
+                continue;
+            }
+            copyRun(runData, runOffset, out, page.header.length + runSlot * tupleSize, runLength * tupleSize);
+            runData = raw;
+            runOffset = raw == null ? 0 : ((LazyTuple) t).rawOffset();
+            runSlot = i;
+            runLength = raw == null ? 0 : 1;
+            if (t != null && raw == null) {
+                buf.position(page.header.length + i * tupleSize);
+                for (int j = 0; j < page.td.numFields(); j++) {
+                    page.td.getFieldType(j).write(t.getField(j), buf);
+                }
+            }
+        }
+        copyRun(runData, runOffset, out, page.header.length + runSlot * tupleSize, runLength * tupleSize);
+        return out;
+    }
+
+    private static void copyRun(byte[] from, int fromOffset, byte[] to, int toOffset, int length) {
+        if (length > 0) {
+            System.arraycopy(from, fromOffset, to, toOffset, length);
+        }
+    }
+}
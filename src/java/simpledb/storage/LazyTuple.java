@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A Tuple stored on a page that decodes its fields from the page's bytes only
+ * when they are first read with {@link #getField}. Scans that touch a few
+ * columns of a wide table then parse (and allocate) only those columns.
+ * <p>
+ * The tuple keeps a reference to the page's byte array, which must not be
+ * modified afterwards. Decoding a field twice gives an equal Field, so threads
+ * reading the same tuple at worst decode a field twice.
+ */
+public class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private byte[] data;
+    private final int offset;
+    private final int[] fieldOffsets;
+    //只保留部分列时，第i列是页上tuple的第columns[i]列；null表示全部列
+    private final int[] columns;
+    //setField之后data中的内容不再是这个tuple的完整内容
+    private boolean modified;
+
+    /**
+     * Constructor.
+     *
+     * @param td           the schema of the tuple
+     * @param data         the bytes of the page holding the tuple
+     * @param offset       where the tuple starts in data
+     * @param fieldOffsets the offset of every field from the start of the
+     *                     tuple, see {@link #fieldOffsets(TupleDesc)}
+     */
+    public LazyTuple(TupleDesc td, byte[] data, int offset, int[] fieldOffsets) {
+        this(td, data, offset, fieldOffsets, null);
+    }
+
+    private LazyTuple(TupleDesc td, byte[] data, int offset, int[] fieldOffsets, int[] columns) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        this.columns = columns;
+    }
+
+    /**
+     * @return the offset of every field of td from the start of a tuple with
+     *         that schema; can be shared by all tuples of a page
+     */
+    public static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        int pos = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = pos;
+            pos += td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && data != null) {
+            Type type = getTupleDesc().getFieldType(i);
+            f = type.parse(data, offset + fieldOffsets[columns == null ? i : columns[i]]);
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        //没改过的列仍然从data中解析
+        modified = true;
+        super.setField(i, f);
+    }
+
+    /**
+     * Returns a LazyTuple over the same page bytes that exposes only the given
+     * columns, so the fields that are dropped are never decoded.
+     */
+    @Override
+    public Tuple project(int[] columns, TupleDesc td) {
+        if (modified || data == null || this.columns != null) {
+            return super.project(columns, td);
+        }
+        LazyTuple t = new LazyTuple(td, data, offset, fieldOffsets, columns);
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
+    /**
+     * @return the page bytes this tuple was read from if they still hold all
+     *         of its fields, in the layout of the page, or null otherwise
+     */
+    byte[] rawData() {
+        return modified || columns != null ? null : data;
+    }
+
+    /**
+     * @return where this tuple starts in {@link #rawData()}
+     */
+    int rawOffset() {
+        return offset;
+    }
+
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        super.resetTupleDesc(td);
+        //schema变了，data中的布局不再适用
+        data = null;
+    }
+
+    /**
+     * Writes the tuple in the format of {@link Field#serialize}, copying its
+     * bytes from the page directly if it has not been modified.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        if (!modified && data != null && columns == null) {
+            dos.write(data, offset, getTupleDesc().getSize());
+            return;
+        }
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            getField(i).serialize(dos);
+        }
+    }
+}
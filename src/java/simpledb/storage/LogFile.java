@@ -278,7 +278,14 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            //页类可能有多个构造函数，用参数为(PageId, byte[])的那个
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts) {
+                if (c.getParameterCount() == 2 && c.getParameterTypes()[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
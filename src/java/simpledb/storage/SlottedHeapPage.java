@@ -0,0 +1,283 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A HeapPage that stores variable-length records behind a slot directory,
+ * instead of one fixed-size slot per tuple. A string takes a two byte length
+ * plus its characters rather than {@link Type#STRING_LEN} bytes, so pages of
+ * tables with short strings hold many more tuples.
+ * <p>
+ * The format of a page is:
+ * <ul>
+ * <li>the number of slots in the directory, as an unsigned short</li>
+ * <li>for each slot, the offset and the length of its record, as unsigned
+ * shorts; an offset of 0 marks an empty slot</li>
+ * <li>free space</li>
+ * <li>the records, packed against the end of the page, the record of slot 0
+ * last</li>
+ * </ul>
+ * A record is the fields of a tuple one after another: an INT as 4 bytes, a
+ * STRING as its length as a short followed by one byte per character. A page
+ * of zeros is an empty page.
+ * <p>
+ * Slot numbers do not change while a tuple is on the page, so RecordIds stay
+ * valid. Records are written packed every time the page is serialized, so the
+ * bytes of a deleted tuple are reclaimed at once and the page never needs a
+ * separate compaction pass. Empty slots are reused by later inserts, and
+ * empty slots at the end of the directory are dropped.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    private static final int SLOT_COUNT_SIZE = 2;
+    private static final int SLOT_SIZE = 4;
+    private static final int STRING_LENGTH_SIZE = 2;
+
+    /**
+     * 每个slot对应的tuple，空slot为null
+     */
+    private final List<Tuple> slots = new ArrayList<>();
+
+    /**
+     * 所有record加起来的字节数
+     */
+    private int recordBytes;
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk, in the
+     * format described above.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = buf.getShort(0) & 0xffff;
+        if (SLOT_COUNT_SIZE + numSlots * SLOT_SIZE > data.length) {
+            throw new IOException("slot directory does not fit in the page");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            int offset = buf.getShort(SLOT_COUNT_SIZE + i * SLOT_SIZE) & 0xffff;
+            if (offset == 0) {
+                slots.add(null);
+                continue;
+            }
+            Tuple t = readRecord(buf, offset);
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            recordBytes += recordSize(t);
+        }
+    }
+
+    private Tuple readRecord(ByteBuffer buf, int offset) {
+        Tuple t = new Tuple(td);
+        buf.position(offset);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(buf.getInt()));
+            } else {
+                int strLen = buf.getShort() & 0xffff;
+                t.setField(i, new StringField(new String(buf.array(), buf.position(), strLen), Type.STRING_LEN));
+                buf.position(buf.position() + strLen);
+            }
+        }
+        return t;
+    }
+
+    private void writeRecord(Tuple t, ByteBuffer buf) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                Type.INT_TYPE.write(f, buf);
+            } else {
+                String value = ((StringField) f).getValue();
+                int strLen = Math.min(value.length(), Type.STRING_LEN);
+                buf.putShort((short) strLen);
+                //和Type.write一样只写每个字符的低8位
+                for (int j = 0; j < strLen; j++) {
+                    buf.put((byte) value.charAt(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a page
+     */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += Type.INT_TYPE.getLen();
+            } else {
+                size += STRING_LENGTH_SIZE
+                        + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the largest record a tuple of this table can have
+     */
+    private int maxRecordSize() {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? Type.INT_TYPE.getLen()
+                    : STRING_LENGTH_SIZE + Type.STRING_LEN;
+        }
+        return size;
+    }
+
+    private int freeBytes() {
+        return BufferPool.getPageSize() - SLOT_COUNT_SIZE - slots.size() * SLOT_SIZE - recordBytes;
+    }
+
+    private int firstEmptySlot() {
+        return slots.indexOf(null);
+    }
+
+    @Override
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, beforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        buf.putShort(0, (short) slots.size());
+        int end = out.length;
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple t = slots.get(i);
+            if (t == null) {
+                continue;
+            }
+            int size = recordSize(t);
+            end -= size;
+            buf.putShort(SLOT_COUNT_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(SLOT_COUNT_SIZE + i * SLOT_SIZE + 2, (short) size);
+            buf.position(end);
+            writeRecord(t, buf);
+        }
+        return out;
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        assert t != null;
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("deleteTuple: Error: tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("deleteTuple: Error: tuple slot is empty");
+        }
+        recordBytes -= recordSize(slots.get(slot));
+        slots.set(slot, null);
+        //去掉目录末尾的空slot
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+            slots.remove(slots.size() - 1);
+        }
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        assert t != null;
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("insertTuple: no empty slots or tupledesc is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("insertTuple: ERROR: not enough free space on the page");
+        }
+        int slot = firstEmptySlot();
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(null);
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        slots.set(slot, t);
+        recordBytes += recordSize(t);
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t) + (firstEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return needed <= freeBytes();
+    }
+
+    /**
+     * Returns how many more tuples of the largest possible size fit on this
+     * page; tuples with shorter strings may fit even when this is 0, see
+     * {@link #hasRoomFor}.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int maxRecord = maxRecordSize();
+        int reused = 0;
+        for (Tuple t : slots) {
+            if (t == null && free >= maxRecord) {
+                reused++;
+                free -= maxRecord;
+            }
+        }
+        return reused + free / (maxRecord + SLOT_SIZE);
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slots.size() && slots.get(i) != null;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> result = new ArrayList<>(slots.size());
+        for (Tuple t : slots) {
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result.iterator();
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. The records of this page are decoded when the page
+     * is read, so the predicates are tested on the decoded tuples.
+     */
+    @Override
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        ArrayList<Tuple> result = new ArrayList<>(slots.size());
+        slots:
+        for (Tuple t : slots) {
+            if (t == null) {
+                continue;
+            }
+            for (Predicate p : predicates) {
+                if (!p.filter(t)) {
+                    continue slots;
+                }
+            }
+            result.add(t);
+        }
+        return result.iterator();
+    }
+}
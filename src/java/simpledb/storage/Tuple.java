@@ -94,6 +94,22 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Returns a tuple holding only some of the fields of this one, with the
+     * same RecordId.
+     *
+     * @param columns the indexes of the fields to keep, in order
+     * @param td      the schema of the result: the types of those fields
+     */
+    public Tuple project(int[] columns, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            t.setField(i, getField(columns[i]));
+        }
+        t.setRecordId(recordId);
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -108,9 +124,9 @@ public class Tuple implements Serializable {
         for (int i = 0; i < fields.length; i++) {
             if (i == fields.length - 1) {
                 //如果是最后一个Field，就接换行符，否则接空格
-                rowString.append(fields[i].toString() + "\n");
+                rowString.append(getField(i).toString() + "\n");
             } else {
-                rowString.append(fields[i].toString() + "\t");
+                rowString.append(getField(i).toString() + "\t");
             }
         }
         return rowString.toString();
@@ -139,7 +155,7 @@ public class Tuple implements Serializable {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return fields[pos++];
+            return getField(pos++);
         }
     }
 
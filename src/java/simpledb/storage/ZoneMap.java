@@ -0,0 +1,204 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ZoneMap keeps, for pages of a HeapFile, the smallest and the largest value
+ * on the page of the columns that scans have filtered on. A scan with
+ * predicates asks the zone map whether a page can hold a matching tuple before
+ * it reads the page, and skips the page when it cannot.
+ * <p>
+ * A column of a page has no summary until a scan with a predicate on that
+ * column reads the page while it is clean, that is while it holds only
+ * committed tuples. The values are read from the bytes of the page, so
+ * summarizing does not decode the fields of its tuples. Inserting a tuple widens the summary of its
+ * page, so the summary stays a superset of the values on the page even if the
+ * insert is rolled back. Deleting a tuple drops the summary of its page
+ * instead of narrowing it, since the delete could be rolled back; the page is
+ * summarized again the next time it is read clean. Predicates on columns without
+ * a summary never cause a page to be skipped.
+ *
+ * @see HeapFile#tuples
+ */
+public class ZoneMap {
+
+    /**
+     * 一页中已汇总的列的最小值和最大值，页中没有tuple时都为null
+     */
+    private static class Zone {
+        private final Field[] min;
+        private final Field[] max;
+        private final boolean[] summarized;
+
+        private Zone(int numFields) {
+            this.min = new Field[numFields];
+            this.max = new Field[numFields];
+            this.summarized = new boolean[numFields];
+        }
+
+        private void add(Tuple t) {
+            for (int i = 0; i < min.length; i++) {
+                if (summarized[i]) {
+                    widen(i, t.getField(i));
+                }
+            }
+        }
+
+        private void widen(int i, Field f) {
+            if (f == null) {
+                return;
+            }
+            if (min[i] == null || f.compare(Predicate.Op.LESS_THAN, min[i])) {
+                min[i] = f;
+            }
+            if (max[i] == null || f.compare(Predicate.Op.GREATER_THAN, max[i])) {
+                max[i] = f;
+            }
+        }
+
+        private boolean mayMatch(Predicate p) {
+            if (!summarized[p.getField()]) {
+                return true;
+            }
+            Field lo = min[p.getField()];
+            Field hi = max[p.getField()];
+            if (lo == null) {
+                //该列在页中没有值，没有tuple能满足条件
+                return false;
+            }
+            Field c = p.getOperand();
+            switch (p.getOp()) {
+                case EQUALS:
+                    return !lo.compare(Predicate.Op.GREATER_THAN, c) && !hi.compare(Predicate.Op.LESS_THAN, c);
+                case LESS_THAN:
+                    return lo.compare(Predicate.Op.LESS_THAN, c);
+                case LESS_THAN_OR_EQ:
+                    return lo.compare(Predicate.Op.LESS_THAN_OR_EQ, c);
+                case GREATER_THAN:
+                    return hi.compare(Predicate.Op.GREATER_THAN, c);
+                case GREATER_THAN_OR_EQ:
+                    return hi.compare(Predicate.Op.GREATER_THAN_OR_EQ, c);
+                case NOT_EQUALS:
+                    return !lo.compare(Predicate.Op.EQUALS, c) || !hi.compare(Predicate.Op.EQUALS, c);
+                default:
+                    //LIKE无法用范围判断
+                    return true;
+            }
+        }
+    }
+
+    private final TupleDesc td;
+    private final int[] fieldOffsets;
+    private final Map<Integer, Zone> zones = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty zone map for pages of tuples with the given schema.
+     */
+    public ZoneMap(TupleDesc td) {
+        this.td = td;
+        this.fieldOffsets = LazyTuple.fieldOffsets(td);
+    }
+
+    /**
+     * Returns false if no tuple on the given page can satisfy all of the given
+     * predicates, so the page need not be read. Returns true if the page has
+     * no summary.
+     *
+     * @param pgNo       the number of a page of the file
+     * @param predicates predicates on the columns of the file
+     */
+    public boolean mayMatch(int pgNo, Predicate[] predicates) {
+        if (predicates.length == 0) {
+            return true;
+        }
+        Zone zone = zones.get(pgNo);
+        if (zone == null) {
+            return true;
+        }
+        synchronized (zone) {
+            for (Predicate p : predicates) {
+                if (!zone.mayMatch(p)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the smallest and the largest value on page of every column that
+     * one of the given predicates is on and that has no summary yet, unless
+     * the page has uncommitted changes.
+     */
+    public void summarize(HeapPage page, Predicate[] predicates) {
+        if (predicates.length == 0 || page.isDirty() != null) {
+            return;
+        }
+        Zone zone = zones.computeIfAbsent(page.getId().getPageNumber(), pgNo -> new Zone(td.numFields()));
+        synchronized (zone) {
+            for (Predicate p : predicates) {
+                int field = p.getField();
+                if (!zone.summarized[field]) {
+                    summarizeColumn(zone, page, field);
+                    zone.summarized[field] = true;
+                }
+            }
+        }
+    }
+
+    private void summarizeColumn(Zone zone, HeapPage page, int field) {
+        Type type = td.getFieldType(field);
+        //INT列在局部变量里比较，最后才生成Field
+        boolean any = false;
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            //未修改的tuple直接从页的字节中读取，不经过getField，不会缓存解码出的字段
+            byte[] data = t instanceof LazyTuple ? ((LazyTuple) t).rawData() : null;
+            if (data == null) {
+                zone.widen(field, t.getField(field));
+                continue;
+            }
+            int pos = ((LazyTuple) t).rawOffset() + fieldOffsets[field];
+            if (type == Type.INT_TYPE) {
+                int v = Type.readInt(data, pos);
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+                any = true;
+            } else {
+                zone.widen(field, type.parse(data, pos));
+            }
+        }
+        if (any) {
+            zone.widen(field, new IntField(lo));
+            zone.widen(field, new IntField(hi));
+        }
+    }
+
+    /**
+     * Widens the summary of the given page, if it has one, to cover t, a tuple
+     * inserted into the page.
+     */
+    public void tupleInserted(int pgNo, Tuple t) {
+        Zone zone = zones.get(pgNo);
+        if (zone != null) {
+            synchronized (zone) {
+                zone.add(t);
+            }
+        }
+    }
+
+    /**
+     * Drops the summary of the given page, from which a tuple was deleted.
+     */
+    public void tupleDeleted(int pgNo) {
+        zones.remove(pgNo);
+    }
+}
@@ -48,9 +48,10 @@ public class LruCache<K,V>{
      * @param ruNode the recently used Node
      */
     protected void unlink(Node ruNode) {
-        //如果是最后一个结点
+        //如果是最后一个结点，前一个结点成为尾结点
         if (ruNode.next == null) {
             ruNode.front.next = null;
+            tail = ruNode.front;
         } else {
             ruNode.front.next=ruNode.next;
             ruNode.next.front=ruNode.front;
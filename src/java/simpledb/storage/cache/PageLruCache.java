@@ -1,6 +1,7 @@
 package simpledb.storage.cache;
 
 import simpledb.common.Database;
+import simpledb.index.BTreePageId;
 import simpledb.storage.*;
 
 import java.io.IOException;
@@ -25,27 +26,41 @@ public class PageLruCache extends LruCache<PageId, Page> {
             return null;
         } else {
             //不存在的话先判断是否已经达到容量
-            //如果到达容量，判断尾节点是否是dirty的page，如果是则取其前一个page
-            //否则先删除尾结点最后将其返回
+            //如果到达容量，从尾结点往前找最久没用的干净page，B+树的根、内部页和header页
+            //每次查找都会经过，尽量留在缓存里，先换出叶子页和堆文件的页
+            //然后删除该结点并将其返回
             //未到达容量的话只需要新建结点，然后插入到表头，返回null
             Page removed = null;
             if (cacheEntries.size() == capacity) {
                 Page toRemoved = null;
-                Node n = tail;
-                while ((toRemoved = n.value).isDirty() != null) {
-                    n = n.front;
-                    if (n == head){
-                        try {
-                            Database.getBufferPool().flushAllPages();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        throw new CacheException("Page Cache is full and all pages in cache are dirty, not supported to put now");
+                Page upperLevel = null;
+                for (Node n = tail; n != head; n = n.front) {
+                    if (n.value.isDirty() != null) {
+                        continue;
                     }
+                    if (!isUpperIndexPage(n.key)) {
+                        toRemoved = n.value;
+                        break;
+                    }
+                    if (upperLevel == null) {
+                        upperLevel = n.value;
+                    }
+                }
+                //只有B+树上层的页是干净的时候，才换出其中最久没用的
+                if (toRemoved == null) {
+                    toRemoved = upperLevel;
+                }
+                if (toRemoved == null) {
+                    try {
+                        Database.getBufferPool().flushAllPages();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    throw new CacheException("Page Cache is full and all pages in cache are dirty, not supported to put now");
                 }
                 //在链表中删除该node,以及缓存中删除page
                 removePage(toRemoved.getId());
-                removed = cacheEntries.remove(toRemoved.getId()).value;
+                removed = toRemoved;
             }
             Node ruNode = new Node(key, value);
             linkFirst(ruNode);
@@ -55,6 +70,13 @@ public class PageLruCache extends LruCache<PageId, Page> {
     }
 
 
+    /**
+     * B+树叶子页以上的页：根指针页、内部页和header页
+     */
+    private static boolean isUpperIndexPage(PageId pid) {
+        return pid instanceof BTreePageId && ((BTreePageId) pid).pgcateg() != BTreePageId.LEAF;
+    }
+
     /**
      * 删除cache中pageId对应的page
      *
@@ -73,6 +95,7 @@ public class PageLruCache extends LruCache<PageId, Page> {
             toRemoved.next.front = toRemoved.front;
             toRemoved.front.next = toRemoved.next;
         }
+        cacheEntries.remove(pid);
     }
 
     /**
@@ -85,8 +108,8 @@ public class PageLruCache extends LruCache<PageId, Page> {
             throw new IllegalArgumentException();
         }
         //访问磁盘获得该page
-        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-        HeapPage originalPage = (HeapPage) table.readPage(pid);
+        DbFile table = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page originalPage = table.readPage(pid);
         Node node = new Node(pid, originalPage);
         cacheEntries.put(pid, node);
         Node toRemoved = head;
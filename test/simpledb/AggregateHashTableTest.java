@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.AggregateHashTable;
+import simpledb.execution.Aggregator;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for a single group without GROUP BY (null key)
+   */
+  @Test public void noGrouping() {
+    AggregateHashTable<Field> table = new AggregateHashTable<>();
+    int[] values = { 3, -7, 12, 5 };
+    for (int v : values) {
+      table.add(table.findOrInsert(null), v);
+    }
+    assertEquals(1, table.numGroups());
+    int g = table.find(null);
+    assertEquals(0, g);
+    assertEquals(13, table.getValue(g, Aggregator.Op.SUM));
+    assertEquals(4, table.getValue(g, Aggregator.Op.COUNT));
+    assertEquals(-7, table.getValue(g, Aggregator.Op.MIN));
+    assertEquals(12, table.getValue(g, Aggregator.Op.MAX));
+    assertEquals(3, table.getValue(g, Aggregator.Op.AVG));
+  }
+
+  /**
+   * Unit test for many groups, forcing the table to grow several times
+   */
+  @Test public void manyGroups() {
+    AggregateHashTable<Field> table = new AggregateHashTable<>(2);
+    int numGroups = 10000;
+    for (int round = 0; round < 3; round++) {
+      for (int k = 0; k < numGroups; k++) {
+        table.add(table.findOrInsert(new IntField(k)), k + round);
+      }
+    }
+    assertEquals(numGroups, table.numGroups());
+    for (int k = 0; k < numGroups; k += 97) {
+      int g = table.find(new IntField(k));
+      assertEquals(new IntField(k), table.getKey(g));
+      assertEquals(3, table.getCount(g));
+      assertEquals(3L * k + 3, table.getSum(g));
+      assertEquals(k, table.getMin(g));
+      assertEquals(k + 2, table.getMax(g));
+    }
+    assertEquals(-1, table.find(new IntField(numGroups)));
+  }
+
+  /**
+   * Unit test for string keys and for merging partial aggregates
+   */
+  @Test public void stringKeysAndMerge() {
+    AggregateHashTable<Field> table = new AggregateHashTable<>();
+    int a = table.findOrInsert(new StringField("a", Type.STRING_LEN));
+    table.add(a, 4);
+    table.merge(table.findOrInsert(new StringField("a", Type.STRING_LEN)), 10, 3, 1, 6);
+    assertEquals(1, table.numGroups());
+    assertEquals(14, table.getSum(a));
+    assertEquals(4, table.getCount(a));
+    assertEquals(1, table.getMin(a));
+    assertEquals(6, table.getMax(a));
+
+    table.clear();
+    assertEquals(0, table.numGroups());
+    assertEquals(-1, table.find(new StringField("a", Type.STRING_LEN)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(AggregateHashTableTest.class);
+  }
+}
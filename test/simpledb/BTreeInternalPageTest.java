@@ -174,6 +174,48 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), also after deleting entries
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertFindChild(page);
+
+		// 删除一些entry，使已用的slot之间有空位
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> toDelete = new ArrayList<>();
+		int i = 0;
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			if (i++ % 3 == 1)
+				toDelete.add(e);
+		}
+		for (BTreeEntry e : toDelete)
+			page.deleteKeyAndRightChild(e);
+		assertFindChild(page);
+	}
+
+	// 和按顺序查找第一个不小于key的entry的结果比较
+	private static void assertFindChild(BTreeInternalPage page) throws Exception {
+		List<BTreeEntry> entries = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		assertEquals(entries.get(0).getLeftChild(), page.findChild(null));
+		for (int key = 0; key <= 70000; key += 97) {
+			BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+			for (BTreeEntry e : entries) {
+				if (((IntField) e.getKey()).getValue() >= key) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals(expected, page.findChild(new IntField(key)));
+		}
+		for (BTreeEntry e : entries)
+			assertEquals(e.getLeftChild(), page.findChild(e.getKey()));
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
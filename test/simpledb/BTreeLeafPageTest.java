@@ -196,6 +196,47 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field), also after deleting tuples
+	 */
+	@Test public void testIteratorFromKey() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertIteratorFromKey(page);
+
+		// 删除一些tuple，使已用的slot之间有空位
+		Iterator<Tuple> it = page.iterator();
+		List<Tuple> toDelete = new ArrayList<>();
+		int i = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (i++ % 3 == 1)
+				toDelete.add(t);
+		}
+		for (Tuple t : toDelete)
+			page.deleteTuple(t);
+		assertIteratorFromKey(page);
+	}
+
+	// 和按顺序过滤出不小于key的tuple的结果比较
+	private static void assertIteratorFromKey(BTreeLeafPage page) {
+		List<Tuple> tuples = new ArrayList<>();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int key = 0; key <= 70000; key += 97) {
+			List<Tuple> expected = new ArrayList<>();
+			for (Tuple t : tuples) {
+				if (((IntField) t.getField(0)).getValue() >= key)
+					expected.add(t);
+			}
+			List<Tuple> actual = new ArrayList<>();
+			it = page.iterator(new IntField(key));
+			while (it.hasNext())
+				actual.add(it.next());
+			assertEquals(expected, actual);
+		}
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getNumEmptySlots()
 	 */
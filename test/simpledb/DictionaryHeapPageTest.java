@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.DictionaryHeapPage;
+import simpledb.storage.Field;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DictionaryHeapPageTest extends SimpleDbTestBase {
+
+  private static final String[] COUNTRIES = { "Netherlands", "New Zealand", "Norway", "Portugal", "Switzerland" };
+
+  private HeapPageId pid;
+
+  private static boolean contains(byte[] data, String s) {
+    return new String(data).contains(s);
+  }
+
+  @Before public void addTable() {
+    this.pid = TestUtil.addIntStringTable();
+  }
+
+  private DictionaryHeapPage fullPage() throws Exception {
+    DictionaryHeapPage page = new DictionaryHeapPage(pid, HeapPage.createEmptyPageData());
+    for (int i = 0; page.hasRoomFor(TestUtil.intStringTuple(i, COUNTRIES[i % COUNTRIES.length])); i++) {
+      page.insertTuple(TestUtil.intStringTuple(i, COUNTRIES[i % COUNTRIES.length]));
+    }
+    return new DictionaryHeapPage(pid, page.getPageData());
+  }
+
+  /**
+   * Unit test that a page with a few distinct strings holds many more tuples
+   * than the fixed format, and that equal strings share one field after the
+   * page is read back
+   */
+  @Test public void roundTrip() throws Exception {
+    DictionaryHeapPage page = fullPage();
+    List<Tuple> read = TestUtil.tupleList(page.iterator());
+    HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+    assertTrue(read.size() > 10 * fixed.getNumEmptySlots());
+    assertEquals(0, page.getNumEmptySlots());
+    for (int i = 0; i < read.size(); i++) {
+      Tuple t = read.get(i);
+      assertEquals(i, ((IntField) t.getField(0)).getValue());
+      assertEquals(COUNTRIES[i % COUNTRIES.length], ((StringField) t.getField(1)).getValue());
+      assertEquals(i, t.getRecordId().getTupleNumber());
+      if (i >= COUNTRIES.length) {
+        assertSame(read.get(i - COUNTRIES.length).getField(1), t.getField(1));
+      }
+    }
+    assertArrayEquals(page.getPageData(), new DictionaryHeapPage(pid, page.getPageData()).getPageData());
+
+    // 新值需要新的字典项，已有的值只需要一条record
+    page.deleteTuple(read.get(0));
+    assertTrue(page.hasRoomFor(TestUtil.intStringTuple(-1, COUNTRIES[1])));
+    assertFalse(page.hasRoomFor(TestUtil.intStringTuple(-1, "Liechtenstein")));
+  }
+
+  /**
+   * Unit test that predicates evaluated on the dictionary agree with
+   * Predicate.filter
+   */
+  @Test public void predicatesOnCodes() throws Exception {
+    DictionaryHeapPage page = fullPage();
+    List<Field> operands = new ArrayList<>();
+    for (String s : new String[] { "", "N", "Norway", "Nor", "Portugal", "Austria", "zz" }) {
+      operands.add(new StringField(s, Type.STRING_LEN));
+    }
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (Field operand : operands) {
+        Predicate p = new Predicate(1, op, operand);
+        Predicate q = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        for (Predicate[] predicates : new Predicate[][] { { p }, { p, q } }) {
+          List<Tuple> expected = new ArrayList<>();
+          for (Tuple t : TestUtil.tupleList(page.iterator())) {
+            if (p.filter(t) && (predicates.length == 1 || q.filter(t))) {
+              expected.add(t);
+            }
+          }
+          assertEquals(op + " " + operand, expected, TestUtil.tupleList(page.iterator(predicates)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Unit test that strings no tuple refers to are dropped from the
+   * dictionary, freeing their space
+   */
+  @Test public void deleteDropsUnusedEntries() throws Exception {
+    DictionaryHeapPage page = fullPage();
+    assertTrue(contains(page.getPageData(), "Portugal"));
+    int deleted = 0;
+    for (Tuple t : TestUtil.tupleList(page.iterator())) {
+      if (((StringField) t.getField(1)).getValue().equals("Portugal")) {
+        page.deleteTuple(t);
+        deleted++;
+      }
+    }
+    DictionaryHeapPage copy = new DictionaryHeapPage(pid, page.getPageData());
+    assertFalse(contains(copy.getPageData(), "Portugal"));
+    assertEquals(TestUtil.tupleList(page.iterator()).size(), TestUtil.tupleList(copy.iterator()).size());
+
+    // 空出的slot和字典项可以放下一个不长于Portugal的新值
+    int inserted = 0;
+    while (copy.hasRoomFor(TestUtil.intStringTuple(inserted, "Austria"))) {
+      copy.insertTuple(TestUtil.intStringTuple(inserted++, "Austria"));
+    }
+    assertTrue(inserted >= deleted);
+
+    for (Tuple t : TestUtil.tupleList(copy.iterator())) {
+      copy.deleteTuple(t);
+    }
+    assertArrayEquals(HeapPage.createEmptyPageData(), copy.getPageData());
+  }
+
+  /**
+   * Unit test for grouping by a string column of a HeapFile whose pages are
+   * dictionary encoded
+   */
+  @Test public void groupByDictionaryColumn() throws Exception {
+    File f = File.createTempFile("dictionary", ".dat");
+    f.deleteOnExit();
+    FreeSpaceMap.fileOf(f).deleteOnExit();
+    HeapFile table = new HeapFile(f, TestUtil.INT_STRING_TD, HeapFile.PageFormat.DICTIONARY);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    int rows = 5000;
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < rows; i++) {
+      String country = COUNTRIES[(i * 7 / 3) % COUNTRIES.length];
+      Database.getBufferPool().insertTuple(tid, table.getId(), TestUtil.intStringTuple(i, country));
+      expected.merge(country, 1, Integer::sum);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+    assertTrue(table.numPages() * 10 < rows / fixed.getNumEmptySlots());
+
+    Database.resetBufferPool(50);
+    tid = new TransactionId();
+    Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 1, Aggregator.Op.COUNT);
+    agg.open();
+    Map<String, Integer> actual = new HashMap<>();
+    while (agg.hasNext()) {
+      Tuple t = agg.next();
+      actual.put(((StringField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+    }
+    agg.close();
+    assertEquals(expected, actual);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test that inserting leaves the fields of the caller's tuple alone
+   */
+  @Test public void insertKeepsCallerTuple() throws Exception {
+    DictionaryHeapPage page = new DictionaryHeapPage(pid, HeapPage.createEmptyPageData());
+    page.insertTuple(TestUtil.intStringTuple(1, "Norway"));
+    Tuple t = TestUtil.intStringTuple(2, "Norway");
+    Field own = t.getField(1);
+    page.insertTuple(t);
+    assertSame(own, t.getField(1));
+    assertEquals(1, t.getRecordId().getTupleNumber());
+
+    List<Tuple> read = TestUtil.tupleList(page.iterator());
+    assertSame(read.get(0).getField(1), read.get(1).getField(1));
+    assertEquals(t.getRecordId(), read.get(1).getRecordId());
+    page.deleteTuple(t);
+    assertEquals(1, TestUtil.tupleList(page.iterator()).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DictionaryHeapPageTest.class);
+  }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Measures how long it takes to serialize a full HeapPage with
+ * {@link HeapPage#getPageData} and to read it back with the HeapPage
+ * constructor, compared with writing the same page through a
+ * DataOutputStream the way getPageData used to.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=HeapPageCodecBenchmark}.
+ */
+public class HeapPageCodecBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE });
+    private static final int ROUNDS = 5;
+    private static final int PAGES = 20000;
+
+    //保存结果，免得JIT把被测的代码优化掉
+    private static volatile Object sink;
+
+    private interface Task {
+        Object run() throws IOException;
+    }
+
+    /**
+     * Writes page one byte or field at a time through a DataOutputStream.
+     */
+    private static byte[] streamPageData(HeapPage page) throws IOException {
+        int tupleSize = TD.getSize();
+        int numSlots = (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        Tuple[] slots = new Tuple[numSlots];
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            slots[t.getRecordId().getTupleNumber()] = t;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < headerSize; i++) {
+            int b = 0;
+            for (int j = 0; j < 8 && i * 8 + j < numSlots; j++) {
+                if (page.isSlotUsed(i * 8 + j)) {
+                    b |= 1 << j;
+                }
+            }
+            dos.writeByte(b);
+        }
+        for (Tuple t : slots) {
+            if (t == null) {
+                for (int j = 0; j < tupleSize; j++) {
+                    dos.writeByte(0);
+                }
+                continue;
+            }
+            for (int j = 0; j < TD.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+        }
+        dos.write(new byte[BufferPool.getPageSize() - headerSize - tupleSize * numSlots]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static void time(String name, Task task) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < PAGES; i++) {
+                sink = task.run();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1000.0 / PAGES);
+        }
+        System.out.printf("%-45s %8.2f us/page%n", name, best);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapPageId pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), "bench");
+
+        //全部由insertTuple插入的页，写出时要逐列编码
+        HeapPage inserted = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; inserted.getNumEmptySlots() > 0; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("tuple number " + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i * 31));
+            t.setField(3, new IntField(-i));
+            inserted.insertTuple(t);
+        }
+        byte[] data = inserted.getPageData();
+        //从字节读出的页，写出时整段复制
+        HeapPage loaded = new HeapPage(pid, data);
+        //删掉一半tuple，剩下的分成很多小段
+        HeapPage holes = new HeapPage(pid, data);
+        Iterator<Tuple> it = loaded.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 2 == 0) {
+                holes.deleteTuple(t);
+            }
+        }
+
+        System.out.println(BufferPool.getPageSize() + " byte pages, " + TD.getSize() + " byte tuples");
+        time("DataOutputStream, inserted tuples", () -> streamPageData(inserted));
+        time("getPageData, inserted tuples", inserted::getPageData);
+        time("DataOutputStream, tuples read from disk", () -> streamPageData(loaded));
+        time("getPageData, tuples read from disk", loaded::getPageData);
+        time("getPageData, every other slot deleted", holes::getPageData);
+        time("new HeapPage(bytes)", () -> new HeapPage(pid, data));
+    }
+}
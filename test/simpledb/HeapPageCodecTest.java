@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class HeapPageCodecTest extends SimpleDbTestBase {
+
+
+  private HeapPageId pid;
+
+  @Before public void addTable() {
+    this.pid = TestUtil.addIntStringTable();
+  }
+
+  /**
+   * Unit test that Type.write produces the bytes of Field.serialize
+   */
+  @Test public void writeMatchesSerialize() throws Exception {
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < Type.STRING_LEN + 10; i++) {
+      longString.append((char) ('a' + i % 26));
+    }
+    Field[] fields = { new IntField(0), new IntField(-7), new IntField(Integer.MAX_VALUE),
+        new StringField("", Type.STRING_LEN), new StringField("hello", Type.STRING_LEN),
+        new StringField(longString.toString(), Type.STRING_LEN) };
+    for (Field f : fields) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      f.serialize(new DataOutputStream(baos));
+      ByteBuffer buf = ByteBuffer.allocate(f.getType().getLen());
+      f.getType().write(f, buf);
+      assertEquals(f.getType().getLen(), buf.position());
+      assertArrayEquals(baos.toByteArray(), buf.array());
+    }
+  }
+
+  /**
+   * Unit test for writing a page whose slots mix tuples read from disk,
+   * deleted slots and newly inserted tuples, and reading it back
+   */
+  @Test public void mixedPageRoundTrip() throws Exception {
+    HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+    for (int i = 0; i < 20; i++) {
+      empty.insertTuple(TestUtil.intStringTuple(i, "read " + i));
+    }
+    HeapPage page = new HeapPage(pid, empty.getPageData());
+    List<Tuple> read = TestUtil.tupleList(page.iterator());
+    for (int i = 0; i < 10; i++) {
+      page.insertTuple(TestUtil.intStringTuple(100 + i, "inserted " + i));
+    }
+    for (int i = 0; i < read.size(); i += 3) {
+      page.deleteTuple(read.get(i));
+    }
+
+    byte[] data = page.getPageData();
+    HeapPage copy = new HeapPage(pid, data);
+    List<Tuple> expected = TestUtil.tupleList(page.iterator());
+    List<Tuple> actual = TestUtil.tupleList(copy.iterator());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+      assertEquals(expected.get(i).getRecordId(), actual.get(i).getRecordId());
+    }
+    assertArrayEquals(data, copy.getPageData());
+
+    // 被删除的slot写成全0
+    int numSlots = expected.size() + page.getNumEmptySlots();
+    int start = (numSlots + 7) / 8 + read.get(0).getRecordId().getTupleNumber() * TestUtil.INT_STRING_TD.getSize();
+    for (int i = start; i < start + TestUtil.INT_STRING_TD.getSize(); i++) {
+      assertEquals(0, data[i]);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapPageCodecTest.class);
+  }
+}
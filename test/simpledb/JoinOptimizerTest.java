@@ -16,6 +16,7 @@ import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -47,6 +48,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.fileOf(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
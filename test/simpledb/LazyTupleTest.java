@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.LazyTuple;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class LazyTupleTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+  /**
+   * Serializes t after a few padding bytes, as it would appear on a page.
+   */
+  private static byte[] bytesOf(Tuple t, int padding) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.write(new byte[padding]);
+    for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+      t.getField(i).serialize(dos);
+    }
+    dos.flush();
+    return baos.toByteArray();
+  }
+
+  private static Tuple example() {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(-42));
+    t.setField(1, new StringField("hello", Type.STRING_LEN));
+    t.setField(2, new IntField(1 << 30));
+    return t;
+  }
+
+  /**
+   * Unit test that fields decode to the values that were serialized
+   */
+  @Test public void decodesFields() throws IOException {
+    Tuple expected = example();
+    LazyTuple t = new LazyTuple(TD, bytesOf(expected, 7), 7, LazyTuple.fieldOffsets(TD));
+    assertTrue(TestUtil.compareTuples(expected, t));
+    assertEquals(expected.toString(), t.toString());
+  }
+
+  /**
+   * Unit test for writing an unmodified and a modified tuple back
+   */
+  @Test public void serialize() throws IOException {
+    byte[] data = bytesOf(example(), 3);
+    LazyTuple t = new LazyTuple(TD, data, 3, LazyTuple.fieldOffsets(TD));
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    t.serialize(new DataOutputStream(baos));
+    assertArrayEquals(bytesOf(example(), 0), baos.toByteArray());
+
+    t.setField(2, new IntField(7));
+    assertEquals(new IntField(-42), t.getField(0));
+    Tuple expected = example();
+    expected.setField(2, new IntField(7));
+    baos.reset();
+    t.serialize(new DataOutputStream(baos));
+    assertArrayEquals(bytesOf(expected, 0), baos.toByteArray());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LazyTupleTest.class);
+  }
+}
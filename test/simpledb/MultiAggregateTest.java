@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.MultiAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+  /**
+   * Reads every result tuple of it into a map from the first numKeys fields
+   * to the remaining (integer) fields.
+   */
+  private static Map<List<Object>, List<Integer>> readGroups(OpIterator it, int numKeys) throws Exception {
+    Map<List<Object>, List<Integer>> result = new HashMap<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      Object[] key = new Object[numKeys];
+      for (int i = 0; i < numKeys; i++) {
+        key[i] = t.getField(i);
+      }
+      Integer[] values = new Integer[t.getTupleDesc().numFields() - numKeys];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = ((IntField) t.getField(numKeys + i)).getValue();
+      }
+      assertFalse(result.containsKey(Arrays.asList(key)));
+      result.put(Arrays.asList(key), Arrays.asList(values));
+    }
+    return result;
+  }
+
+  /**
+   * Unit test for COUNT, SUM and MAX grouped by two columns
+   */
+  @Test public void compositeKeyManyAggregates() throws Exception {
+    int[] data = new int[4 * 1000];
+    Map<List<Object>, List<Integer>> expected = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      int g1 = i % 7, g2 = i % 3, x = i, y = 1000 - i;
+      data[4 * i] = g1;
+      data[4 * i + 1] = g2;
+      data[4 * i + 2] = x;
+      data[4 * i + 3] = y;
+      List<Object> key = Arrays.asList(new IntField(g1), new IntField(g2));
+      List<Integer> old = expected.get(key);
+      if (old == null) {
+        expected.put(key, Arrays.asList(1, x, y));
+      } else {
+        expected.put(key, Arrays.asList(old.get(0) + 1, old.get(1) + x, Math.max(old.get(2), y)));
+      }
+    }
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(4, data), new int[] { 2, 2, 3 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX });
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(5, td.numFields());
+    assertEquals(td.getFieldName(2), op.aggregateFieldName());
+
+    op.open();
+    assertEquals(expected, readGroups(op, 2));
+    op.rewind();
+    assertEquals(expected, readGroups(op, 2));
+    op.close();
+  }
+
+  /**
+   * Unit test for several aggregates without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    int[] data = { 1, 10, 2, 20, 3, 30, 6, 40 };
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), new int[] { 0, 1, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    assertEquals(Aggregator.NO_GROUPING, op.groupField());
+    op.open();
+    Map<List<Object>, List<Integer>> result = readGroups(op, 0);
+    op.close();
+    assertEquals(1, result.size());
+    assertEquals(Arrays.asList(1, 25, 4), result.get(Arrays.asList()));
+  }
+
+  /**
+   * Unit test for grouping by a string column and counting a string column
+   */
+  @Test public void stringColumns() throws Exception {
+    Object[] data = { "a", 1, "x", "b", 2, "y", "a", 3, "z" };
+    Aggregate op = new Aggregate(TestUtil.createTupleList(3, data), new int[] { 2, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    assertEquals(Type.STRING_TYPE, op.getTupleDesc().getFieldType(0));
+    op.open();
+    Map<List<Object>, List<Integer>> result = readGroups(op, 1);
+    op.close();
+    assertEquals(Arrays.asList(2, 4), result.get(Arrays.asList(new StringField("a", Type.STRING_LEN))));
+    assertEquals(Arrays.asList(1, 2), result.get(Arrays.asList(new StringField("b", Type.STRING_LEN))));
+  }
+
+  /**
+   * Unit test for a composite GROUP BY with many more groups than the memory
+   * budget, which spills to disk
+   */
+  @Test public void spillsCompositeGroups() throws Exception {
+    int n = 6000;
+    int[] data = new int[3 * n];
+    Map<List<Object>, List<Integer>> expected = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      int g1 = i % 40, g2 = i % 75, x = i;
+      data[3 * i] = g1;
+      data[3 * i + 1] = g2;
+      data[3 * i + 2] = x;
+      List<Object> key = Arrays.asList(new IntField(g1), new IntField(g2));
+      List<Integer> old = expected.get(key);
+      if (old == null) {
+        expected.put(key, Arrays.asList(1, x, x));
+      } else {
+        expected.put(key, Arrays.asList(old.get(0) + 1, old.get(1) + x, Math.min(old.get(2), x)));
+      }
+    }
+
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+        Type.INT_TYPE });
+    MultiAggregator agg = new MultiAggregator(new int[] { 0, 1 }, new int[] { 2, 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN }, td, 20);
+    OpIterator input = TestUtil.createTupleList(3, data);
+    input.open();
+    while (input.hasNext()) {
+      agg.mergeTupleIntoGroup(input.next());
+    }
+    input.close();
+    assertEquals(20, agg.numGroupsInMemory());
+    assertTrue(agg.hasSpilled());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    assertEquals(expected, readGroups(it, 2));
+    it.rewind();
+    assertEquals(expected, readGroups(it, 2));
+    it.close();
+    agg.clear();
+    assertFalse(agg.hasSpilled());
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(3, data), new int[] { 2, 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN }, 20);
+    assertEquals(20, op.maxGroupsInMemory());
+    op.open();
+    assertEquals(expected, readGroups(op, 2));
+    op.close();
+    op.open();
+    assertEquals(expected, readGroups(op, 2));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregateTest.class);
+  }
+}
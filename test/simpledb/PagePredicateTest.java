@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class PagePredicateTest extends SimpleDbTestBase {
+
+  private static final String[] WORDS = { "", "a", "ab", "abc", "b", "ba", "zz", "Hello", "héllo" };
+
+  private HeapPageId pid;
+  private HeapPage page;
+
+  /**
+   * Builds a page read from bytes, plus one tuple inserted afterwards, whose
+   * bytes are not available.
+   */
+  @Before public void createPage() throws Exception {
+    this.pid = TestUtil.addIntStringTable();
+    HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+    for (int i = 0; i < WORDS.length * 3; i++) {
+      empty.insertTuple(TestUtil.intStringTuple(i - 10, WORDS[i % WORDS.length]));
+    }
+    page = new HeapPage(pid, empty.getPageData());
+    page.insertTuple(TestUtil.intStringTuple(3, "ab"));
+  }
+
+  private List<Tuple> expected(Predicate... predicates) {
+    List<Tuple> result = new ArrayList<>();
+    Iterator<Tuple> it = page.iterator();
+    tuples:
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      for (Predicate p : predicates) {
+        if (!p.filter(t)) {
+          continue tuples;
+        }
+      }
+      result.add(t);
+    }
+    return result;
+  }
+
+  private List<Tuple> actual(Predicate... predicates) {
+    List<Tuple> result = new ArrayList<>();
+    Iterator<Tuple> it = page.iterator(predicates);
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  /**
+   * Unit test that testing the page bytes agrees with Predicate.filter for
+   * every operator, on int and string columns
+   */
+  @Test public void matchesFilter() {
+    List<Field> operands = new ArrayList<>();
+    for (int i : new int[] { -11, -10, 0, 3, 16 }) {
+      operands.add(new IntField(i));
+    }
+    for (String s : new String[] { "", "a", "ab", "b", "abcd", "H", "llo", "é" }) {
+      operands.add(new StringField(s, Type.STRING_LEN));
+    }
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (Field operand : operands) {
+        int field = operand.getType() == Type.INT_TYPE ? 0 : 1;
+        Predicate p = new Predicate(field, op, operand);
+        assertEquals(op + " " + operand, expected(p), actual(p));
+      }
+    }
+  }
+
+  /**
+   * Unit test for several predicates, which must all hold
+   */
+  @Test public void conjunction() {
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+    Predicate p2 = new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN));
+    List<Tuple> result = actual(p1, p2);
+    assertEquals(expected(p1, p2), result);
+    assertTrue(result.size() > 1);
+    assertEquals(expected(), actual());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PagePredicateTest.class);
+  }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedHeapPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+
+  private HeapPageId pid;
+
+  private static void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+      assertEquals(expected.get(i).getRecordId(), actual.get(i).getRecordId());
+    }
+  }
+
+  @Before public void addTable() {
+    this.pid = TestUtil.addIntStringTable();
+  }
+
+  /**
+   * Unit test that short strings fit many more tuples on a page than the
+   * fixed format, and that a page survives a round trip through its bytes
+   */
+  @Test public void roundTrip() throws Exception {
+    SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+    assertEquals(0, TestUtil.tupleList(page.iterator()).size());
+    int count = 0;
+    while (page.hasRoomFor(TestUtil.intStringTuple(count, "name " + count))) {
+      page.insertTuple(TestUtil.intStringTuple(count, "name " + count));
+      count++;
+    }
+    HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+    assertTrue(count > 4 * fixed.getNumEmptySlots());
+    assertEquals(0, page.getNumEmptySlots());
+    try {
+      page.insertTuple(TestUtil.intStringTuple(count, "name " + count));
+      throw new RuntimeException("page should be full");
+    } catch (DbException e) {
+      // 页已满
+    }
+
+    SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+    assertSameTuples(TestUtil.tupleList(page.iterator()), TestUtil.tupleList(copy.iterator()));
+    assertArrayEquals(page.getPageData(), copy.getPageData());
+
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+    assertEquals(10, TestUtil.tupleList(copy.iterator(new Predicate[] { p })).size());
+  }
+
+  /**
+   * Unit test that deleting tuples frees their bytes for new tuples, keeps
+   * the slots of the other tuples and reuses the freed slots
+   */
+  @Test public void deleteCompacts() throws Exception {
+    SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < Type.STRING_LEN; i++) {
+      longString.append('x');
+    }
+    while (page.hasRoomFor(TestUtil.intStringTuple(0, longString.toString()))) {
+      page.insertTuple(TestUtil.intStringTuple(0, longString.toString()));
+    }
+    page = new SlottedHeapPage(pid, page.getPageData());
+    List<Tuple> before = TestUtil.tupleList(page.iterator());
+    for (int i = 1; i < before.size(); i += 2) {
+      page.deleteTuple(before.get(i));
+    }
+    assertFalse(page.isSlotUsed(1));
+    assertTrue(page.isSlotUsed(2));
+
+    // 删除腾出的空间可以放下更多短tuple，先复用空slot
+    Set<Integer> reused = new HashSet<>();
+    int inserted = 0;
+    while (page.hasRoomFor(TestUtil.intStringTuple(inserted, "s"))) {
+      Tuple t = TestUtil.intStringTuple(inserted++, "s");
+      page.insertTuple(t);
+      reused.add(t.getRecordId().getTupleNumber());
+    }
+    assertTrue(inserted > before.size());
+    for (int i = 1; i < before.size(); i += 2) {
+      assertTrue(reused.contains(i));
+    }
+    SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+    assertSameTuples(TestUtil.tupleList(page.iterator()), TestUtil.tupleList(copy.iterator()));
+    // 没有删除的tuple仍在原来的slot
+    Tuple[] bySlot = new Tuple[before.size() + inserted];
+    for (Tuple t : TestUtil.tupleList(copy.iterator())) {
+      bySlot[t.getRecordId().getTupleNumber()] = t;
+    }
+    for (int i = 0; i < before.size(); i += 2) {
+      assertTrue(TestUtil.compareTuples(before.get(i), bySlot[i]));
+    }
+
+    // 删除全部tuple后得到空页
+    for (Tuple t : TestUtil.tupleList(copy.iterator())) {
+      copy.deleteTuple(t);
+    }
+    assertArrayEquals(HeapPage.createEmptyPageData(), copy.getPageData());
+  }
+
+  /**
+   * Unit test for inserting, scanning and deleting through a HeapFile whose
+   * pages are slotted
+   */
+  @Test public void slottedHeapFile() throws Exception {
+    File f = File.createTempFile("slotted", ".dat");
+    f.deleteOnExit();
+    FreeSpaceMap.fileOf(f).deleteOnExit();
+    HeapFile table = new HeapFile(f, TestUtil.INT_STRING_TD, HeapFile.PageFormat.SLOTTED);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    int rows = 2000;
+    for (int i = 0; i < rows; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), TestUtil.intStringTuple(i, "row" + i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+    int fixedPages = (rows + fixed.getNumEmptySlots() - 1) / fixed.getNumEmptySlots();
+    assertTrue(table.numPages() * 4 < fixedPages);
+
+    tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t", null,
+        new Predicate[] { new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(rows / 2)) });
+    scan.open();
+    List<Tuple> upper = new ArrayList<>();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      int i = ((IntField) t.getField(0)).getValue();
+      assertEquals("row" + i, ((StringField) t.getField(1)).getValue());
+      upper.add(t);
+    }
+    scan.close();
+    assertEquals(rows / 2, upper.size());
+    for (Tuple t : upper) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    // 从磁盘重新读出
+    Database.resetBufferPool(50);
+    tid = new TransactionId();
+    SeqScan all = new SeqScan(tid, table.getId(), "t");
+    all.open();
+    int count = 0;
+    while (all.hasNext()) {
+      assertTrue(((IntField) all.next().getField(0)).getValue() < rows / 2);
+      count++;
+    }
+    all.close();
+    assertEquals(rows / 2, count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+  }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortedAggregate;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SortedAggregateTest extends SimpleDbTestBase {
+
+  private static List<Tuple> readAll(OpIterator it) throws Exception {
+    List<Tuple> result = new ArrayList<>();
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  /**
+   * Unit test comparing the result with the hash-based Aggregate for every
+   * operator, over input sorted by OrderBy
+   */
+  @Test public void matchesHashAggregate() throws Exception {
+    int[] data = new int[2 * 500];
+    for (int i = 0; i < 500; i++) {
+      data[2 * i] = (i * 37) % 23;
+      data[2 * i + 1] = i - 100;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      OpIterator hash = new OrderBy(0, false, new Aggregate(TestUtil.createTupleList(2, data), 1, 0, op));
+      hash.open();
+      List<Tuple> expected = readAll(hash);
+      hash.close();
+
+      Aggregate sorted = new SortedAggregate(new OrderBy(0, false, TestUtil.createTupleList(2, data)), 1, 0, op);
+      sorted.open();
+      List<Tuple> actual = readAll(sorted);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+      }
+      sorted.rewind();
+      assertEquals(actual.size(), readAll(sorted).size());
+      sorted.close();
+    }
+  }
+
+  /**
+   * Unit test that each group is returned before the rest of the input is read
+   */
+  @Test public void streamsGroups() throws Exception {
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tuples.add(Utility.getHeapTuple(new int[] { i / 2, i }));
+    }
+    final int[] read = { 0 };
+    OpIterator child = new TupleIterator(Utility.getTupleDesc(2), tuples) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Tuple next() {
+        read[0]++;
+        return super.next();
+      }
+    };
+    SortedAggregate agg = new SortedAggregate(child, 1, 0, Aggregator.Op.SUM);
+    agg.open();
+    assertTrue(agg.hasNext());
+    Tuple first = agg.next();
+    assertEquals(new IntField(0), first.getField(0));
+    assertEquals(new IntField(1), first.getField(1));
+    // the group ends at the first tuple of the next group
+    assertEquals(3, read[0]);
+    assertEquals(4, readAll(agg).size());
+    agg.close();
+  }
+
+  /**
+   * Unit test for recognizing ordered input
+   */
+  @Test public void isOrderedOn() {
+    OpIterator list = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4 });
+    assertFalse(SortedAggregate.isOrderedOn(list, 0));
+    OpIterator sorted = new OrderBy(1, true, list);
+    assertTrue(SortedAggregate.isOrderedOn(sorted, 1));
+    assertFalse(SortedAggregate.isOrderedOn(sorted, 0));
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0)), sorted);
+    assertTrue(SortedAggregate.isOrderedOn(filter, 1));
+  }
+
+  /**
+   * Unit test for a parsed query grouping a btree table by its key, which
+   * the planner aggregates with a SortedAggregate
+   */
+  @Test public void plannedOverBTreeTable() throws Exception {
+    File dir = Files.createTempDirectory("btree").toFile();
+    dir.deleteOnExit();
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    new File(dir, "btree_agg.dat").deleteOnExit();
+    try (PrintWriter out = new PrintWriter(catalog)) {
+      out.println("btree_agg (k int pk, v int) btree");
+    }
+    Database.getCatalog().loadSchema(catalog.getPath());
+    int tableId = Database.getCatalog().getTableId("btree_agg");
+
+    TransactionId tid = new TransactionId();
+    Map<Integer, Integer> sums = new HashMap<>();
+    for (int i = 0; i < 600; i++) {
+      int k = (i * 7) % 40;
+      Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(new int[] { k, i }));
+      sums.merge(k, i, Integer::sum);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("btree_agg", new TableStats(tableId, 1000));
+
+    tid = new TransactionId();
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT t.k, SUM(t.v) FROM btree_agg t GROUP BY t.k;").physicalPlan(tid, stats, false);
+    OpIterator node = plan;
+    while (!(node instanceof Aggregate)) {
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof SortedAggregate);
+    List<List<Integer>> expected = new ArrayList<>();
+    for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+      expected.add(Arrays.asList(e.getKey(), e.getValue()));
+    }
+    SystemTestUtil.matchTuples(plan, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortedAggregateTest.class);
+  }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SpillingAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SpillingAggregatorTest extends SimpleDbTestBase {
+
+  private static final TupleDesc RESULT_TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+
+  /**
+   * Reads every result tuple of it into a map from group to aggregate value,
+   * checking that no group is returned twice.
+   */
+  private static Map<Integer, Integer> readGroups(OpIterator it) throws Exception {
+    Map<Integer, Integer> result = new HashMap<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int value = ((IntField) t.getField(1)).getValue();
+      assertFalse("group " + key + " returned twice", result.containsKey(key));
+      result.put(key, value);
+    }
+    return result;
+  }
+
+  /**
+   * Unit test for a GROUP BY with many more groups than the memory budget
+   */
+  @Test public void spillsAndAggregatesAllGroups() throws Exception {
+    SpillingAggregator agg = new SpillingAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, RESULT_TD, 50);
+    Map<Integer, Integer> expected = new HashMap<>();
+    int numGroups = 5000;
+    for (int round = 0; round < 3; round++) {
+      for (int k = 0; k < numGroups; k++) {
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { k, k + round }));
+        expected.merge(k, k + round, Integer::sum);
+      }
+    }
+    assertEquals(50, agg.numGroupsInMemory());
+    assertTrue(agg.hasSpilled());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    assertEquals(expected, readGroups(it));
+
+    it.rewind();
+    assertEquals(expected, readGroups(it));
+    it.close();
+    agg.clear();
+    assertFalse(agg.hasSpilled());
+  }
+
+  /**
+   * Unit test for AVG and COUNT through the Aggregate operator
+   */
+  @Test public void aggregateOperator() throws Exception {
+    int[] data = new int[2 * 2000];
+    for (int i = 0; i < 2000; i++) {
+      data[2 * i] = i % 700;
+      data[2 * i + 1] = i;
+    }
+    Map<Integer, Integer> sums = new HashMap<>();
+    Map<Integer, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 2000; i++) {
+      sums.merge(i % 700, i, Integer::sum);
+      counts.merge(i % 700, 1, Integer::sum);
+    }
+    Map<Integer, Integer> avgs = new HashMap<>();
+    for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+      avgs.put(e.getKey(), e.getValue() / counts.get(e.getKey()));
+    }
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.AVG, 10);
+    op.open();
+    assertEquals(avgs, readGroups(op));
+    op.close();
+
+    op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.COUNT, 10);
+    op.open();
+    assertEquals(counts, readGroups(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for an aggregate without grouping, which never spills
+   */
+  @Test public void noGrouping() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+    SpillingAggregator agg = new SpillingAggregator(Aggregator.NO_GROUPING, null, 0, Aggregator.Op.MAX, td, 1);
+    for (int i = 0; i < 100; i++) {
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(i));
+    }
+    assertFalse(agg.hasSpilled());
+    OpIterator it = agg.iterator();
+    it.open();
+    assertTrue(it.hasNext());
+    assertEquals(new IntField(99), it.next().getField(0));
+    assertFalse(it.hasNext());
+    it.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillingAggregatorTest.class);
+  }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -192,6 +193,41 @@ public class TestUtil {
         return buf;
     }
 
+    /** The (INT, STRING) TupleDesc of the table registered by {@link #addIntStringTable()}. */
+    public static final TupleDesc INT_STRING_TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    /**
+     * Registers a {@link SkeletonFile} with {@link #INT_STRING_TD} as table -1,
+     * for unit tests of single heap pages.
+     *
+     * @return the id of the first page of that table
+     */
+    public static HeapPageId addIntStringTable() {
+        Database.getCatalog().addTable(new SkeletonFile(-1, INT_STRING_TD), SystemTestUtil.getUUID());
+        return new HeapPageId(-1, 0);
+    }
+
+    /**
+     * @return a tuple of {@link #INT_STRING_TD} holding i and s
+     */
+    public static Tuple intStringTuple(int i, String s) {
+        Tuple t = new Tuple(INT_STRING_TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * @return the remaining tuples of it, in order
+     */
+    public static List<Tuple> tupleList(Iterator<Tuple> it) {
+        List<Tuple> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -380,6 +416,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileOf(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
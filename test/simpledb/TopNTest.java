@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.TopN;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int width = 2;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 5, 1,
+                    2, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    3, 6 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan);
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for TopN with an ascending order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    OpIterator expected = TestUtil.createTupleList(width,
+        new int[] { 1, 4,
+                    2, 2,
+                    3, 6 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN with a descending order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(0, false, 2, scan);
+    OpIterator expected = TestUtil.createTupleList(width,
+        new int[] { 9, 3,
+                    7, 5 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN where the limit exceeds the input size
+   */
+  @Test public void limitLargerThanInput() throws Exception {
+    TopN op = new TopN(1, false, 100, scan);
+    op.open();
+    int count = 0;
+    int last = Integer.MAX_VALUE;
+    while (op.hasNext()) {
+      int v = ((simpledb.storage.IntField) op.next().getField(1)).getValue();
+      assertTrue(v <= last);
+      last = v;
+      count++;
+    }
+    assertEquals(6, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN and Limit with a limit of 0
+   */
+  @Test public void limitZero() throws Exception {
+    TopN op = new TopN(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    Limit l = new Limit(0, new TestUtil.MockScan(0, 10, width));
+    l.open();
+    assertTrue(TestUtil.checkExhausted(l));
+    l.close();
+  }
+
+  /**
+   * Unit test for Limit: only the first n tuples are returned, and no more
+   * than n tuples are pulled from the child
+   */
+  @Test public void limitStopsChild() throws Exception {
+    TestUtil.MockScan child = new TestUtil.MockScan(0, 100, width);
+    Limit l = new Limit(3, child);
+    l.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 3, width), l);
+    // the child was left positioned right after the third tuple
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(3, width), child.next()));
+
+    l.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 3, width), l);
+    l.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -0,0 +1,176 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkBuilder;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class BTreeBulkBuildTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+
+    private static List<List<Integer>> randomTuples(int rows, int maxKey, long seed) {
+        Random random = new Random(seed);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(Arrays.asList(random.nextInt(1000000), random.nextInt(maxKey), i));
+        return tuples;
+    }
+
+    private static File writeInput(List<List<Integer>> tuples) throws IOException {
+        File input = File.createTempFile("btreeInput", ".txt");
+        input.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(input))) {
+            for (List<Integer> t : tuples)
+                bw.write(t.get(0) + "," + t.get(1) + "," + t.get(2) + "\n");
+        }
+        return input;
+    }
+
+    private static BTreeFile build(List<List<Integer>> tuples, double fillFactor, int runTuples) throws IOException {
+        File bFile = File.createTempFile("btree", ".dat");
+        bFile.deleteOnExit();
+        return new BTreeBulkBuilder(BufferPool.getPageSize(), TYPES, 1, fillFactor, 3, runTuples)
+                .build(writeInput(tuples), ',', bFile);
+    }
+
+    private static void insert(BTreeFile bf, List<List<Integer>> tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (List<Integer> row : tuples) {
+            Tuple t = new Tuple(bf.getTupleDesc());
+            for (int i = 0; i < row.size(); i++)
+                t.setField(i, new IntField(row.get(i)));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int countEquals(BTreeFile bf, TransactionId tid, int key) throws Exception {
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(key, ((IntField) it.next().getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * A tree built from many runs holds every tuple, in key order, and finds
+     * keys whose duplicates span several leaves
+     */
+    @Test public void testBuildFromManyRuns() throws Exception {
+        List<List<Integer>> tuples = randomTuples(30000, 100, 47);
+        BTreeFile bf = build(tuples, 1.0, 4000);
+
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int previous = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(key >= previous);
+            previous = key;
+        }
+        it.close();
+
+        int[] counts = new int[100];
+        for (List<Integer> t : tuples)
+            counts[t.get(1)]++;
+        for (int key : new int[] { 0, 1, 50, 99 })
+            assertEquals(counts[key], countEquals(bf, tid, key));
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /**
+     * Full pages give fewer pages than inserting tuple by tuple, and a lower
+     * fill factor leaves room for inserts
+     */
+    @Test public void testFillFactor() throws Exception {
+        List<List<Integer>> tuples = randomTuples(3000, 100000, 48);
+        File bFile = File.createTempFile("btreeInserted", ".dat");
+        bFile.deleteOnExit();
+        BTreeFile inserted = BTreeUtility.createEmptyBTreeFile(bFile.getPath(), 3, 1);
+        insert(inserted, tuples);
+        BTreeFile full = build(tuples, 1.0, BTreeBulkBuilder.DEFAULT_RUN_TUPLES);
+        assertTrue(full.numPages() < inserted.numPages());
+
+        BTreeFile half = build(tuples, 0.5, 1000);
+        assertTrue(half.numPages() > full.numPages());
+        TransactionId tid = new TransactionId();
+        // 只填一半的页不满足检查里“至少半满”的条件
+        BTreeChecker.checkRep(half, tid, new HashMap<>(), false);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int pages = half.numPages();
+        List<List<Integer>> more = randomTuples(200, 100000, 49);
+        insert(half, more);
+        // 每页都有一半空间，插入不会分裂页
+        assertEquals(pages, half.numPages());
+        tuples.addAll(more);
+        SystemTestUtil.matchTuples(half, tuples);
+    }
+
+    @Test public void testEmptyAndSingleLeaf() throws Exception {
+        BTreeFile empty = build(new ArrayList<>(), 1.0, 10);
+        assertEquals(1, empty.numPages());
+        SystemTestUtil.matchTuples(empty, new ArrayList<>());
+
+        List<List<Integer>> tuples = randomTuples(50, 10, 50);
+        BTreeFile single = build(tuples, 1.0, 10);
+        assertEquals(1, single.numPages());
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(single, tid, new HashMap<>(), false);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(single, tuples);
+    }
+
+    /**
+     * With a tiny fill factor every leaf holds one tuple, and every internal
+     * page still gets at least two children
+     */
+    @Test public void testTinyFillFactor() throws Exception {
+        for (int rows : new int[] { 3, 5, 7, 30 }) {
+            List<List<Integer>> tuples = randomTuples(rows, 1000, 51 + rows);
+            BTreeFile bf = build(tuples, 0.001, 10);
+            TransactionId tid = new TransactionId();
+            BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+            for (List<Integer> t : tuples)
+                assertTrue(countEquals(bf, tid, t.get(1)) > 0);
+            Database.getBufferPool().transactionComplete(tid);
+            SystemTestUtil.matchTuples(bf, tuples);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeBulkBuildTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class BTreeOptimisticDescentTest extends SimpleDbTestBase {
+
+    private static final long TIMEOUT = 5000;
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private static Thread start(Work work, AtomicReference<Exception> error) {
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static int countEquals(BTreeFile bf, TransactionId tid, int key) throws Exception {
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Splits the left-most leaf page in an uncommitted transaction, which
+     * then holds write locks on the path from the root
+     */
+    private static TransactionId splitLeftmostLeaf(BTreeFile bf) throws Exception {
+        TransactionId tid = new TransactionId();
+        // 两个INT列的叶子页有502个slot，插入这么多个最小的key一定会分裂
+        for (int i = 0; i < 600; i++)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(-1, 2));
+        return tid;
+    }
+
+    /**
+     * Lookups and inserts that fit in their leaf page go ahead while another
+     * transaction holds the internal pages it split, and aborting the split
+     * leaves the tree as it was
+     */
+    @Test public void testSplitDoesNotBlockOtherLeaves() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 502 * 10, null, tuples, 0);
+        List<Integer> keys = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            keys.add(t.get(0));
+        keys.sort(null);
+        int key = keys.get(keys.size() - 1);
+        int lookupKey = keys.get(keys.size() * 3 / 4);
+        int expected = 0;
+        for (int k : keys)
+            if (k == lookupKey)
+                expected++;
+
+        // 从最右边的叶子页删掉一个tuple，留出插入的空间
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        Tuple deleted = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, deleted);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.remove(BTreeUtility.tupleToList(deleted));
+
+        TransactionId splitter = splitLeftmostLeaf(bf);
+
+        AtomicInteger found = new AtomicInteger(-1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread lookup = start(() -> {
+            TransactionId reader = new TransactionId();
+            found.set(countEquals(bf, reader, lookupKey));
+            Database.getBufferPool().transactionComplete(reader);
+        }, error);
+        Thread insert = start(() -> {
+            TransactionId writer = new TransactionId();
+            Database.getBufferPool().insertTuple(writer, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+            Database.getBufferPool().transactionComplete(writer);
+        }, error);
+        lookup.join(TIMEOUT);
+        insert.join(TIMEOUT);
+        assertFalse(lookup.isAlive());
+        assertFalse(insert.isAlive());
+        assertNull(error.get());
+        assertEquals(expected, found.get());
+
+        Database.getBufferPool().transactionComplete(splitter, false);
+        List<Integer> row = new ArrayList<>();
+        row.add(key);
+        row.add(key);
+        tuples.add(row);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /**
+     * Without optimistic descent a lookup waits for the locks on the internal
+     * pages, and finds the committed tuples afterwards
+     */
+    @Test public void testLockedDescentWaitsForSplit() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 502 * 10, null, tuples, 0);
+        bf.setOptimisticDescent(false);
+        TransactionId splitter = splitLeftmostLeaf(bf);
+
+        int key = tuples.get(0).get(0);
+        AtomicInteger found = new AtomicInteger(-1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread lookup = start(() -> {
+            TransactionId reader = new TransactionId();
+            found.set(countEquals(bf, reader, -1));
+            Database.getBufferPool().transactionComplete(reader);
+        }, error);
+        lookup.join(500);
+        assertTrue(lookup.isAlive());
+
+        Database.getBufferPool().transactionComplete(splitter);
+        lookup.join(TIMEOUT);
+        assertFalse(lookup.isAlive());
+        assertNull(error.get());
+        assertEquals(600, found.get());
+
+        bf.setOptimisticDescent(true);
+        TransactionId tid = new TransactionId();
+        assertEquals(600, countEquals(bf, tid, -1));
+        assertTrue(countEquals(bf, tid, key) > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeOptimisticDescentTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.BloomFilter;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+public class BloomFilterJoinTest extends SimpleDbTestBase {
+
+    /**
+     * A Bloom filter never drops a value that was added, and lets through few
+     * values that were not
+     */
+    @Test public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(1000);
+        assertFalse(filter.mightContain(new IntField(1)));
+        for (int i = 0; i < 1000; i++) {
+            filter.add(new IntField(i * 7));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(new IntField(i * 7)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(new IntField(-1 - i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 5000);
+
+        filter.clear();
+        assertFalse(filter.mightContain(new IntField(0)));
+    }
+
+    /**
+     * A scan with a runtime filter returns every tuple whose key is in the
+     * filter, and few others, both with and without projected columns
+     */
+    @Test public void testScanDropsNonMatchingKeys() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 100000, null, tuples);
+        BloomFilter filter = new BloomFilter(100);
+        Set<Integer> keys = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(tuples.get(i * 50).get(1));
+            filter.add(new IntField(tuples.get(i * 50).get(1)));
+        }
+
+        TransactionId tid = new TransactionId();
+        for (int[] columns : new int[][] { null, { 2, 1 } }) {
+            SeqScan scan = new SeqScan(tid, table.getId(), "t", columns);
+            // 两种情况下第1列都是表的第1列
+            int keyField = 1;
+            scan.addRuntimeFilter(keyField, filter);
+            scan.open();
+            int returned = 0;
+            int matching = 0;
+            while (scan.hasNext()) {
+                int key = ((IntField) scan.next().getField(keyField)).getValue();
+                returned++;
+                if (keys.contains(key)) {
+                    matching++;
+                }
+            }
+            scan.close();
+            int expected = 0;
+            for (List<Integer> t : tuples) {
+                if (keys.contains(t.get(1))) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, matching);
+            assertTrue("returned " + returned, returned < expected + 500);
+
+            scan.removeRuntimeFilter(filter);
+            SystemTestUtil.matchTuples(scan, columns == null ? tuples : project(tuples, columns));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> project(List<List<Integer>> tuples, int[] columns) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> row = new ArrayList<>();
+            for (int c : columns) {
+                row.add(t.get(c));
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * HashEquiJoin pushes its filter through a Filter into the probe scan,
+     * and still returns every match, also when the build side takes several
+     * chunks
+     */
+    @Test public void testHashJoinWithPushedFilter() throws Exception {
+        for (int buildRows : new int[] { 0, 300, HashEquiJoin.MAP_SIZE * 2 + 10 }) {
+            List<List<Integer>> build = new ArrayList<>();
+            HeapFile buildTable = SystemTestUtil.createRandomHeapFile(2, buildRows, 200000, null, build);
+            List<List<Integer>> probe = new ArrayList<>();
+            HeapFile probeTable = SystemTestUtil.createRandomHeapFile(2, 20000, 200000, null, probe);
+
+            Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+            for (List<Integer> p : probe) {
+                if (p.get(0) < 150000) {
+                    byKey.computeIfAbsent(p.get(1), k -> new ArrayList<>()).add(p);
+                }
+            }
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> b : build) {
+                for (List<Integer> p : byKey.getOrDefault(b.get(0), new ArrayList<>())) {
+                    List<Integer> out = new ArrayList<>(b);
+                    out.addAll(p);
+                    expected.add(out);
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            SeqScan probeScan = new SeqScan(tid, probeTable.getId(), "p");
+            OpIterator probeSide = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(150000)),
+                    probeScan);
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new SeqScan(tid, buildTable.getId(), "b"), probeSide);
+            SystemTestUtil.matchTuples(join, expected);
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BloomFilterJoinTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+
+    // 两个INT列的页有504个slot
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private static int insert(TransactionId tid, HeapFile source, HeapFile destination) throws Exception {
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insert.open();
+        int count = ((IntField) insert.next().getField(0)).getValue();
+        assertFalse(insert.hasNext());
+        insert.close();
+        return count;
+    }
+
+    /**
+     * A large insert fills new pages completely, leaves them out of the
+     * BufferPool, and keeps them locked until the transaction commits
+     */
+    @Test public void testLargeInsertAppendsFullPages() throws Exception {
+        int rows = BulkLoader.BATCH_PAGES * TUPLES_PER_PAGE + 3 * TUPLES_PER_PAGE + 7;
+        List<List<Integer>> sourceTuples = new ArrayList<>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, rows, null, sourceTuples);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        destination.getFreeSpaceMap().getFile().deleteOnExit();
+
+        Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        assertEquals(rows, insert(tid, source, destination));
+        // 第0页原有的空间不用，新的tuple放在紧凑的新页上
+        assertEquals(1 + (rows + TUPLES_PER_PAGE - 1) / TUPLES_PER_PAGE, destination.numPages());
+        Iterator<Page> cached = Database.getBufferPool().getBufferPool().iterator();
+        while (cached.hasNext()) {
+            assertNotEquals(destination.getId(), cached.next().getId().getTableId());
+        }
+        for (int i = 1; i < destination.numPages(); i++) {
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(destination.getId(), i)));
+        }
+
+        tuples.addAll(sourceTuples);
+        SystemTestUtil.matchTuples(destination, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(destination, tuples);
+
+        // 重新打开文件后数据还在
+        HeapFile reopened = new HeapFile(destination.getFile(), destination.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Aborting a bulk load removes the appended pages, and later inserts
+     * reuse their page numbers
+     */
+    @Test public void testAbortRemovesAppendedPages() throws Exception {
+        List<List<Integer>> sourceTuples = new ArrayList<>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, Insert.BULK_LOAD_THRESHOLD * 2, null, sourceTuples);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 2 * TUPLES_PER_PAGE, null, tuples);
+        destination.getFreeSpaceMap().getFile().deleteOnExit();
+
+        TransactionId tid = new TransactionId();
+        insert(tid, source, destination);
+        assertTrue(destination.numPages() > 2);
+        SystemTestUtil.matchTuples(destination, tid, concat(tuples, sourceTuples));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(2, destination.numPages());
+        SystemTestUtil.matchTuples(destination, tuples);
+
+        tid = new TransactionId();
+        Tuple t = new Tuple(destination.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        Database.getBufferPool().insertTuple(tid, destination.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+        List<Integer> row = new ArrayList<>();
+        row.add(1);
+        row.add(2);
+        tuples.add(row);
+        SystemTestUtil.matchTuples(destination, tuples);
+    }
+
+    /**
+     * Two transactions bulk loading into the same table at the same time get
+     * separate pages, and both loads are there after they commit
+     */
+    @Test public void testConcurrentLoadsIntoOneTable() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        destination.getFreeSpaceMap().getFile().deleteOnExit();
+        List<Thread> loads = new ArrayList<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < 2; i++) {
+            List<List<Integer>> sourceTuples = new ArrayList<>();
+            HeapFile source = SystemTestUtil.createRandomHeapFile(2, Insert.BULK_LOAD_THRESHOLD * 3, null, sourceTuples);
+            tuples.addAll(sourceTuples);
+            Thread load = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    insert(tid, source, destination);
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            load.start();
+            loads.add(load);
+        }
+        for (Thread load : loads) {
+            load.join(60000);
+            assertFalse(load.isAlive());
+        }
+        assertNull(error.get());
+        SystemTestUtil.matchTuples(destination, tuples);
+    }
+
+    private static List<List<Integer>> concat(List<List<Integer>> a, List<List<Integer>> b) {
+        List<List<Integer>> result = new ArrayList<>(a);
+        result.addAll(b);
+        return result;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.ColumnPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 4;
+
+    /**
+     * Registers a columnar table through a catalog file and fills it with
+     * rows whose column j holds (7 * row + 13 * j) % 1000, so every column
+     * spans [0, 1000) once there are 1000 rows.
+     */
+    private static ColumnFile createTable(String name, int rows, List<List<Integer>> tuples) throws Exception {
+        File dir = Files.createTempDirectory("columnar").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(catalog)) {
+            out.println(name + " (c0 int, c1 int, c2 int, c3 int) columnar");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        ColumnFile table = (ColumnFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        for (int j = 0; j < COLUMNS; j++) {
+            table.getColumnFile(j).deleteOnExit();
+        }
+
+        TransactionId tid = new TransactionId();
+        TupleDesc td = table.getTupleDesc();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            List<Integer> values = new ArrayList<>();
+            for (int j = 0; j < COLUMNS; j++) {
+                values.add((7 * i + 13 * j) % 1000);
+                t.setField(j, new IntField(values.get(j)));
+            }
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(values);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return table;
+    }
+
+    private static List<List<Integer>> columns(List<List<Integer>> tuples, int... columns) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> row = new ArrayList<>();
+            for (int c : columns) {
+                row.add(t.get(c));
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    @Test public void testScanReadsOnlyRequestedColumns() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        ColumnFile table = createTable("columnar_scan", 3000, tuples);
+        assertTrue(table.numPages(0) > 1);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t", new int[] { 2, 1 });
+        SystemTestUtil.matchTuples(scan, columns(tuples, 2, 1));
+        Iterator<Page> cached = Database.getBufferPool().getBufferPool().iterator();
+        while (cached.hasNext()) {
+            int column = ((ColumnPageId) cached.next().getId()).getColumn();
+            assertTrue(column == 1 || column == 2);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDeleteAndAbort() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        ColumnFile table = createTable("columnar_delete", 2000, tuples);
+
+        // 删除c0为偶数的行
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<Tuple> even = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                even.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : even) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        List<List<Integer>> odd = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) % 2 != 0) {
+                odd.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(table, odd);
+
+        // 回滚的插入不留下痕迹
+        tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        for (int j = 0; j < COLUMNS; j++) {
+            t.setField(j, new IntField(-1));
+        }
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(table, odd);
+    }
+
+    @Test public void testQueryOnColumnarTable() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        ColumnFile table = createTable("columnar_query", 3000, tuples);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("columnar_query", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT p.c1, SUM(p.c3) FROM columnar_query p WHERE p.c0 < 500 AND p.c1 < 10 GROUP BY p.c1;")
+                .physicalPlan(tid, stats, false);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 500 && t.get(1) < 10) {
+                expected.add(t);
+            }
+        }
+        Map<Integer, Integer> groups = new HashMap<>();
+        for (List<Integer> t : expected) {
+            groups.merge(t.get(1), t.get(3), Integer::sum);
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : groups.entrySet()) {
+            result.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+        SystemTestUtil.matchTuples(plan, result);
+
+        // 扫描只读查询用到的三列
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertArrayEquals(new int[] { 0, 1, 3 }, ((SeqScan) scan).getColumns());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,252 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MorselScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.PartitionConsumer;
+import simpledb.execution.Predicate;
+import simpledb.execution.Repartition;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.ExchangePlanner;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int DOP = 4;
+    // 两列int的表每页约500个tuple，这样的表超过ParallelSeqScan.MIN_PARALLEL_PAGES
+    private static final int LARGE_ROWS = 40000;
+
+    private static List<List<Integer>> join(List<List<Integer>> left, List<List<Integer>> right,
+                                            Predicate.Op op) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> l : left) {
+            for (List<Integer> r : right) {
+                if (new IntField(l.get(0)).compare(op, new IntField(r.get(0)))) {
+                    List<Integer> t = new ArrayList<>(l);
+                    t.addAll(r);
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test public void testGather() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        List<OpIterator> parts = new ArrayList<>();
+        for (MorselScan scan : MorselScan.split(tid, table.getId(), "", DOP, 1)) {
+            parts.add(new Filter(p, scan));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                expected.add(t);
+            }
+        }
+
+        Gather gather = new Gather(parts);
+        SystemTestUtil.matchTuples(gather, expected);
+        // matchTuples closes the operator; reopening must run the fragments again
+        gather.open();
+        gather.next();
+        gather.rewind();
+        int count = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRepartitionedJoin() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, 200000, null, left);
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, 200000, null, right);
+
+        // 用哈希表算出期望结果，嵌套循环太慢
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t : right) {
+            byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : left) {
+            for (List<Integer> match : byKey.getOrDefault(t.get(0), new ArrayList<>())) {
+                List<Integer> row = new ArrayList<>(t);
+                row.addAll(match);
+                expected.add(row);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator plan = new ExchangePlanner(DOP).rewrite(
+                new HashEquiJoin(p, new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r")));
+        assertTrue(plan instanceof Gather);
+        assertEquals(DOP, ((Gather) plan).getChildren().length);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBroadcastJoin() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> large = new ArrayList<>();
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, 1000, null, large);
+        HeapFile s = SystemTestUtil.createRandomHeapFile(2, 3, 1000, null, small);
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        OpIterator plan = new ExchangePlanner(DOP).rewrite(
+                new Join(p, new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, s.getId(), "s")));
+        assertTrue(plan instanceof Gather);
+        SystemTestUtil.matchTuples(plan, join(large, small, Predicate.Op.LESS_THAN));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testGroupedAggregate() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, 1000, null, tuples);
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            sums.merge(t.get(1), t.get(0), Integer::sum);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new ExchangePlanner(DOP).rewrite(
+                new Aggregate(new SeqScan(tid, table.getId(), "t"), 0, 1, Aggregator.Op.SUM));
+        assertTrue(plan instanceof Gather);
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // 小表不值得并行，计划保持不变
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, null);
+        OpIterator serial = new Aggregate(new SeqScan(tid, small.getId(), "s"), 0, 1, Aggregator.Op.SUM);
+        assertSame(serial, new ExchangePlanner(DOP).rewrite(serial));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testStreamingRepartition() throws DbException, TransactionAbortedException {
+        // 远多于有界channel能容纳的tuple，两个消费者必须一边接收一边读
+        int rows = 200000;
+        int[] data = new int[rows];
+        long sum = 0;
+        for (int i = 0; i < rows; i++) {
+            data[i] = i;
+            sum += i;
+        }
+        List<OpIterator> inputs = new ArrayList<>();
+        inputs.add(TestUtil.createTupleList(1, data));
+        Repartition repartition = Repartition.hash(inputs, new int[]{0}, 2, false);
+        assertFalse(repartition.isReplayable());
+
+        List<OpIterator> parts = new ArrayList<>();
+        parts.add(repartition.consumer(0));
+        parts.add(repartition.consumer(1));
+        Gather gather = new Gather(parts);
+        gather.open();
+        int count = 0;
+        long total = 0;
+        while (gather.hasNext()) {
+            total += ((IntField) gather.next().getField(0)).getValue();
+            count++;
+        }
+        gather.close();
+        assertEquals(rows, count);
+        assertEquals(sum, total);
+
+        // 不保存tuple的消费者不能rewind
+        PartitionConsumer consumer = repartition.consumer(0);
+        consumer.open();
+        try {
+            consumer.rewind();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Test public void testConsumerSetChildren() throws DbException, TransactionAbortedException {
+        List<OpIterator> inputs = new ArrayList<>();
+        inputs.add(TestUtil.createTupleList(1, new int[]{1, 2, 3}));
+        Repartition repartition = Repartition.hash(inputs, new int[]{0}, 2, true);
+        PartitionConsumer consumer = repartition.consumer(1);
+        assertEquals(1, consumer.getChildren().length);
+
+        // 替换的是Repartition的输入，所有消费者都读新的输入
+        consumer.setChildren(new OpIterator[]{
+                TestUtil.createTupleList(1, new int[]{10, 20}),
+                TestUtil.createTupleList(1, new int[]{30})});
+        assertEquals(2, repartition.consumer(0).getChildren().length);
+        List<OpIterator> parts = new ArrayList<>();
+        parts.add(repartition.consumer(0));
+        parts.add(repartition.consumer(1));
+        Gather gather = new Gather(parts);
+        gather.open();
+        long total = 0;
+        while (gather.hasNext()) {
+            total += ((IntField) gather.next().getField(0)).getValue();
+        }
+        gather.close();
+        assertEquals(60, total);
+    }
+
+    @Test public void testAggregateKeepsBudget() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, 5000, null, tuples);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t.get(1), 1, Integer::sum);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new ExchangePlanner(DOP).rewrite(new Aggregate(new SeqScan(tid, table.getId(), "t"),
+                new int[]{0}, new int[]{1}, new Aggregator.Op[]{Aggregator.Op.COUNT}, 50));
+        assertTrue(plan instanceof Gather);
+        for (OpIterator fragment : ((Gather) plan).getChildren()) {
+            // 分片同时运行，平分50个分组的预算
+            assertEquals(50 / DOP, ((Aggregate) fragment).maxGroupsInMemory());
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(HeapFile table, int value) {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /**
+     * Creates a table whose pages are all full.
+     */
+    private static HeapFile createFullTable(int pages) throws Exception {
+        // 两个INT列的页有 4096*8/(8*8+1) = 504 个slot
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        assertEquals(pages, table.numPages());
+        return table;
+    }
+
+    @Test public void testInsertSkipsFullPages() throws Exception {
+        HeapFile table = createFullTable(10);
+
+        // 第一次插入要检查每一页，满的页在检查后就释放锁
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -1));
+        assertEquals(11, table.numPages());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(table.getFreeSpaceMap().isFull(i));
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)));
+        }
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), 10)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // 之后的插入不再读满的页
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -2));
+        Iterator<Page> cached = Database.getBufferPool().getBufferPool().iterator();
+        while (cached.hasNext()) {
+            assertEquals(10, cached.next().getId().getPageNumber());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMapIsPersistentAndFollowsDeletes() throws Exception {
+        HeapFile table = createFullTable(5);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -1));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // 重新打开表时读入磁盘上的空闲空间表
+        HeapFile reopened = new HeapFile(table.getFile(), table.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(reopened.getFreeSpaceMap().isFull(i));
+        }
+        assertFalse(reopened.getFreeSpaceMap().isFull(5));
+
+        // 删除第2页的一个tuple后，下一个tuple插入到第2页
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, reopened.getId(), "t");
+        scan.open();
+        Tuple victim = null;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 2) {
+                victim = t;
+                break;
+            }
+        }
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertFalse(reopened.getFreeSpaceMap().isFull(2));
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Tuple t = tuple(reopened, -10 - i);
+            Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(2, inserted.get(0).getRecordId().getPageId().getPageNumber());
+        assertEquals(5, inserted.get(1).getRecordId().getPageId().getPageNumber());
+        assertTrue(reopened.getFreeSpaceMap().isFull(2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAbortedInsertsLeavePageRoom() throws Exception {
+        HeapFile table = createFullTable(2);
+
+        // 事务自己的插入填满了第2页并追加了第3页，回滚后第2页又是空的
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 + 1; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(table, -i));
+        }
+        assertEquals(4, table.numPages());
+        assertTrue(table.getFreeSpaceMap().isFull(2));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertTrue(table.getFreeSpaceMap().isFull(0));
+        assertTrue(table.getFreeSpaceMap().isFull(1));
+        assertFalse(table.getFreeSpaceMap().isFull(2));
+
+        tid = new TransactionId();
+        Tuple t = tuple(table, -1);
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.cache.PageLruCache;
+import simpledb.transaction.TransactionId;
+
+public class IndexPageCachingTest extends SimpleDbTestBase {
+
+    /**
+     * Reading the least recently used page makes the next page the one to
+     * evict
+     */
+    @Test public void testEvictsLeastRecentlyUsed() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 3), Permissions.READ_ONLY);
+
+        PageLruCache cache = Database.getBufferPool().getBufferPool();
+        assertTrue(cache.isCached(new HeapPageId(table.getId(), 0)));
+        assertFalse(cache.isCached(new HeapPageId(table.getId(), 1)));
+        assertTrue(cache.isCached(new HeapPageId(table.getId(), 2)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Lookups over many more leaves than fit in the BufferPool keep the root
+     * pointer and the internal pages cached
+     */
+    @Test public void testUpperLevelsStayResident() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // 两个INT列的叶子页有502个slot
+        BTreeFile bf = BTreeUtility.createBTreeFile(2, 502 * 40, null, tuples, 0);
+        Database.resetBufferPool(10);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < tuples.size(); i += 97) {
+            int key = tuples.get(i).get(0);
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+            it.open();
+            assertTrue(it.hasNext());
+            it.close();
+        }
+
+        PageLruCache cache = Database.getBufferPool().getBufferPool();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, root.pgcateg());
+        assertTrue(cache.isCached(root));
+        int leaves = 0;
+        for (int i = 1; i <= bf.numPages(); i++) {
+            if (cache.isCached(new BTreePageId(bf.getId(), i, BTreePageId.LEAF)))
+                leaves++;
+        }
+        assertTrue(leaves > 0);
+        assertTrue(leaves < 10);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexPageCachingTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.ParallelAggregate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs all of the aggregate system tests with a ParallelAggregate, and checks
+ * that filters below the aggregate are applied by the workers.
+ */
+public class ParallelAggregateTest extends AggregateTest {
+    private static final int WORKERS = 4;
+
+    @Override
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, List<List<Integer>> expectedResult)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Aggregate ag = new ParallelAggregate(ss, aggregateColumn, groupColumn, operation, WORKERS);
+
+        SystemTestUtil.matchTuples(ag, expectedResult);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> readAll(Aggregate ag)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        ag.open();
+        while (ag.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(ag.next()));
+        }
+        ag.close();
+        return result;
+    }
+
+    @Test public void testFilteredSum() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 4096, 64, null, new ArrayList<>());
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(20));
+        Aggregate serial = new Aggregate(new Filter(p, new SeqScan(tid, table.getId(), "")),
+                1, 0, Aggregator.Op.SUM);
+        List<List<Integer>> expected = readAll(serial);
+
+        Aggregate parallel = new ParallelAggregate(new Filter(p, new SeqScan(tid, table.getId(), "")),
+                1, 0, Aggregator.Op.SUM, WORKERS);
+        SystemTestUtil.matchTuples(parallel, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBudgetSpillsMergedGroups() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 4096, 2000, null, new ArrayList<>());
+
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = readAll(new Aggregate(new SeqScan(tid, table.getId(), ""),
+                1, 0, Aggregator.Op.COUNT));
+
+        // 预算只够每个worker保留几个分组，worker的表满了就合并到结果中，结果溢出到磁盘
+        Aggregate parallel = new ParallelAggregate(new SeqScan(tid, table.getId(), ""),
+                1, 0, Aggregator.Op.COUNT, WORKERS, 16);
+        SystemTestUtil.matchTuples(parallel, expected);
+
+        // 预算足够时仍然并行聚合
+        parallel = new ParallelAggregate(new SeqScan(tid, table.getId(), ""),
+                1, 0, Aggregator.Op.COUNT, WORKERS, 2000 * WORKERS);
+        SystemTestUtil.matchTuples(parallel, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSpilledPartialsKeepAvgExact() throws IOException, DbException, TransactionAbortedException {
+        // 每个分组约20行，溢出的是worker已经部分聚合的结果
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 8192, 400, null, new ArrayList<>());
+
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX }) {
+            List<List<Integer>> expected = readAll(new Aggregate(new SeqScan(tid, table.getId(), ""),
+                    1, 0, op));
+            Aggregate parallel = new ParallelAggregate(new SeqScan(tid, table.getId(), ""),
+                    1, 0, op, WORKERS, 32);
+            SystemTestUtil.matchTuples(parallel, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFileEncoder;
+
+public class ParallelConvertTest extends SimpleDbTestBase {
+
+    private static File writeInput(String text) throws IOException {
+        File input = File.createTempFile("convert", ".txt");
+        input.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(input))) {
+            bw.write(text);
+        }
+        return input;
+    }
+
+    private static void assertSameOutput(File input, Type[] types, char separator, int threads) throws IOException {
+        File serial = File.createTempFile("serial", ".dat");
+        serial.deleteOnExit();
+        File parallel = File.createTempFile("parallel", ".dat");
+        parallel.deleteOnExit();
+        HeapFileEncoder.convert(input, serial, BufferPool.getPageSize(), types.length, types, separator);
+        HeapFileEncoder.convert(input, parallel, BufferPool.getPageSize(), types.length, types, separator, threads);
+        assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    /**
+     * Input spanning several chunks, with blank lines and Windows line
+     * endings, converts to the same pages as the serial convert
+     */
+    @Test public void testIntsSpanningChunks() throws IOException {
+        Random random = new Random(46);
+        // 两个INT列的页有504个slot，这样会有三个chunk
+        int rows = HeapFileEncoder.PAGES_PER_CHUNK * 504 * 2 + 1000;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            text.append(random.nextInt()).append(',').append(random.nextInt(1000));
+            text.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0)
+                text.append('\n');
+        }
+        File input = writeInput(text.toString());
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        for (int threads : new int[] { 1, 4 })
+            assertSameOutput(input, types, ',', threads);
+    }
+
+    @Test public void testStringsAndSeparator() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append(i).append('|').append(" name").append(i).append(' ');
+            if (i % 100 == 0) {
+                // 太长的字符串被截断
+                for (int j = 0; j < Type.STRING_LEN + 10; j++)
+                    text.append('x');
+            }
+            text.append('|').append(-i).append('\n');
+        }
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        assertSameOutput(writeInput(text.toString()), types, '|', 3);
+    }
+
+    @Test public void testEmptyInputGivesOneEmptyPage() throws IOException {
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        assertSameOutput(writeInput(""), types, ',', 2);
+        assertSameOutput(writeInput("\n\r\n"), types, ',', 2);
+    }
+
+    @Test public void testMalformedLineFails() throws IOException {
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        File output = File.createTempFile("parallel", ".dat");
+        output.deleteOnExit();
+        for (String text : new String[] { "1,2\n3,x\n", "1,2\n3\n", "1,2,3\n" }) {
+            try {
+                HeapFileEncoder.convert(writeInput(text), output, BufferPool.getPageSize(), 2, types, ',', 2);
+                fail("expected IOException for " + text);
+            } catch (IOException e) {
+                // 期望的异常
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelConvertTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelHashEquiJoin;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ParallelHashEquiJoinTest extends SimpleDbTestBase {
+    private static final int WORKERS = 4;
+
+    private static List<List<Integer>> join(List<List<Integer>> left, List<List<Integer>> right) {
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t : right) {
+            byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : left) {
+            for (List<Integer> match : byKey.getOrDefault(t.get(0), new ArrayList<>())) {
+                List<Integer> row = new ArrayList<>(t);
+                row.addAll(match);
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    @Test public void testScanBothSides() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, 10000, 20000, null, left);
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, 30000, 20000, null, right);
+        List<List<Integer>> filteredRight = new ArrayList<>();
+        for (List<Integer> t : right) {
+            if (t.get(1) < 10000) {
+                filteredRight.add(t);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10000));
+        ParallelHashEquiJoin join = new ParallelHashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, l.getId(), "l"), new Filter(p, new SeqScan(tid, r.getId(), "r")), WORKERS, 2);
+        SystemTestUtil.matchTuples(join, join(left, filteredRight));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildFromOtherOperator() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> large = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, large);
+        List<List<Integer>> small = new ArrayList<>();
+        List<Tuple> smallTuples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int[] values = {i * 7 % 1000, i};
+            smallTuples.add(Utility.getHeapTuple(values));
+            List<Integer> t = new ArrayList<>();
+            t.add(values[0]);
+            t.add(values[1]);
+            small.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        // 大表在右边和在左边时，都由大表一侧并行probe
+        OpIterator buildRight = new ParallelHashEquiJoin(p, new SeqScan(tid, f.getId(), "f"),
+                new TupleIterator(Utility.getTupleDesc(2), smallTuples), WORKERS, 2);
+        SystemTestUtil.matchTuples(buildRight, join(large, small));
+        ParallelHashEquiJoin buildLeft = new ParallelHashEquiJoin(p,
+                new TupleIterator(Utility.getTupleDesc(2), smallTuples), new SeqScan(tid, f.getId(), "f"), WORKERS, 2);
+        List<List<Integer>> expected = join(small, large);
+        SystemTestUtil.matchTuples(buildLeft, expected);
+
+        // rewind只重新probe，结果不变
+        buildLeft.open();
+        buildLeft.next();
+        buildLeft.rewind();
+        int count = 0;
+        while (buildLeft.hasNext()) {
+            buildLeft.next();
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        buildLeft.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildSideClosedAfterBuild() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null);
+        List<Tuple> smallTuples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            smallTuples.add(Utility.getHeapTuple(new int[]{i, i}));
+        }
+        int[] closes = {0};
+        TupleIterator buildSide = new TupleIterator(Utility.getTupleDesc(2), smallTuples) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void close() {
+                closes[0]++;
+                super.close();
+            }
+        };
+
+        TransactionId tid = new TransactionId();
+        ParallelHashEquiJoin join = new ParallelHashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                buildSide, new SeqScan(tid, f.getId(), "f"), WORKERS, 2);
+        // 哈希表建好后build一侧就关闭了，join的close不再关闭它
+        join.open();
+        assertEquals(1, closes[0]);
+        join.close();
+        assertEquals(1, closes[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNeedsScan() {
+        OpIterator list = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<>());
+        assertFalse(ParallelHashEquiJoin.canParallelize(list, list));
+        try {
+            new ParallelHashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), list, list);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelHashEquiJoinTest.class);
+    }
+}
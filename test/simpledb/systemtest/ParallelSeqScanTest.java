@@ -0,0 +1,96 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+    private static final int WORKERS = 4;
+
+    private static OpIterator pipeline(TransactionId tid, HeapFile table) {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        return new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(p, new SeqScan(tid, table.getId(), "")));
+    }
+
+    private static List<List<Integer>> expected(List<List<Integer>> tuples) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                result.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+        return result;
+    }
+
+    @Test public void testFilterAndProject() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+        assertTrue(table.numPages() > WORKERS);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(pipeline(tid, table), WORKERS, 2);
+        SystemTestUtil.matchTuples(scan, expected(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewindAndEarlyClose() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+        int expectedCount = expected(tuples).size();
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(pipeline(tid, table), WORKERS, 1);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scan.hasNext());
+            scan.next();
+        }
+        // the workers are still running; rewind must restart them cleanly
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(expectedCount, count);
+
+        scan.rewind();
+        assertTrue(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEmptyTable() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 0, null, null);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(pipeline(tid, table), WORKERS, 4);
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
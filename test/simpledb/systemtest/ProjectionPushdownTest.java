@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+    /**
+     * Creates a table of random values in [0, 1000) that include both 0 and
+     * 999 in every column, so the histograms of TableStats span the same
+     * range on every run.
+     */
+    private static HeapFile createTable(String name, int columns, int rows, List<List<Integer>> tuples)
+            throws IOException {
+        Random r = new Random();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>(columns);
+            for (int j = 0; j < columns; j++) {
+                t.add(i == 0 ? 0 : i == 1 ? 999 : r.nextInt(1000));
+            }
+            tuples.add(t);
+        }
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        FreeSpaceMap.fileOf(temp).deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
+        HeapFile table = Utility.openHeapFile(columns, "c", temp);
+        Database.getCatalog().addTable(table, name);
+        return table;
+    }
+
+    @Test public void testNarrowScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 3000, 1000, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+
+        SeqScan scan = new SeqScan(tid, table.getId(), "t", new int[]{3, 1});
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c3", td.getFieldName(0));
+        assertEquals("t.c1", td.getFieldName(1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            expected.add(Arrays.asList(t.get(3), t.get(1)));
+        }
+        SystemTestUtil.matchTuples(scan, expected);
+
+        // 投影后的tuple仍指向原来的位置，可以用于删除
+        scan.open();
+        Tuple first = scan.next();
+        assertNotNull(first.getRecordId());
+        assertEquals(0, first.getRecordId().getPageId().getPageNumber());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testQueryReadsOnlyUsedColumns() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = createTable("pushdown", 5, 3000, tuples);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pushdown", new TableStats(table.getId(), 1000));
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                counts.merge(t.get(4), 1, Integer::sum);
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT p.c4, COUNT(p.c0) FROM pushdown p WHERE p.c1 < 500 GROUP BY p.c4;")
+                .physicalPlan(tid, stats, false);
+        SystemTestUtil.matchTuples(plan, expected);
+
+        OpIterator all = new Parser().generateLogicalPlan(tid, "SELECT * FROM pushdown p WHERE p.c1 < 500;")
+                .physicalPlan(tid, stats, false);
+        assertEquals(5, all.getTupleDesc().numFields());
+        all.open();
+        while (all.hasNext()) {
+            assertTrue(((IntField) all.next().getField(1)).getValue() < 500);
+        }
+        all.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFiltersPushedIntoScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = createTable("pushfilter", 3, 3000, tuples);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pushfilter", new TableStats(table.getId(), 1000));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500 && t.get(2) >= 100) {
+                expected.add(Arrays.asList(t.get(0)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT p.c0 FROM pushfilter p WHERE p.c1 < 500 AND p.c2 >= 100;")
+                .physicalPlan(tid, stats, false);
+        // 过滤条件由扫描检查，扫描只返回c0
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            assertFalse(scan instanceof Filter);
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) scan).getPredicates().length);
+        assertEquals(1, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    /**
+     * Creates a table whose first column is the row number, so each page
+     * holds a narrow range of it, and whose second column is random.
+     */
+    private static HeapFile createTable(int rows, List<List<Integer>> tuples) throws Exception {
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Arrays.asList(i, (int) (Math.random() * 1000)));
+        }
+        File temp = File.createTempFile("zonemap", ".dat");
+        temp.deleteOnExit();
+        FreeSpaceMap.fileOf(temp).deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+        HeapFile table = Utility.openHeapFile(2, "c", temp);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static List<List<Integer>> matching(List<List<Integer>> tuples, Predicate p) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            Tuple tuple = new Tuple(Utility.getTupleDesc(2));
+            tuple.setField(0, new IntField(t.get(0)));
+            tuple.setField(1, new IntField(t.get(1)));
+            if (p.filter(tuple)) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static void scan(HeapFile table, Predicate p, List<List<Integer>> tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t", null, new Predicate[] { p });
+        SystemTestUtil.matchTuples(scan, matching(tuples, p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Set<Integer> cachedPages() {
+        Set<Integer> pages = new HashSet<>();
+        Iterator<Page> cached = Database.getBufferPool().getBufferPool().iterator();
+        while (cached.hasNext()) {
+            pages.add(cached.next().getId().getPageNumber());
+        }
+        return pages;
+    }
+
+    @Test public void testSkipsPagesOutsideRange() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = createTable(5000, tuples);
+        assertTrue(table.numPages() > 5);
+
+        // 第一次扫描读入所有页并记录各页的范围
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        scan(table, p, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan(table, p, tuples);
+        assertEquals(new HashSet<>(Arrays.asList(0)), cachedPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Predicate q = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(4999));
+        scan(table, q, tuples);
+        assertEquals(new HashSet<>(Arrays.asList(table.numPages() - 1)), cachedPages());
+
+        // 第二列是随机的，每页都要读
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan(table, new Predicate(1, Predicate.Op.EQUALS, new IntField(500)), tuples);
+        assertEquals(table.numPages(), cachedPages().size());
+    }
+
+    @Test public void testSummariesFollowInsertsAndDeletes() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = createTable(3000, tuples);
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10000));
+        Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        scan(table, big, tuples);
+        scan(table, small, tuples);
+
+        // 删除第0页的一个tuple后插入的新tuple落在第0页
+        TransactionId tid = new TransactionId();
+        SeqScan all = new SeqScan(tid, table.getId(), "t");
+        all.open();
+        Tuple first = all.next();
+        all.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        tuples.remove(0);
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(20000));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(Arrays.asList(20000, 0));
+        scan(table, big, tuples);
+        scan(table, small, tuples);
+
+        // 回滚的插入和删除之后结果仍然正确
+        tid = new TransactionId();
+        t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        scan(table, small, tuples);
+
+        tid = new TransactionId();
+        SeqScan smallScan = new SeqScan(tid, table.getId(), "t", null, new Predicate[] { small });
+        smallScan.open();
+        Tuple victim = smallScan.next();
+        smallScan.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid, false);
+        scan(table, small, tuples);
+        scan(table, big, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}